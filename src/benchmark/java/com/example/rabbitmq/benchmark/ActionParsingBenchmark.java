@@ -0,0 +1,88 @@
+package com.example.rabbitmq.benchmark;
+
+import com.example.rabbitmq.codec.EmailActionRequestDecoder;
+import com.example.rabbitmq.codec.MalformedRequestException;
+import com.example.rabbitmq.codec.WireFormat;
+import com.example.rabbitmq.model.EmailAction;
+import com.example.rabbitmq.model.EmailActionMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Action name lookup, and decoding of batch messages of growing size. Single actions are covered by
+ * {@link WireFormatBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ActionParsingBenchmark {
+    @State(Scope.Thread)
+    public static class ActionNames {
+        // Producers do not agree on the case of action names
+        private final String[] names = {"Move", "Trash", "move", "TRASH"};
+        private int next;
+
+        String next() {
+            return names[next++ & 3];
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class BatchMessage {
+        @Param({"10", "100", "1000"})
+        public int actions;
+
+        private final EmailActionRequestDecoder decoder = new EmailActionRequestDecoder(50000);
+        private byte[] body;
+
+        @Setup
+        public void setUp() throws IOException {
+            List<Map<String, Object>> items = new ArrayList<>(actions);
+            for (int i = 0; i < actions; i++) {
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("action", i % 4 == 0 ? "Trash" : "Move");
+                item.put("sourceMailboxID", 1042L);
+                item.put("sourceMessageID", 873421L + i);
+                if (i % 4 != 0) {
+                    item.put("destinationMailboxID", 1057L);
+                }
+                item.put("hashID", "5f2b8c1e9a7d" + i);
+                items.add(item);
+            }
+            Map<String, Object> batch = new LinkedHashMap<>();
+            batch.put("batchID", "batch-1");
+            batch.put("actions", items);
+            body = new ObjectMapper().writeValueAsBytes(batch);
+            System.out.printf("%n%d actions: %d bytes%n", actions, body.length);
+        }
+    }
+
+    @Benchmark
+    public EmailAction actionFromString(ActionNames names) {
+        return EmailAction.fromString(names.next());
+    }
+
+    @Benchmark
+    public EmailActionMessage decodeBatch(BatchMessage message) throws MalformedRequestException {
+        return message.decoder.decodeMessage(message.body, WireFormat.JSON);
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.rabbitmq.benchmark;
+
+import com.example.rabbitmq.config.ProcessingMode;
+import com.example.rabbitmq.config.RabbitMQExtensionConfiguration;
+import com.example.rabbitmq.metrics.PipelineStage;
+import com.example.rabbitmq.service.ActionBatcher;
+import com.example.rabbitmq.service.RabbitMQConsumerService;
+import com.example.rabbitmq.service.RabbitMQPublisherService;
+import com.example.rabbitmq.service.RetryHandler;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.AMQP;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consume-to-publish throughput of the whole pipeline: decode, dispatch to a lane, mailbox lookup, move, result
+ * encoding, publish and ack, with the broker replaced by {@link StubConnectionManager}.
+ *
+ * Each invocation delivers {@value #DELIVERIES} Move actions spread over {@value #SOURCE_MAILBOXES} source
+ * mailboxes and waits until all of them are acknowledged. The UIDs are not present in the mailboxes, so moves are
+ * no-ops and the pipeline overhead is not hidden by mailbox writes, which {@link EmailManagementServiceBenchmark}
+ * measures.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConsumerPipelineBenchmark {
+    private static final int DELIVERIES = 1000;
+    private static final int SOURCE_MAILBOXES = 8;
+
+    @Param({"worker", "reactive"})
+    public String processingMode;
+
+    @Param({"1", "4"})
+    public int workerThreads;
+
+    private InMemoryMailboxFixture fixture;
+    private StubConnectionManager connectionManager;
+    private RabbitMQPublisherService publisherService;
+    private RabbitMQConsumerService consumerService;
+    private StubConnectionManager.StubChannel channel;
+    private final byte[][] payloads = new byte[DELIVERIES][];
+    private final AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+            .contentType("application/json")
+            .build();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        RabbitMQExtensionConfiguration config = InMemoryMailboxFixture.configuration()
+                .processingMode(ProcessingMode.fromString(processingMode))
+                .workerThreads(workerThreads)
+                .prefetchCount(DELIVERIES)
+                .build();
+        fixture = new InMemoryMailboxFixture(config);
+
+        long[] sources = new long[SOURCE_MAILBOXES];
+        for (int i = 0; i < SOURCE_MAILBOXES; i++) {
+            sources[i] = fixture.createMailbox("source-" + i);
+        }
+        long destination = fixture.createMailbox("destination");
+        ObjectMapper mapper = new ObjectMapper();
+        for (int i = 0; i < DELIVERIES; i++) {
+            Map<String, Object> payload = new LinkedHashMap<>();
+            payload.put("action", "Move");
+            payload.put("sourceMailboxID", sources[i % SOURCE_MAILBOXES]);
+            payload.put("sourceMessageID", 1_000_000L + i);
+            payload.put("destinationMailboxID", destination);
+            payload.put("hashID", "bench-" + i);
+            payloads[i] = mapper.writeValueAsBytes(payload);
+        }
+
+        connectionManager = new StubConnectionManager(config);
+        publisherService = new RabbitMQPublisherService(config, connectionManager, fixture.metrics);
+        RetryHandler retryHandler = new RetryHandler(config, publisherService, fixture.metrics);
+        ActionBatcher actionBatcher = new ActionBatcher(config, fixture.emailService, publisherService, retryHandler,
+                fixture.metrics);
+        consumerService = new RabbitMQConsumerService(config, fixture.emailService, publisherService, actionBatcher,
+                retryHandler, connectionManager, fixture.metrics, fixture.limiter);
+        publisherService.start();
+        consumerService.start();
+        channel = connectionManager.consumers().get(0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DELIVERIES)
+    public void consumeToPublish() throws Exception {
+        long last = 0;
+        for (byte[] payload : payloads) {
+            last = channel.deliver(properties, payload);
+        }
+        while (!channel.settledUpTo(last)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        consumerService.stop();
+        publisherService.stop();
+        System.out.printf("%npublished=%d, nacked=%d%n", connectionManager.published(), channel.nacked());
+        for (PipelineStage stage : PipelineStage.values()) {
+            System.out.printf("%-8s %s%n", stage, fixture.metrics.latency(stage).snapshot());
+        }
+    }
+}
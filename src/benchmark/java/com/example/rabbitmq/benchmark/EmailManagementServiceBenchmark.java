@@ -0,0 +1,93 @@
+package com.example.rabbitmq.benchmark;
+
+import com.example.rabbitmq.model.EmailAction;
+import com.example.rabbitmq.model.EmailActionRequest;
+import com.example.rabbitmq.model.EmailActionResponse;
+import org.apache.james.mailbox.exception.MailboxException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code processEmailAction} and grouped moves against an in-memory James mailbox.
+ *
+ * Each invocation moves {@code messages} contiguous messages between two mailboxes and back on the next one: a
+ * single message goes through {@code processEmailAction}, several through {@code processMoveBatch}. Mailbox metadata
+ * is cached after the first invocation, so this measures session leasing and the move itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmailManagementServiceBenchmark {
+    @Param({"1", "16"})
+    public int messages;
+
+    private InMemoryMailboxFixture fixture;
+    private final long[] mailboxes = new long[2];
+    // The messages are in mailboxes[current], with UIDs firstUid to firstUid + messages - 1
+    private int current;
+    private long firstUid;
+    // Moved messages get the next UIDs of their destination
+    private final long[] nextUid = new long[2];
+    private long hashID;
+    private final List<EmailActionResponse> failures = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new InMemoryMailboxFixture(InMemoryMailboxFixture.configuration().build());
+        mailboxes[0] = fixture.createMailbox("A");
+        mailboxes[1] = fixture.createMailbox("B");
+        List<Long> uids = fixture.append(mailboxes[0], messages);
+        firstUid = uids.get(0);
+        nextUid[0] = uids.get(uids.size() - 1) + 1;
+        nextUid[1] = 1;
+    }
+
+    @Benchmark
+    public List<EmailActionResponse> move() throws MailboxException {
+        int destination = 1 - current;
+        List<EmailActionRequest> requests = new ArrayList<>(messages);
+        for (int i = 0; i < messages; i++) {
+            requests.add(new EmailActionRequest(EmailAction.MOVE, mailboxes[current], firstUid + i,
+                    mailboxes[destination], Long.toString(hashID++)));
+        }
+        List<EmailActionResponse> responses = messages == 1
+                ? List.of(fixture.emailService.processEmailAction(requests.get(0)))
+                : fixture.emailService.processMoveBatch(requests).responsesOrThrow();
+
+        for (EmailActionResponse response : responses) {
+            if (!EmailActionResponse.SUCCESS.equals(response.getStatus())) {
+                failures.add(response);
+            }
+        }
+        current = destination;
+        firstUid = nextUid[destination];
+        nextUid[destination] += messages;
+        return responses;
+    }
+
+    // A failed move means the predicted UIDs drifted from the mailbox, and the numbers are meaningless
+    @TearDown(Level.Iteration)
+    public void checkMoves() {
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException(failures.size() + " moves failed, first: " + failures.get(0).getMessage());
+        }
+    }
+}
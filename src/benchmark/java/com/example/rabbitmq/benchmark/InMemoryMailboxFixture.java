@@ -0,0 +1,75 @@
+package com.example.rabbitmq.benchmark;
+
+import com.example.rabbitmq.cache.MailboxMetadataCache;
+import com.example.rabbitmq.cache.ProcessedActionStore;
+import com.example.rabbitmq.cache.TrashMailboxResolver;
+import com.example.rabbitmq.config.RabbitMQExtensionConfiguration;
+import com.example.rabbitmq.metrics.ExtensionMetrics;
+import com.example.rabbitmq.service.AdaptiveLimiter;
+import com.example.rabbitmq.service.EmailManagementService;
+import com.example.rabbitmq.service.MailboxSessionPool;
+import org.apache.james.core.Username;
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.MessageManager;
+import org.apache.james.mailbox.inmemory.InMemoryId;
+import org.apache.james.mailbox.inmemory.InMemoryMailboxManager;
+import org.apache.james.mailbox.inmemory.manager.InMemoryIntegrationResources;
+import org.apache.james.mailbox.model.MailboxId;
+import org.apache.james.mailbox.model.MailboxPath;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An {@link EmailManagementService} wired as in James, over an in-memory mailbox manager instead of JPA.
+ */
+final class InMemoryMailboxFixture {
+    static final Username USER = Username.of("bench@example.com");
+    private static final String MESSAGE = "From: sender@example.com\r\nTo: bench@example.com\r\n"
+            + "Subject: benchmark\r\n\r\nBenchmark message body\r\n";
+
+    final RabbitMQExtensionConfiguration config;
+    final InMemoryMailboxManager mailboxManager;
+    final MailboxSession session;
+    final ProcessedActionStore processedActions;
+    final AdaptiveLimiter limiter;
+    final ExtensionMetrics metrics;
+    final EmailManagementService emailService;
+
+    InMemoryMailboxFixture(RabbitMQExtensionConfiguration config) throws Exception {
+        this.config = config;
+        this.mailboxManager = InMemoryIntegrationResources.defaultResources().getMailboxManager();
+        this.session = mailboxManager.createSystemSession(USER);
+
+        MailboxSessionPool sessionPool = new MailboxSessionPool(config,
+                () -> mailboxManager, mailboxManager::getMapperFactory);
+        MailboxMetadataCache mailboxCache = new MailboxMetadataCache(config);
+        this.processedActions = new ProcessedActionStore(config);
+        this.limiter = new AdaptiveLimiter(config);
+        this.metrics = new ExtensionMetrics(mailboxCache, processedActions, limiter);
+        this.emailService = new EmailManagementService(config, sessionPool, mailboxCache, new TrashMailboxResolver(config),
+                processedActions, metrics, new InMemoryId.Factory(), limiter);
+    }
+
+    // Dedup is disabled: benchmarks replay the same actions and must not be answered from the store
+    static RabbitMQExtensionConfiguration.Builder configuration() {
+        return RabbitMQExtensionConfiguration.builder().dedupMaxSize(0);
+    }
+
+    long createMailbox(String name) throws Exception {
+        MailboxId id = mailboxManager.createMailbox(MailboxPath.forUser(USER, name), session)
+                .orElseThrow(() -> new IllegalStateException("Mailbox " + name + " was not created"));
+        return ((InMemoryId) id).getRawId();
+    }
+
+    // Returns the UIDs of the appended messages, in order
+    List<Long> append(long mailboxID, int count) throws Exception {
+        MessageManager mailbox = mailboxManager.getMailbox(InMemoryId.of(mailboxID), session);
+        List<Long> uids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            uids.add(mailbox.appendMessage(MessageManager.AppendCommand.builder().build(MESSAGE), session)
+                    .getId().getUid().asLong());
+        }
+        return uids;
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.rabbitmq.benchmark;
+
+import com.example.rabbitmq.config.RabbitMQExtensionConfiguration;
+import com.example.rabbitmq.service.ConnectionState;
+import com.example.rabbitmq.service.RabbitMQConnectionManager;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Stands in for the broker: channels are in-process stubs that hand the consumer callback to the benchmark, count
+ * publishes and record acknowledgements. Nothing is sent over the network.
+ */
+final class StubConnectionManager extends RabbitMQConnectionManager {
+    private final List<StubChannel> channels = new CopyOnWriteArrayList<>();
+    // Receives every published message, e.g. to route results back to a load generator
+    private volatile BiConsumer<AMQP.BasicProperties, byte[]> publishListener = (properties, body) -> { };
+    private final Connection connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+            new Class<?>[]{Connection.class}, this::invokeConnection);
+
+    StubConnectionManager(RabbitMQExtensionConfiguration config) {
+        super(config);
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public Channel createChannel() {
+        StubChannel stub = new StubChannel(channels.size() + 1, this);
+        channels.add(stub);
+        return stub.proxy;
+    }
+
+    @Override
+    public Connection getConnection() {
+        return connection;
+    }
+
+    @Override
+    public ConnectionState getState() {
+        return ConnectionState.CONNECTED;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    // Channels with a registered consumer, in creation order
+    List<StubChannel> consumers() {
+        List<StubChannel> consumers = new CopyOnWriteArrayList<>();
+        for (StubChannel channel : channels) {
+            if (channel.consumer != null) {
+                consumers.add(channel);
+            }
+        }
+        return consumers;
+    }
+
+    void onPublish(BiConsumer<AMQP.BasicProperties, byte[]> listener) {
+        this.publishListener = listener;
+    }
+
+    long published() {
+        return channels.stream().mapToLong(channel -> channel.published.sum()).sum();
+    }
+
+    private Object invokeConnection(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "createChannel":
+                return createChannel();
+            case "isOpen":
+                return true;
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "StubConnection";
+            default:
+                return defaultValue(method.getReturnType());
+        }
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    static final class StubChannel implements InvocationHandler {
+        private final int number;
+        private final StubConnectionManager owner;
+        private final Channel proxy;
+        private final AtomicLong deliveryTag = new AtomicLong();
+        // Every delivery up to this tag was settled, and the tags settled one by one above it
+        private long settledPrefix;
+        private final NavigableSet<Long> settledAbove = new TreeSet<>();
+        private final AtomicLong publishSeqNo = new AtomicLong();
+        private final LongAdder published = new LongAdder();
+        private final LongAdder nacked = new LongAdder();
+        private volatile DeliverCallback consumer;
+
+        private StubChannel(int number, StubConnectionManager owner) {
+            this.number = number;
+            this.owner = owner;
+            this.proxy = (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(),
+                    new Class<?>[]{Channel.class}, this);
+        }
+
+        // Delivers a message as the client dispatch thread of this channel would; returns its delivery tag
+        long deliver(AMQP.BasicProperties properties, byte[] body) throws IOException {
+            long tag = deliveryTag.incrementAndGet();
+            consumer.handle("stub-" + number, new Delivery(
+                    new Envelope(tag, false, "", "stub"), properties, body));
+            return tag;
+        }
+
+        // Every delivery up to the tag was acknowledged, or nacked
+        synchronized boolean settledUpTo(long tag) {
+            return settledPrefix >= tag;
+        }
+
+        private synchronized void settle(long tag, boolean multiple) {
+            if (multiple) {
+                settledPrefix = Math.max(settledPrefix, tag);
+            } else if (tag > settledPrefix) {
+                settledAbove.add(tag);
+            }
+            settledAbove.headSet(settledPrefix, true).clear();
+            while (settledAbove.remove(settledPrefix + 1)) {
+                settledPrefix++;
+            }
+        }
+
+        long nacked() {
+            return nacked.sum();
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "basicConsume":
+                    for (Object arg : args) {
+                        if (arg instanceof DeliverCallback) {
+                            consumer = (DeliverCallback) arg;
+                        }
+                    }
+                    return "stub-" + number;
+                case "basicAck":
+                    settle((Long) args[0], (Boolean) args[1]);
+                    return null;
+                case "basicNack":
+                    nacked.increment();
+                    settle((Long) args[0], (Boolean) args[1]);
+                    return null;
+                case "basicPublish":
+                    publishSeqNo.incrementAndGet();
+                    published.increment();
+                    // The properties and body are the last two arguments of every overload
+                    owner.publishListener.accept((AMQP.BasicProperties) args[args.length - 2],
+                            (byte[]) args[args.length - 1]);
+                    return null;
+                case "getNextPublishSeqNo":
+                    return publishSeqNo.get() + 1;
+                case "getChannelNumber":
+                    return number;
+                case "isOpen":
+                    return true;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "StubChannel-" + number;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+    }
+}
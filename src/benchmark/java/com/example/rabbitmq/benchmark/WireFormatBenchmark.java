@@ -0,0 +1,84 @@
+package com.example.rabbitmq.benchmark;
+
+import com.example.rabbitmq.codec.EmailActionRequestDecoder;
+import com.example.rabbitmq.codec.EmailActionResponseEncoder;
+import com.example.rabbitmq.codec.MalformedRequestException;
+import com.example.rabbitmq.codec.WireFormat;
+import com.example.rabbitmq.model.EmailActionRequest;
+import com.example.rabbitmq.model.EmailActionResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode and encode cost of a typical Move action and its result, per wire format. Payload sizes are printed
+ * when each trial starts. {@code JSON_STRING_IDS} is what producers send today, with string-encoded ids.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WireFormatBenchmark {
+    public enum Variant {
+        JSON_STRING_IDS(WireFormat.JSON, true),
+        JSON(WireFormat.JSON, false),
+        CBOR(WireFormat.CBOR, false);
+
+        private final WireFormat format;
+        private final boolean stringIds;
+
+        Variant(WireFormat format, boolean stringIds) {
+            this.format = format;
+            this.stringIds = stringIds;
+        }
+    }
+
+    @Param({"JSON_STRING_IDS", "JSON", "CBOR"})
+    public Variant variant;
+
+    private final EmailActionRequestDecoder decoder = new EmailActionRequestDecoder();
+    private final EmailActionResponseEncoder encoder = new EmailActionResponseEncoder();
+    private byte[] request;
+    private EmailActionResponse response;
+
+    @Setup
+    public void setUp() throws IOException {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("action", "Move");
+        payload.put("sourceMailboxID", variant.stringIds ? "1042" : 1042L);
+        payload.put("sourceMessageID", variant.stringIds ? "873421" : 873421L);
+        payload.put("destinationMailboxID", variant.stringIds ? "1057" : 1057L);
+        payload.put("hashID", "5f2b8c1e9a7d4e3f");
+        request = new ObjectMapper(variant.format.getFactory()).writeValueAsBytes(payload);
+        response = EmailActionResponse.success("5f2b8c1e9a7d4e3f", "Message successfully moved to destination mailbox");
+
+        System.out.printf("%n%s: request %d bytes, result %d bytes%n",
+                variant, request.length, encoder.encode(response, variant.format).length);
+    }
+
+    @Benchmark
+    public EmailActionRequest decodeRequest() throws MalformedRequestException {
+        return decoder.decode(request, variant.format);
+    }
+
+    @Benchmark
+    public byte[] encodeResult() throws IOException {
+        return encoder.encode(response, variant.format);
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.rabbitmq;
+
+public enum ExtensionState {
+    // Waiting for James and the broker to become available
+    STARTING,
+
+    // Consuming and publishing
+    RUNNING,
+
+    // Started, but the broker connection is currently lost and being recovered
+    DEGRADED,
+
+    // Stopped, or startup failed
+    STOPPED
+}
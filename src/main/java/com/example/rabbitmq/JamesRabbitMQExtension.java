@@ -1,7 +1,12 @@
 package com.example.rabbitmq;
 
 
+import com.example.rabbitmq.cache.ProcessedActionStore;
 import com.example.rabbitmq.config.RabbitMQExtensionConfiguration;
+import com.example.rabbitmq.events.MailboxEventPublisher;
+import com.example.rabbitmq.metrics.ExtensionMetrics;
+import com.example.rabbitmq.service.EmailManagementService;
+import com.example.rabbitmq.service.RabbitMQConnectionManager;
 import com.example.rabbitmq.service.RabbitMQConsumerService;
 import com.example.rabbitmq.service.RabbitMQPublisherService;
 import com.google.inject.Singleton;
@@ -13,61 +18,87 @@ import javax.inject.Inject;
 @Singleton
 public class JamesRabbitMQExtension {
     private static final Logger LOGGER = LoggerFactory.getLogger(JamesRabbitMQExtension.class);
+    private final RabbitMQConnectionManager connectionManager;
+    private final EmailManagementService emailService;
     private final RabbitMQPublisherService publisherService;
     private final RabbitMQConsumerService consumerService;
+    private final MailboxEventPublisher eventPublisher;
+    private final ProcessedActionStore processedActions;
+    private final ExtensionMetrics metrics;
     private final RabbitMQExtensionConfiguration config;
-    private volatile boolean started = false;
+    private volatile ExtensionState state = ExtensionState.STARTING;
 
     @Inject
     public JamesRabbitMQExtension(
+            RabbitMQConnectionManager connectionManager,
+            EmailManagementService emailService,
             RabbitMQPublisherService publisherService,
             RabbitMQConsumerService consumerService,
+            MailboxEventPublisher eventPublisher,
+            ProcessedActionStore processedActions,
+            ExtensionMetrics metrics,
             RabbitMQExtensionConfiguration config) {
+        this.connectionManager = connectionManager;
+        this.emailService = emailService;
         this.publisherService = publisherService;
         this.consumerService = consumerService;
+        this.eventPublisher = eventPublisher;
+        this.processedActions = processedActions;
+        this.metrics = metrics;
         this.config = config;
         LOGGER.info("James RabbitMQ Extension - Constructor called");
+        metrics.setStateGauge(() -> getState().name());
         initializeAsync();
     }
 
     private void initializeAsync() {
         Thread initThread = new Thread(() -> {
             try {
-                // Wait a bit for James to be ready
-                Thread.sleep(10000); // 10 seconds
                 initialize();
             } catch (Exception e) {
                 LOGGER.error("Failed to initialize RabbitMQ Extension in async thread", e);
             }
         }, "RabbitMQ-Extension-Init");
 
-        initThread.setDaemon(false); // Ensure thread completes
+        // Startup waits for James itself, so it must not keep a failing JVM alive
+        initThread.setDaemon(true);
         initThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                cleanup();
+            } catch (Exception e) {
+                LOGGER.error("Failed to close RabbitMQ connection on shutdown", e);
+            }
+        }));
     }
 
     public void initialize() {
-        if (started) {
+        if (state != ExtensionState.STARTING) {
             LOGGER.warn("RabbitMQ Extension already started");
             return;
         }
 
         try {
             LOGGER.info("Starting James RabbitMQ Extension...");
+            metrics.register();
 
-            // Initialize and start services
-            publisherService.start();
-            consumerService.start();
+            // Start consuming as soon as James and the broker are both available
+            awaitMailboxManager();
+            connectionManager.start();
+            startServices();
 
-            started = true;
-            LOGGER.info("James RabbitMQ Extension started successfully");
-            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                try {
-                    cleanup();
-                } catch (Exception e) {
-                    System.err.println("❌ Failed to close RabbitMQ connection: " + e.getMessage());
+            synchronized (this) {
+                if (state != ExtensionState.STARTING) {
+                    return;
                 }
-            }));
+                state = ExtensionState.RUNNING;
+            }
+            LOGGER.info("James RabbitMQ Extension started successfully");
         } catch (Exception e) {
+            if (state == ExtensionState.STOPPED) {
+                LOGGER.info("James RabbitMQ Extension stopped during startup");
+                return;
+            }
             LOGGER.error("Failed to start James RabbitMQ Extension", e);
             // Attempt cleanup on failure
             cleanup();
@@ -75,10 +106,75 @@ public class JamesRabbitMQExtension {
         }
     }
 
+    // Retries with the same backoff as the broker connection until a mailbox query succeeds
+    private void awaitMailboxManager() throws InterruptedException {
+        long delay = config.getRecoveryInitialDelayMillis();
+        while (state == ExtensionState.STARTING) {
+            try {
+                emailService.checkMailboxAvailability();
+                LOGGER.info("James mailbox manager is ready");
+                return;
+            } catch (Exception e) {
+                LOGGER.info("James mailbox manager not ready yet, retrying in {}ms: {}", delay, e.getMessage());
+                Thread.sleep(delay);
+                delay = Math.min(delay * 2, config.getRecoveryMaxDelayMillis());
+            }
+        }
+    }
+
+    /**
+     * Declaring the exchanges and queues can fail once connected, e.g. on a topology mismatch or a missing
+     * permission: whatever was started is stopped again and the whole is retried with the same backoff.
+     */
+    private void startServices() throws InterruptedException {
+        long delay = config.getRecoveryInitialDelayMillis();
+        while (state == ExtensionState.STARTING) {
+            try {
+                publisherService.start();
+                eventPublisher.start();
+                consumerService.start();
+                return;
+            } catch (Exception e) {
+                LOGGER.warn("Failed to start consuming from RabbitMQ, retrying in {}ms: {}", delay, e.getMessage());
+                stopServices();
+                Thread.sleep(delay);
+                delay = Math.min(delay * 2, config.getRecoveryMaxDelayMillis());
+            }
+        }
+    }
+
+    /**
+     * RUNNING only while the broker connection is up; rolling deploys can gate on it through the
+     * {@link RabbitMQExtensionHealthCheck} or the {@code State} attribute of the metrics MBean.
+     */
+    public ExtensionState getState() {
+        ExtensionState current = state;
+        if (current == ExtensionState.RUNNING && !connectionManager.isConnected()) {
+            return ExtensionState.DEGRADED;
+        }
+        return current;
+    }
 
     private void cleanup() {
-        started = false;
+        synchronized (this) {
+            if (state == ExtensionState.STOPPED) {
+                return;
+            }
+            state = ExtensionState.STOPPED;
+        }
 
+        stopServices();
+        try {
+            connectionManager.stop();
+        } catch (Exception e) {
+            LOGGER.error("Error closing RabbitMQ connection", e);
+        }
+
+        processedActions.close();
+        metrics.unregister();
+    }
+
+    private void stopServices() {
         if (consumerService != null) {
             try {
                 consumerService.stop();
@@ -88,6 +184,16 @@ public class JamesRabbitMQExtension {
             }
         }
 
+        // Flushes buffered events, so it must stop before the publisher service
+        if (eventPublisher != null) {
+            try {
+                eventPublisher.stop();
+                LOGGER.debug("Event publisher stopped");
+            } catch (Exception e) {
+                LOGGER.error("Error stopping event publisher", e);
+            }
+        }
+
         if (publisherService != null) {
             try {
                 publisherService.stop();
@@ -1,11 +1,28 @@
 package com.example.rabbitmq;
 
+import com.example.rabbitmq.cache.MailboxCacheInvalidationListener;
+import com.example.rabbitmq.cache.MailboxMetadataCache;
+import com.example.rabbitmq.cache.ProcessedActionStore;
+import com.example.rabbitmq.cache.TrashMailboxResolver;
+import com.example.rabbitmq.config.InputQueue;
+import com.example.rabbitmq.config.ProcessingMode;
 import com.example.rabbitmq.config.RabbitMQExtensionConfiguration;
+import com.example.rabbitmq.events.MailboxEventListener;
+import com.example.rabbitmq.events.MailboxEventPublisher;
+import com.example.rabbitmq.metrics.ExtensionMetrics;
+import com.example.rabbitmq.service.ActionBatcher;
+import com.example.rabbitmq.service.AdaptiveLimiter;
 import com.example.rabbitmq.service.EmailManagementService;
+import com.example.rabbitmq.service.MailboxSessionPool;
+import com.example.rabbitmq.service.RabbitMQConnectionManager;
 import com.example.rabbitmq.service.RabbitMQConsumerService;
 import com.example.rabbitmq.service.RabbitMQPublisherService;
+import com.example.rabbitmq.service.RetryHandler;
 import com.google.inject.AbstractModule;
 import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import org.apache.james.core.healthcheck.HealthCheck;
+import org.apache.james.events.EventListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,16 +36,37 @@ public class JamesRabbitMQModule extends AbstractModule {
     @Override
     protected void configure() {
         bind(RabbitMQExtensionConfiguration.class).toProvider(ConfigurationProvider.class).in(Singleton.class);
+        bind(MailboxMetadataCache.class).in(Singleton.class);
+        bind(TrashMailboxResolver.class).in(Singleton.class);
+        bind(ProcessedActionStore.class).in(Singleton.class);
+        bind(AdaptiveLimiter.class).in(Singleton.class);
+        bind(ExtensionMetrics.class).in(Singleton.class);
+        bind(MailboxSessionPool.class).in(Singleton.class);
         bind(EmailManagementService.class).in(Singleton.class);
+        bind(RabbitMQConnectionManager.class).in(Singleton.class);
         bind(RabbitMQPublisherService.class).in(Singleton.class);
+        bind(RetryHandler.class).in(Singleton.class);
+        bind(ActionBatcher.class).in(Singleton.class);
         bind(RabbitMQConsumerService.class).in(Singleton.class);
+        bind(MailboxEventPublisher.class).in(Singleton.class);
         bind(JamesRabbitMQExtension.class).asEagerSingleton();
+
+        // Keep the mailbox metadata cache consistent with renames and deletions done through James,
+        // and stream mailbox events out when enabled
+        Multibinder<EventListener.ReactiveGroupEventListener> listeners =
+                Multibinder.newSetBinder(binder(), EventListener.ReactiveGroupEventListener.class);
+        listeners.addBinding().to(MailboxCacheInvalidationListener.class);
+        listeners.addBinding().to(MailboxEventListener.class);
+
+        // Exposes the extension state to James' health checks
+        Multibinder.newSetBinder(binder(), HealthCheck.class).addBinding().to(RabbitMQExtensionHealthCheck.class);
     }
 
     private static class ConfigurationProvider implements com.google.inject.Provider<RabbitMQExtensionConfiguration> {
         @Override
         public RabbitMQExtensionConfiguration get() {
-            Properties props = loadPropertiesFile();
+            Properties props = loadPropertiesFile("rabbitmq.properties");
+            Properties databaseProps = loadPropertiesFile("james-database.properties");
             RabbitMQExtensionConfiguration config = RabbitMQExtensionConfiguration.builder()
                     .host(getConfigValue(props, "rabbitmq.host", "localhost"))
                     .port(Integer.parseInt(getConfigValue(props, "rabbitmq.port", "5672")))
@@ -36,31 +74,83 @@ public class JamesRabbitMQModule extends AbstractModule {
                     .password(getConfigValue(props, "rabbitmq.password", "guest"))
                     .virtualHost(getConfigValue(props, "rabbitmq.virtualHost", "/"))
                     .inputQueue(getConfigValue(props, "rabbitmq.inputQueue", "james.email.actions"))
+                    .inputQueueWeight(Integer.parseInt(getConfigValue(props, "rabbitmq.inputQueue.weight", "1")))
+                    .priorityQueues(InputQueue.parseList(getConfigValue(props, "rabbitmq.priorityQueues", "")))
                     .outputExchange(getConfigValue(props, "rabbitmq.outputExchange", "james.email.results"))
                     .outputRoutingKey(getConfigValue(props, "rabbitmq.outputRoutingKey", "result"))
+                    .consumerCount(Integer.parseInt(getConfigValue(props, "rabbitmq.consumerCount", "1")))
+                    .prefetchCount(Integer.parseInt(getConfigValue(props, "rabbitmq.prefetchCount", "20")))
+                    .workerThreads(Integer.parseInt(getConfigValue(props, "rabbitmq.workerThreads", "1")))
+                    .partitionQueueCapacity(Integer.parseInt(getConfigValue(props, "rabbitmq.partitionQueueCapacity", "64")))
+                    .processingMode(ProcessingMode.fromString(getConfigValue(props, "rabbitmq.processingMode", "worker")))
+                    .shutdownTimeoutSeconds(Integer.parseInt(getConfigValue(props, "rabbitmq.shutdownTimeoutSeconds", "30")))
+                    .batchWindowMillis(Long.parseLong(getConfigValue(props, "rabbitmq.batchWindowMillis", "0")))
+                    .batchMaxSize(Integer.parseInt(getConfigValue(props, "rabbitmq.batchMaxSize", "100")))
+                    .bulkChunkSize(Integer.parseInt(getConfigValue(props, "rabbitmq.bulk.chunkSize", "500")))
+                    .eventsEnabled(Boolean.parseBoolean(getConfigValue(props, "rabbitmq.events.enabled", "false")))
+                    .eventsExchange(getConfigValue(props, "rabbitmq.events.exchange", "james.mailbox.events"))
+                    .eventsRoutingKey(getConfigValue(props, "rabbitmq.events.routingKey", "mailbox"))
+                    .eventsBatchMaxSize(Integer.parseInt(getConfigValue(props, "rabbitmq.events.batchMaxSize", "100")))
+                    .eventsBatchWindowMillis(Long.parseLong(getConfigValue(props, "rabbitmq.events.batchWindowMillis", "50")))
+                    .eventsBufferSize(Integer.parseInt(getConfigValue(props, "rabbitmq.events.bufferSize", "10000")))
+                    .mailboxCacheMaxSize(Long.parseLong(getConfigValue(props, "rabbitmq.mailboxCache.maxSize", "10000")))
+                    .mailboxCacheTtlSeconds(Long.parseLong(getConfigValue(props, "rabbitmq.mailboxCache.ttlSeconds", "300")))
+                    .sessionPoolMaxUsers(Long.parseLong(getConfigValue(props, "rabbitmq.sessionPool.maxUsers", "1000")))
+                    .sessionPoolMaxIdlePerUser(Integer.parseInt(getConfigValue(props, "rabbitmq.sessionPool.maxIdlePerUser", "4")))
+                    .sessionPoolMaxLifetimeSeconds(Long.parseLong(getConfigValue(props, "rabbitmq.sessionPool.maxLifetimeSeconds", "600")))
+                    .publisherChannels(Integer.parseInt(getConfigValue(props, "rabbitmq.publisherChannels", "4")))
+                    .publisherConfirms(Boolean.parseBoolean(getConfigValue(props, "rabbitmq.publisherConfirms", "false")))
+                    .maxOutstandingConfirms(Integer.parseInt(getConfigValue(props, "rabbitmq.publisherConfirms.maxOutstanding", "1000")))
+                    .publisherConfirmTimeoutSeconds(Long.parseLong(getConfigValue(props, "rabbitmq.publisherConfirms.timeoutSeconds", "30")))
+                    .heartbeatSeconds(Integer.parseInt(getConfigValue(props, "rabbitmq.heartbeatSeconds", "30")))
+                    .connectionTimeoutMillis(Integer.parseInt(getConfigValue(props, "rabbitmq.connectionTimeoutMillis", "10000")))
+                    .recoveryInitialDelayMillis(Long.parseLong(getConfigValue(props, "rabbitmq.recovery.initialDelayMillis", "1000")))
+                    .recoveryMaxDelayMillis(Long.parseLong(getConfigValue(props, "rabbitmq.recovery.maxDelayMillis", "30000")))
+                    .maxActionsPerMessage(Integer.parseInt(getConfigValue(props, "rabbitmq.maxActionsPerMessage", "50000")))
+                    .retryMaxAttempts(Integer.parseInt(getConfigValue(props, "rabbitmq.retry.maxAttempts", "5")))
+                    .retryInitialDelayMillis(Long.parseLong(getConfigValue(props, "rabbitmq.retry.initialDelayMillis", "1000")))
+                    .retryMaxDelayMillis(Long.parseLong(getConfigValue(props, "rabbitmq.retry.maxDelayMillis", "60000")))
+                    .deadLetterExchange(getConfigValue(props, "rabbitmq.deadLetterExchange", "james.email.actions.dlx"))
+                    .deadLetterQueue(getConfigValue(props, "rabbitmq.deadLetterQueue", "james.email.actions.dlq"))
+                    .dedupMaxSize(Long.parseLong(getConfigValue(props, "rabbitmq.dedup.maxSize", "100000")))
+                    .dedupTtlSeconds(Long.parseLong(getConfigValue(props, "rabbitmq.dedup.ttlSeconds", "86400")))
+                    .dedupPersistent(Boolean.parseBoolean(getConfigValue(props, "rabbitmq.dedup.persistent", "false")))
+                    .rateLimitActionsPerSecond(Double.parseDouble(getConfigValue(props, "rabbitmq.rateLimit.actionsPerSecond", "0")))
+                    .adaptiveConcurrency(Boolean.parseBoolean(getConfigValue(props, "rabbitmq.adaptive.enabled", "false")))
+                    .adaptiveTargetLatencyMillis(Long.parseLong(getConfigValue(props, "rabbitmq.adaptive.targetLatencyMillis", "250")))
+                    .adaptiveMinConcurrency(Integer.parseInt(getConfigValue(props, "rabbitmq.adaptive.minConcurrency", "1")))
+                    .adaptiveMaxConcurrency(Integer.parseInt(getConfigValue(props, "rabbitmq.adaptive.maxConcurrency", "0")))
+                    // Persistent dedup reuses the datasource James is configured with
+                    .databaseDriverClassName(databaseProps.getProperty("database.driverClassName"))
+                    .databaseUrl(databaseProps.getProperty("database.url"))
+                    .databaseUsername(databaseProps.getProperty("database.username"))
+                    .databasePassword(databaseProps.getProperty("database.password"))
                     .build();
 
-            LOGGER.info("RabbitMQ Configuration loaded: host={}, port={}, username={}, queue={}",
-                    config.getHost(), config.getPort(), config.getUsername(), config.getInputQueue());
+            LOGGER.info("RabbitMQ Configuration loaded: host={}, port={}, username={}, queues={}",
+                    config.getHost(), config.getPort(), config.getUsername(), config.getInputQueues());
+            LOGGER.info("RabbitMQ consumer concurrency: mode={}, consumers={}, prefetch={}, workers={}",
+                    config.getProcessingMode().getValue(), config.getConsumerCount(), config.getPrefetchCount(),
+                    config.getWorkerThreads());
 
             return config;
         }
 
-        private Properties loadPropertiesFile() {
+        private Properties loadPropertiesFile(String fileName) {
             Properties props = new Properties();
 
             // Try different possible locations for the properties file
             String[] possiblePaths = {
-                    "/root/conf/rabbitmq.properties",
-                    "conf/rabbitmq.properties",
-                    "rabbitmq.properties",
-                    System.getProperty("james.server.home", ".") + "/conf/rabbitmq.properties"
+                    "/root/conf/" + fileName,
+                    "conf/" + fileName,
+                    fileName,
+                    System.getProperty("james.server.home", ".") + "/conf/" + fileName
             };
 
             for (String path : possiblePaths) {
                 try (InputStream is = new FileInputStream(path)) {
                     props.load(is);
-                    LOGGER.info("Loaded RabbitMQ configuration from: {}", path);
+                    LOGGER.info("Loaded {} from: {}", fileName, path);
                     break;
                 } catch (Exception e) {
                     LOGGER.debug("Could not load from path: {}", path);
@@ -68,10 +158,10 @@ public class JamesRabbitMQModule extends AbstractModule {
             }
 
             // Try loading from classpath as well
-            try (InputStream is = this.getClass().getClassLoader().getResourceAsStream("rabbitmq.properties")) {
+            try (InputStream is = this.getClass().getClassLoader().getResourceAsStream(fileName)) {
                 if (is != null) {
                     props.load(is);
-                    LOGGER.info("Loaded RabbitMQ configuration from classpath");
+                    LOGGER.info("Loaded {} from classpath", fileName);
                 }
             } catch (Exception e) {
                 LOGGER.debug("Could not load from classpath", e);
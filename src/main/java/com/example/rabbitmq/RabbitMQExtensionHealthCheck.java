@@ -0,0 +1,46 @@
+package com.example.rabbitmq;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.james.core.healthcheck.ComponentName;
+import org.apache.james.core.healthcheck.HealthCheck;
+import org.apache.james.core.healthcheck.Result;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reports the {@link ExtensionState} through James' health checks, e.g. {@code GET /healthcheck} of webadmin, so
+ * that rolling deploys can wait for the extension to consume before moving on.
+ */
+@Singleton
+public class RabbitMQExtensionHealthCheck implements HealthCheck {
+    private static final ComponentName COMPONENT_NAME = new ComponentName("RabbitMQExtension");
+
+    private final JamesRabbitMQExtension extension;
+
+    @Inject
+    public RabbitMQExtensionHealthCheck(JamesRabbitMQExtension extension) {
+        this.extension = extension;
+    }
+
+    @Override
+    public ComponentName componentName() {
+        return COMPONENT_NAME;
+    }
+
+    @Override
+    public Publisher<Result> check() {
+        return Mono.fromCallable(() -> {
+            switch (extension.getState()) {
+                case RUNNING:
+                    return Result.healthy(COMPONENT_NAME);
+                case DEGRADED:
+                    return Result.degraded(COMPONENT_NAME, "RabbitMQ connection lost, recovering");
+                case STARTING:
+                    return Result.unhealthy(COMPONENT_NAME, "Starting, waiting for James and RabbitMQ");
+                default:
+                    return Result.unhealthy(COMPONENT_NAME, "Stopped");
+            }
+        });
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.rabbitmq.cache;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.james.events.Event;
+import org.apache.james.events.EventListener;
+import org.apache.james.events.Group;
+import org.apache.james.mailbox.events.MailboxEvents.MailboxDeletion;
+import org.apache.james.mailbox.events.MailboxEvents.MailboxEvent;
+import org.apache.james.mailbox.events.MailboxEvents.MailboxRenamed;
+import org.apache.james.mailbox.model.MailboxId;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Mono;
+
+/**
+ * Drops cached metadata, and cached Trash ids, of mailboxes that were renamed or deleted through James.
+ */
+@Singleton
+public class MailboxCacheInvalidationListener implements EventListener.ReactiveGroupEventListener {
+    public static class MailboxCacheInvalidationListenerGroup extends Group {
+    }
+
+    private static final Group GROUP = new MailboxCacheInvalidationListenerGroup();
+
+    private final MailboxMetadataCache mailboxCache;
+    private final TrashMailboxResolver trashResolver;
+
+    @Inject
+    public MailboxCacheInvalidationListener(MailboxMetadataCache mailboxCache,
+                                            TrashMailboxResolver trashResolver) {
+        this.mailboxCache = mailboxCache;
+        this.trashResolver = trashResolver;
+    }
+
+    @Override
+    public Group getDefaultGroup() {
+        return GROUP;
+    }
+
+    @Override
+    public boolean isHandling(Event event) {
+        return event instanceof MailboxRenamed || event instanceof MailboxDeletion;
+    }
+
+    @Override
+    public Publisher<Void> reactiveEvent(Event event) {
+        return Mono.fromRunnable(() -> invalidate(event));
+    }
+
+    @Override
+    public void event(Event event) {
+        invalidate(event);
+    }
+
+    private void invalidate(Event event) {
+        if (isHandling(event)) {
+            MailboxId mailboxId = ((MailboxEvent) event).getMailboxId();
+            mailboxCache.invalidate(mailboxId);
+            trashResolver.invalidate(mailboxId);
+        }
+    }
+}
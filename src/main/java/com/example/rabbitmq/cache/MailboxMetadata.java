@@ -0,0 +1,31 @@
+package com.example.rabbitmq.cache;
+
+import org.apache.james.core.Username;
+import org.apache.james.mailbox.model.Mailbox;
+import org.apache.james.mailbox.model.MailboxId;
+import org.apache.james.mailbox.model.MailboxPath;
+
+public class MailboxMetadata {
+    private final Mailbox mailbox;
+    private final Username owner;
+    private final MailboxPath path;
+
+    public MailboxMetadata(Mailbox mailbox) {
+        this.mailbox = mailbox;
+        this.owner = mailbox.getUser();
+        this.path = mailbox.generateAssociatedPath();
+    }
+
+    public Mailbox getMailbox() { return mailbox; }
+    public MailboxId getMailboxId() { return mailbox.getMailboxId(); }
+    public Username getOwner() { return owner; }
+    public MailboxPath getPath() { return path; }
+
+    @Override
+    public String toString() {
+        return "MailboxMetadata{" +
+                "mailboxId=" + mailbox.getMailboxId() +
+                ", path=" + path.asString() +
+                '}';
+    }
+}
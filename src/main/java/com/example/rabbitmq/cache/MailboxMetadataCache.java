@@ -0,0 +1,84 @@
+package com.example.rabbitmq.cache;
+
+import com.example.rabbitmq.config.RabbitMQExtensionConfiguration;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.james.mailbox.model.Mailbox;
+import org.apache.james.mailbox.model.MailboxId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, TTL-evicting cache of mailbox metadata (owner and path) keyed by {@link MailboxId}.
+ *
+ * Entries of renamed or deleted mailboxes are invalidated by {@link MailboxCacheInvalidationListener}.
+ */
+@Singleton
+public class MailboxMetadataCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MailboxMetadataCache.class);
+
+    private final Cache<MailboxId, MailboxMetadata> cache;
+    private final LongAdder invalidations = new LongAdder();
+
+    @Inject
+    public MailboxMetadataCache(RabbitMQExtensionConfiguration config) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(config.getMailboxCacheMaxSize())
+                .expireAfterWrite(Duration.ofSeconds(config.getMailboxCacheTtlSeconds()))
+                .recordStats()
+                .build();
+        LOGGER.info("Mailbox metadata cache initialized (maxSize={}, ttl={}s)",
+                config.getMailboxCacheMaxSize(), config.getMailboxCacheTtlSeconds());
+    }
+
+    public Optional<MailboxMetadata> get(MailboxId mailboxId) {
+        return Optional.ofNullable(cache.getIfPresent(mailboxId));
+    }
+
+    public MailboxMetadata put(Mailbox mailbox) {
+        MailboxMetadata metadata = new MailboxMetadata(mailbox);
+        cache.put(mailbox.getMailboxId(), metadata);
+        return metadata;
+    }
+
+    public void invalidate(MailboxId mailboxId) {
+        if (cache.asMap().remove(mailboxId) != null) {
+            invalidations.increment();
+            LOGGER.debug("Invalidated cached metadata of mailbox {}", mailboxId);
+        }
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long hitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long missCount() {
+        return cache.stats().missCount();
+    }
+
+    public long evictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    public long invalidationCount() {
+        return invalidations.sum();
+    }
+
+    public double hitRate() {
+        return cache.stats().hitRate();
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.rabbitmq.cache;
+
+import com.example.rabbitmq.config.RabbitMQExtensionConfiguration;
+import com.example.rabbitmq.model.EmailActionResponse;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, TTL-evicting record of the actions already applied, keyed by {@code hashID}.
+ *
+ * A redelivered or resent action is answered with the recorded response instead of being applied again. Only
+ * successful responses are recorded: a failed action may be resent and should then be attempted again.
+ * With {@code rabbitmq.dedup.persistent} the records are also kept in the James database, and looked up there
+ * on a cache miss; database errors are logged and treated as a miss.
+ */
+@Singleton
+public class ProcessedActionStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProcessedActionStore.class);
+
+    private final boolean enabled;
+    private final Cache<String, EmailActionResponse> cache;
+    private final ProcessedActionTable table;
+    private final LongAdder duplicates = new LongAdder();
+
+    @Inject
+    public ProcessedActionStore(RabbitMQExtensionConfiguration config) {
+        this.enabled = config.isDedupEnabled();
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(config.getDedupMaxSize())
+                .expireAfterWrite(Duration.ofSeconds(config.getDedupTtlSeconds()))
+                .recordStats()
+                .build();
+        this.table = enabled && config.isDedupPersistent() ? new ProcessedActionTable(config) : null;
+        LOGGER.info("Processed action store initialized (enabled={}, maxSize={}, ttl={}s, persistent={})",
+                enabled, config.getDedupMaxSize(), config.getDedupTtlSeconds(), table != null);
+    }
+
+    public Optional<EmailActionResponse> get(String hashID) {
+        if (!enabled || hashID == null) {
+            return Optional.empty();
+        }
+        EmailActionResponse response = cache.getIfPresent(hashID);
+        if (response == null && table != null) {
+            try {
+                response = table.find(hashID).orElse(null);
+                if (response != null) {
+                    cache.put(hashID, response);
+                }
+            } catch (SQLException e) {
+                LOGGER.warn("Could not look up processed action {}: {}", hashID, e.getMessage());
+            }
+        }
+        if (response != null) {
+            duplicates.increment();
+            LOGGER.info("Action {} was already processed, answering with the recorded result", hashID);
+        }
+        return Optional.ofNullable(response);
+    }
+
+    public void record(EmailActionResponse response) {
+        if (!enabled || response.getHashID() == null || !EmailActionResponse.SUCCESS.equals(response.getStatus())) {
+            return;
+        }
+        cache.put(response.getHashID(), response);
+        if (table != null) {
+            try {
+                table.insert(response);
+            } catch (SQLException e) {
+                LOGGER.warn("Could not persist processed action {}: {}", response.getHashID(), e.getMessage());
+            }
+        }
+    }
+
+    public void close() {
+        if (table != null) {
+            table.close();
+        }
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long duplicateCount() {
+        return duplicates.sum();
+    }
+
+    public double hitRate() {
+        return cache.stats().hitRate();
+    }
+}
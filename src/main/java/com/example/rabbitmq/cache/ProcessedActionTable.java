@@ -0,0 +1,211 @@
+package com.example.rabbitmq.cache;
+
+import com.example.rabbitmq.config.RabbitMQExtensionConfiguration;
+import com.example.rabbitmq.model.EmailActionResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Persists processed actions in the database James is configured with, so that duplicates are still detected
+ * after a restart.
+ *
+ * Connections are pooled: each call borrows an idle connection, or opens one, so that lookups of concurrent workers
+ * do not wait for each other. Up to {@code workerThreads} idle connections are kept, and a connection is closed
+ * after a failure or when it is no longer valid once borrowed, e.g. after a database restart. Rows older than the dedup TTL are ignored on lookup, replaced when their hashID is recorded
+ * again, and purged when the table is first opened.
+ */
+class ProcessedActionTable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProcessedActionTable.class);
+    private static final String TABLE = "RABBITMQ_PROCESSED_ACTION";
+    private static final int MAX_MESSAGE_LENGTH = 1024;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 1;
+    private static final String CREATE = "CREATE TABLE " + TABLE + " (HASH_ID VARCHAR(255) NOT NULL PRIMARY KEY, "
+            + "STATUS VARCHAR(16) NOT NULL, MESSAGE VARCHAR(" + MAX_MESSAGE_LENGTH + "), PROCESSED_AT BIGINT NOT NULL)";
+    private static final String SELECT = "SELECT STATUS, MESSAGE, PROCESSED_AT FROM " + TABLE
+            + " WHERE HASH_ID = ? AND PROCESSED_AT >= ?";
+    private static final String INSERT = "INSERT INTO " + TABLE + " (HASH_ID, STATUS, MESSAGE, PROCESSED_AT) VALUES (?, ?, ?, ?)";
+    private static final String REPLACE_EXPIRED = "UPDATE " + TABLE + " SET STATUS = ?, MESSAGE = ?, PROCESSED_AT = ?"
+            + " WHERE HASH_ID = ? AND PROCESSED_AT < ?";
+    private static final String PURGE = "DELETE FROM " + TABLE + " WHERE PROCESSED_AT < ?";
+
+    @FunctionalInterface
+    private interface SqlCall<T> {
+        T call(Connection connection) throws SQLException;
+    }
+
+    private final RabbitMQExtensionConfiguration config;
+    private final long ttlMillis;
+    private final int maxIdle;
+    private final Deque<Connection> idle = new ConcurrentLinkedDeque<>();
+    private volatile boolean initialized;
+    private volatile boolean closed;
+
+    ProcessedActionTable(RabbitMQExtensionConfiguration config) {
+        this.config = config;
+        this.ttlMillis = config.getDedupTtlSeconds() * 1000;
+        this.maxIdle = config.getWorkerThreads();
+    }
+
+    Optional<EmailActionResponse> find(String hashID) throws SQLException {
+        return withConnection(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(SELECT)) {
+                statement.setString(1, hashID);
+                statement.setLong(2, System.currentTimeMillis() - ttlMillis);
+                try (ResultSet result = statement.executeQuery()) {
+                    if (!result.next()) {
+                        return Optional.empty();
+                    }
+                    EmailActionResponse response = new EmailActionResponse(hashID, result.getString(1), result.getString(2));
+                    response.setTimestamp(result.getLong(3));
+                    return Optional.of(response);
+                }
+            }
+        });
+    }
+
+    void insert(EmailActionResponse response) throws SQLException {
+        String message = response.getMessage();
+        String truncated = message != null && message.length() > MAX_MESSAGE_LENGTH
+                ? message.substring(0, MAX_MESSAGE_LENGTH)
+                : message;
+        withConnection(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT)) {
+                statement.setString(1, response.getHashID());
+                statement.setString(2, response.getStatus());
+                statement.setString(3, truncated);
+                statement.setLong(4, response.getTimestamp());
+                statement.executeUpdate();
+                return null;
+            } catch (SQLException e) {
+                // Class 23 is an integrity constraint violation: the hashID already has a row
+                if (e.getSQLState() == null || !e.getSQLState().startsWith("23")) {
+                    throw e;
+                }
+            }
+            // An expired row that was not purged yet is replaced; a live one, recorded concurrently, is kept
+            try (PreparedStatement statement = connection.prepareStatement(REPLACE_EXPIRED)) {
+                statement.setString(1, response.getStatus());
+                statement.setString(2, truncated);
+                statement.setLong(3, response.getTimestamp());
+                statement.setString(4, response.getHashID());
+                statement.setLong(5, System.currentTimeMillis() - ttlMillis);
+                statement.executeUpdate();
+                return null;
+            }
+        });
+    }
+
+    void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            closeQuietly(connection);
+        }
+    }
+
+    // A connection that failed is closed instead of going back to the pool
+    private <T> T withConnection(SqlCall<T> call) throws SQLException {
+        Connection connection = borrow();
+        T result;
+        try {
+            result = call.call(connection);
+        } catch (SQLException | RuntimeException e) {
+            closeQuietly(connection);
+            throw e;
+        }
+        release(connection);
+        return result;
+    }
+
+    // Idle connections may have been closed by the database or a firewall meanwhile
+    private Connection borrow() throws SQLException {
+        Connection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            if (isValid(connection)) {
+                return connection;
+            }
+            LOGGER.debug("Discarding a stale processed action table connection");
+            closeQuietly(connection);
+        }
+        return open();
+    }
+
+    private static boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(Connection connection) {
+        if (closed || idle.size() >= maxIdle) {
+            closeQuietly(connection);
+            return;
+        }
+        idle.offerFirst(connection);
+    }
+
+    private Connection open() throws SQLException {
+        if (config.getDatabaseDriverClassName() != null) {
+            try {
+                Class.forName(config.getDatabaseDriverClassName());
+            } catch (ClassNotFoundException e) {
+                throw new SQLException("JDBC driver not found: " + config.getDatabaseDriverClassName(), e);
+            }
+        }
+        Connection connection = DriverManager.getConnection(config.getDatabaseUrl(),
+                config.getDatabaseUsername(), config.getDatabasePassword());
+        try {
+            if (!initialized) {
+                initialize(connection);
+            }
+            return connection;
+        } catch (SQLException e) {
+            closeQuietly(connection);
+            throw e;
+        }
+    }
+
+    private synchronized void initialize(Connection connection) throws SQLException {
+        if (initialized) {
+            return;
+        }
+        createTableIfMissing(connection);
+        try (PreparedStatement purge = connection.prepareStatement(PURGE)) {
+            purge.setLong(1, System.currentTimeMillis() - ttlMillis);
+            int purged = purge.executeUpdate();
+            LOGGER.info("Opened processed action table {} ({} expired rows purged)", TABLE, purged);
+        }
+        initialized = true;
+    }
+
+    private static void createTableIfMissing(Connection connection) throws SQLException {
+        try (ResultSet tables = connection.getMetaData().getTables(null, null, TABLE, null)) {
+            if (tables.next()) {
+                return;
+            }
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(CREATE);
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOGGER.debug("Failed to close processed action table connection", e);
+        }
+    }
+}
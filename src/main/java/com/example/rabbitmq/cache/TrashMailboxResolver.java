@@ -0,0 +1,137 @@
+package com.example.rabbitmq.cache;
+
+import com.example.rabbitmq.config.RabbitMQExtensionConfiguration;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.james.core.Username;
+import org.apache.james.mailbox.MailboxManager;
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.exception.MailboxExistsException;
+import org.apache.james.mailbox.exception.MailboxNotFoundException;
+import org.apache.james.mailbox.model.MailboxId;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Resolves, and creates when missing, the Trash mailbox of a user.
+ *
+ * Resolved ids are cached per user. Concurrent first-time resolutions for the same user share a single
+ * lookup/creation instead of racing on {@code createMailbox}.
+ */
+@Singleton
+public class TrashMailboxResolver {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrashMailboxResolver.class);
+    public static final String TRASH = "Trash";
+
+    private final Cache<Username, MailboxId> resolved;
+    private final ConcurrentHashMap<Username, CompletableFuture<MailboxId>> inFlight = new ConcurrentHashMap<>();
+
+    @Inject
+    public TrashMailboxResolver(RabbitMQExtensionConfiguration config) {
+        this.resolved = CacheBuilder.newBuilder()
+                .maximumSize(config.getMailboxCacheMaxSize())
+                .expireAfterWrite(Duration.ofSeconds(config.getMailboxCacheTtlSeconds()))
+                .recordStats()
+                .build();
+    }
+
+    public MailboxId resolve(Username owner, MailboxManager mailboxManager, MailboxSession session) throws MailboxException {
+        MailboxId cached = resolved.getIfPresent(owner);
+        if (cached != null) {
+            return cached;
+        }
+
+        CompletableFuture<MailboxId> resolution = new CompletableFuture<>();
+        CompletableFuture<MailboxId> existing = inFlight.putIfAbsent(owner, resolution);
+        if (existing != null) {
+            return await(existing);
+        }
+        try {
+            MailboxId trashId = lookupOrCreate(owner, mailboxManager, session);
+            resolved.put(owner, trashId);
+            resolution.complete(trashId);
+            return trashId;
+        } catch (MailboxException | RuntimeException e) {
+            resolution.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(owner, resolution);
+        }
+    }
+
+    // Cache hits complete immediately, only a first-time resolution is offloaded to the caller's blocking scheduler
+    public Mono<MailboxId> resolveReactive(Username owner, MailboxManager mailboxManager, MailboxSession session,
+                                           Scheduler blockingScheduler) {
+        MailboxId cached = resolved.getIfPresent(owner);
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        return Mono.fromCallable(() -> resolve(owner, mailboxManager, session))
+                .subscribeOn(blockingScheduler);
+    }
+
+    private MailboxId lookupOrCreate(Username owner, MailboxManager mailboxManager, MailboxSession session) throws MailboxException {
+        MailboxPath trashPath = MailboxPath.forUser(owner, TRASH);
+        try {
+            return mailboxManager.getMailbox(trashPath, session).getId();
+        } catch (MailboxNotFoundException e) {
+            LOGGER.info("Creating missing {} mailbox for {}", TRASH, owner.asString());
+        }
+        try {
+            Optional<MailboxId> created = mailboxManager.createMailbox(trashPath, session);
+            if (created.isPresent()) {
+                return created.get();
+            }
+        } catch (MailboxExistsException e) {
+            LOGGER.debug("{} mailbox of {} was created concurrently", TRASH, owner.asString());
+        }
+        return mailboxManager.getMailbox(trashPath, session).getId();
+    }
+
+    private MailboxId await(CompletableFuture<MailboxId> resolution) throws MailboxException {
+        try {
+            return resolution.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MailboxException("Interrupted while resolving Trash mailbox", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MailboxException) {
+                throw (MailboxException) e.getCause();
+            }
+            throw new MailboxException("Failed to resolve Trash mailbox", e.getCause());
+        }
+    }
+
+    public void invalidate(Username owner) {
+        resolved.invalidate(owner);
+    }
+
+    // Called when a mailbox is renamed or deleted, it may have been the cached Trash of its owner
+    public void invalidate(MailboxId mailboxId) {
+        resolved.asMap().values().removeIf(mailboxId::equals);
+    }
+
+    public long size() {
+        return resolved.size();
+    }
+
+    public long hitCount() {
+        return resolved.stats().hitCount();
+    }
+
+    public long missCount() {
+        return resolved.stats().missCount();
+    }
+}
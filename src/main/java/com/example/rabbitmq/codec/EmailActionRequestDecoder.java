@@ -0,0 +1,559 @@
+package com.example.rabbitmq.codec;
+
+import com.example.rabbitmq.model.EmailAction;
+import com.example.rabbitmq.model.EmailActionBatch;
+import com.example.rabbitmq.model.EmailActionMessage;
+import com.example.rabbitmq.model.EmailActionRequest;
+import com.example.rabbitmq.model.FlagUpdate;
+import com.example.rabbitmq.model.MessageSelector;
+import com.example.rabbitmq.model.SearchCriteria;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Decodes {@link EmailActionRequest}s and {@link EmailActionBatch}es straight from delivery bodies with a streaming parser, in any
+ * {@link WireFormat}.
+ *
+ * No intermediate {@code String} or tree is built: field names are matched against Jackson's canonicalized names,
+ * and ids are parsed from the parser's character buffer. Mailbox ids and UIDs may be JSON numbers or numeric strings.
+ * Bulk actions select their messages with one of {@code uidRange} ({@code {"from": 1, "to": 500}}), {@code uids}
+ * (an array of at most {@code maxBatchSize} UIDs) or {@code query} (see {@link #readCriteria}); they cannot be part
+ * of a batch message. {@code SetFlags} actions carry {@code flags} (see {@link #readFlags}) and {@code AddKeywords}
+ * actions {@code keywords}, an array of keyword names. Thread-safe.
+ */
+public class EmailActionRequestDecoder {
+    private static final EmailAction[] ACTIONS = EmailAction.values();
+    private static final long MISSING = -1;
+    private static final long INVALID = -2;
+
+    private final int maxBatchSize;
+
+    public EmailActionRequestDecoder() {
+        this(Integer.MAX_VALUE);
+    }
+
+    public EmailActionRequestDecoder(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public EmailActionRequest decode(byte[] body) throws MalformedRequestException {
+        return decode(body, WireFormat.JSON);
+    }
+
+    public EmailActionRequest decode(byte[] body, WireFormat format) throws MalformedRequestException {
+        EmailActionMessage message = decodeMessage(body, format);
+        if (!(message instanceof EmailActionRequest)) {
+            throw new MalformedRequestException("Expected a single action", ((EmailActionBatch) message).getBatchID());
+        }
+        return (EmailActionRequest) message;
+    }
+
+    /**
+     * Decodes either a single action, or a batch envelope {@code {"batchID": ..., "actions": [...]}}. Malformed
+     * actions of a batch do not fail the whole batch: they are returned as rejected items.
+     */
+    public EmailActionMessage decodeMessage(byte[] body, WireFormat format) throws MalformedRequestException {
+        RequestFields fields = new RequestFields(maxBatchSize);
+        String batchID = null;
+        EmailActionBatch.Builder batch = null;
+
+        try (JsonParser parser = format.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new MalformedRequestException("Expected an object", null);
+            }
+            String field;
+            while ((field = parser.nextFieldName()) != null) {
+                JsonToken value = parser.nextToken();
+                if ("batchID".equals(field)) {
+                    batchID = value == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+                } else if ("actions".equals(field)) {
+                    batch = readActions(parser, value, batchID);
+                } else {
+                    fields.read(field, value, parser);
+                }
+            }
+        } catch (MalformedRequestException e) {
+            throw e;
+        } catch (JsonProcessingException e) {
+            throw new MalformedRequestException("Invalid " + format + ": " + e.getOriginalMessage(),
+                    batchID != null ? batchID : fields.hashID, e);
+        } catch (IOException e) {
+            throw new MalformedRequestException("Unreadable request: " + e.getMessage(),
+                    batchID != null ? batchID : fields.hashID, e);
+        }
+
+        if (batch != null) {
+            return batch.build(batchID);
+        }
+        return fields.toRequest();
+    }
+
+    private EmailActionBatch.Builder readActions(JsonParser parser, JsonToken value, String batchID) throws IOException {
+        if (value != JsonToken.START_ARRAY) {
+            throw new MalformedRequestException("Invalid actions: expected an array", batchID);
+        }
+        EmailActionBatch.Builder batch = EmailActionBatch.builder();
+        JsonToken item;
+        while ((item = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (batch.size() >= maxBatchSize) {
+                throw new MalformedRequestException("Batch exceeds " + maxBatchSize + " actions", batchID);
+            }
+            if (item != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                batch.reject(null, "Invalid action: expected an object");
+                continue;
+            }
+            RequestFields fields = new RequestFields(maxBatchSize);
+            String field;
+            while ((field = parser.nextFieldName()) != null) {
+                fields.read(field, parser.nextToken(), parser);
+            }
+            try {
+                EmailActionRequest request = fields.toRequest();
+                if (request.getAction().isBulk()) {
+                    // A bulk action already stands for many messages, and reports its own progress
+                    throw new MalformedRequestException("Bulk actions cannot be part of a batch", request.getHashID());
+                }
+                batch.add(request);
+            } catch (MalformedRequestException e) {
+                batch.reject(e.getHashID(), e.getMessage());
+            }
+        }
+        return batch;
+    }
+
+    // Fields of one action, validated once the whole object was read so that the hashID is known whatever the field order
+    private static final class RequestFields {
+        private final int maxUids;
+        private EmailAction action;
+        private String actionText;
+        private long sourceMailboxID = MISSING;
+        private long sourceMessageID = MISSING;
+        private long destinationMailboxID = EmailActionRequest.NO_MAILBOX;
+        private String hashID;
+        private int selectors;
+        private MessageSelector selector;
+        private FlagUpdate flags;
+        private FlagUpdate keywords;
+        // The first error of each of these fields, without hashID, only thrown if the action uses the field
+        private MalformedRequestException selectorError;
+        private MalformedRequestException flagsError;
+        private MalformedRequestException keywordsError;
+
+        private RequestFields(int maxUids) {
+            this.maxUids = maxUids;
+        }
+
+        private void read(String field, JsonToken value, JsonParser parser) throws IOException {
+            switch (field) {
+                case "action":
+                    action = parseAction(parser, value);
+                    if (action == null && value == JsonToken.VALUE_STRING) {
+                        actionText = parser.getText();
+                    }
+                    break;
+                case "sourceMailboxID":
+                    sourceMailboxID = parseId(parser, value);
+                    break;
+                case "sourceMessageID":
+                    sourceMessageID = parseId(parser, value);
+                    break;
+                case "destinationMailboxID":
+                    if (value != JsonToken.VALUE_NULL) {
+                        destinationMailboxID = parseId(parser, value);
+                    }
+                    break;
+                case "hashID":
+                    hashID = value == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+                    break;
+                case "uidRange":
+                case "uids":
+                case "query":
+                    selectors++;
+                    try {
+                        selector = readSelector(field, parser, value);
+                    } catch (MalformedRequestException e) {
+                        selectorError = selectorError != null ? selectorError : e;
+                    }
+                    break;
+                case "flags":
+                    try {
+                        flags = readFlags(parser, value);
+                    } catch (MalformedRequestException e) {
+                        flagsError = flagsError != null ? flagsError : e;
+                    }
+                    break;
+                case "keywords":
+                    try {
+                        keywords = readKeywords(parser, value);
+                    } catch (MalformedRequestException e) {
+                        keywordsError = keywordsError != null ? keywordsError : e;
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        private MessageSelector readSelector(String field, JsonParser parser, JsonToken value) throws IOException {
+            switch (field) {
+                case "uidRange":
+                    return readRange(parser, value);
+                case "uids":
+                    return readUids(parser, value, maxUids);
+                default:
+                    return readQuery(parser, value);
+            }
+        }
+
+        private EmailActionRequest toRequest() throws MalformedRequestException {
+            if (action == null) {
+                throw new MalformedRequestException(actionText == null ? "Missing action" : "Invalid action: " + actionText, hashID);
+            }
+            checkId("sourceMailboxID", sourceMailboxID, hashID);
+            if (destinationMailboxID == INVALID) {
+                throw new MalformedRequestException("Invalid destinationMailboxID", hashID);
+            }
+            if (action == EmailAction.SET_FLAGS || action == EmailAction.ADD_KEYWORDS) {
+                checkId("sourceMessageID", sourceMessageID, hashID);
+                boolean setFlags = action == EmailAction.SET_FLAGS;
+                throwWithHashID(setFlags ? flagsError : keywordsError);
+                FlagUpdate update = setFlags ? flags : keywords;
+                if (update == null) {
+                    throw new MalformedRequestException(setFlags ? "Missing flags" : "Missing keywords", hashID);
+                }
+                return new EmailActionRequest(action, sourceMailboxID, sourceMessageID, destinationMailboxID, hashID,
+                        null, update);
+            }
+            if (!action.isBulk()) {
+                checkId("sourceMessageID", sourceMessageID, hashID);
+                return new EmailActionRequest(action, sourceMailboxID, sourceMessageID, destinationMailboxID, hashID);
+            }
+            if (selectors > 1) {
+                throw new MalformedRequestException("Only one of uidRange, uids and query may be given", hashID);
+            }
+            throwWithHashID(selectorError);
+            if (selector == null) {
+                throw new MalformedRequestException("Missing uidRange, uids or query", hashID);
+            }
+            return new EmailActionRequest(action, sourceMailboxID, MISSING, destinationMailboxID, hashID, selector, null);
+        }
+
+        private void throwWithHashID(MalformedRequestException error) throws MalformedRequestException {
+            if (error != null) {
+                throw new MalformedRequestException(error.getMessage(), hashID);
+            }
+        }
+    }
+
+    /**
+     * Reads the {@code flags} of a SetFlags action: an object mapping flag names to {@code true} (add) or
+     * {@code false} (remove), e.g. {@code {"seen": true, "flagged": false, "$Forwarded": true}}. Names of system
+     * flags are matched as in {@link FlagUpdate#systemFlag}, any other name is a keyword.
+     *
+     * Like the other readers, it reads the whole value before throwing a {@link MalformedRequestException}, without
+     * hashID: the hashID is only known once the whole action was read.
+     */
+    private static FlagUpdate readFlags(JsonParser parser, JsonToken value) throws IOException {
+        if (value != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            throw invalid("Invalid flags: expected an object");
+        }
+        Set<String> added = new HashSet<>();
+        Set<String> removed = new HashSet<>();
+        String error = null;
+        String name;
+        while ((name = parser.nextFieldName()) != null) {
+            JsonToken state = parser.nextToken();
+            if (state != JsonToken.VALUE_TRUE && state != JsonToken.VALUE_FALSE) {
+                parser.skipChildren();
+                error = error != null ? error : "Invalid flags: " + name + " must be true or false";
+                continue;
+            }
+            String flag = FlagUpdate.systemFlag(name);
+            if (flag == null && !FlagUpdate.isSystemFlag(name) && FlagUpdate.isValidKeyword(name)) {
+                flag = name;
+            }
+            if (flag == null) {
+                error = error != null ? error : "Invalid flags: " + name + " cannot be set";
+            } else if (state == JsonToken.VALUE_TRUE) {
+                added.add(flag);
+            } else {
+                removed.add(flag);
+            }
+        }
+        if (error != null) {
+            throw invalid(error);
+        }
+        if (added.isEmpty() && removed.isEmpty()) {
+            throw invalid("Invalid flags: empty");
+        }
+        return new FlagUpdate(added, removed);
+    }
+
+    private static FlagUpdate readKeywords(JsonParser parser, JsonToken value) throws IOException {
+        if (value != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            throw invalid("Invalid keywords: expected an array");
+        }
+        Set<String> added = new HashSet<>();
+        String error = null;
+        JsonToken item;
+        while ((item = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (item != JsonToken.VALUE_STRING) {
+                parser.skipChildren();
+                error = error != null ? error : "Invalid keywords: expected strings";
+                continue;
+            }
+            String keyword = parser.getText();
+            if (FlagUpdate.isSystemFlag(keyword) || !FlagUpdate.isValidKeyword(keyword)) {
+                error = error != null ? error : "Invalid keyword: " + keyword;
+            } else {
+                added.add(keyword);
+            }
+        }
+        if (error != null) {
+            throw invalid(error);
+        }
+        if (added.isEmpty()) {
+            throw invalid("Invalid keywords: empty");
+        }
+        return new FlagUpdate(added, Set.of());
+    }
+
+    private static MessageSelector readRange(JsonParser parser, JsonToken value) throws IOException {
+        if (value != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            throw invalid("Invalid uidRange: expected an object");
+        }
+        long from = MISSING;
+        long to = MISSING;
+        String field;
+        while ((field = parser.nextFieldName()) != null) {
+            JsonToken bound = parser.nextToken();
+            if ("from".equals(field)) {
+                from = parseId(parser, bound);
+            } else if ("to".equals(field)) {
+                to = parseId(parser, bound);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (from < 1 || to < 1 || from > to) {
+            throw invalid("Invalid uidRange: from and to must be UIDs, from not above to");
+        }
+        return MessageSelector.range(from, to);
+    }
+
+    private static MessageSelector readUids(JsonParser parser, JsonToken value, int maxUids) throws IOException {
+        if (value != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            throw invalid("Invalid uids: expected an array");
+        }
+        long[] uids = new long[16];
+        int count = 0;
+        String error = null;
+        JsonToken item;
+        while ((item = parser.nextToken()) != JsonToken.END_ARRAY) {
+            long uid = parseId(parser, item);
+            if (error != null) {
+                continue;
+            }
+            if (uid < 1) {
+                error = "Invalid uids: expected UIDs";
+            } else if (count >= maxUids) {
+                error = "Invalid uids: more than " + maxUids;
+            } else {
+                if (count == uids.length) {
+                    uids = Arrays.copyOf(uids, count * 2);
+                }
+                uids[count++] = uid;
+            }
+        }
+        if (error != null) {
+            throw invalid(error);
+        }
+        if (count == 0) {
+            throw invalid("Invalid uids: empty");
+        }
+        return MessageSelector.uids(Arrays.copyOf(uids, count));
+    }
+
+    private static MessageSelector readQuery(JsonParser parser, JsonToken value) throws IOException {
+        if (value != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            throw invalid("Invalid query: expected an object");
+        }
+        SearchCriteria.Builder criteria = SearchCriteria.builder();
+        String error = null;
+        String field;
+        while ((field = parser.nextFieldName()) != null) {
+            String fieldError = readCriteria(field, parser.nextToken(), parser, criteria);
+            if (error == null) {
+                error = fieldError;
+            }
+        }
+        if (error != null) {
+            throw invalid(error);
+        }
+        return MessageSelector.query(criteria.build());
+    }
+
+    /**
+     * Reads one condition of a query: {@code receivedBefore} and {@code receivedAfter} (epoch milliseconds, an
+     * ISO-8601 instant or a date, in UTC), {@code olderThanDays}, {@code seen} and {@code flagged} (booleans),
+     * {@code minSize} and {@code maxSize} (bytes). Unknown conditions are rejected rather than ignored, since
+     * ignoring one would select more messages than intended. Returns the error, if any.
+     */
+    private static String readCriteria(String field, JsonToken value, JsonParser parser, SearchCriteria.Builder criteria)
+            throws IOException {
+        switch (field) {
+            case "receivedBefore":
+            case "receivedAfter":
+                long date = parseDate(parser, value);
+                if (date == INVALID) {
+                    return "Invalid query: " + field + " must be epoch milliseconds or an ISO-8601 date";
+                }
+                if ("receivedBefore".equals(field)) {
+                    criteria.receivedBefore(date);
+                } else {
+                    criteria.receivedAfter(date);
+                }
+                return null;
+            case "olderThanDays":
+                long days = parseId(parser, value);
+                if (days < 0 || days > Integer.MAX_VALUE) {
+                    return "Invalid query: olderThanDays must be a number of days";
+                }
+                criteria.olderThanDays((int) days);
+                return null;
+            case "seen":
+            case "flagged":
+                if (value != JsonToken.VALUE_TRUE && value != JsonToken.VALUE_FALSE) {
+                    parser.skipChildren();
+                    return "Invalid query: " + field + " must be a boolean";
+                }
+                if ("seen".equals(field)) {
+                    criteria.seen(value == JsonToken.VALUE_TRUE);
+                } else {
+                    criteria.flagged(value == JsonToken.VALUE_TRUE);
+                }
+                return null;
+            case "minSize":
+            case "maxSize":
+                long size = parseId(parser, value);
+                if (size < 0) {
+                    return "Invalid query: " + field + " must be a number of bytes";
+                }
+                if ("minSize".equals(field)) {
+                    criteria.minSize(size);
+                } else {
+                    criteria.maxSize(size);
+                }
+                return null;
+            default:
+                parser.skipChildren();
+                return "Invalid query: unknown condition " + field;
+        }
+    }
+
+    private static long parseDate(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT) {
+            return parseId(parser, value);
+        }
+        if (value != JsonToken.VALUE_STRING) {
+            parser.skipChildren();
+            return INVALID;
+        }
+        String text = parser.getText();
+        try {
+            return text.length() == 10
+                    ? LocalDate.parse(text).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli()
+                    : Instant.parse(text).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return INVALID;
+        }
+    }
+
+    // Case-insensitive match on the parser's buffer, without materializing the value
+    private static EmailAction parseAction(JsonParser parser, JsonToken value) throws IOException {
+        if (value != JsonToken.VALUE_STRING) {
+            return null;
+        }
+        char[] chars = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        int length = parser.getTextLength();
+        for (EmailAction candidate : ACTIONS) {
+            if (equalsIgnoreCase(candidate.getValue(), chars, offset, length)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static boolean equalsIgnoreCase(String expected, char[] chars, int offset, int length) {
+        if (expected.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (Character.toLowerCase(expected.charAt(i)) != Character.toLowerCase(chars[offset + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static MalformedRequestException invalid(String message) {
+        return new MalformedRequestException(message, null);
+    }
+
+    private static void checkId(String field, long id, String hashID) throws MalformedRequestException {
+        if (id == MISSING) {
+            throw new MalformedRequestException("Missing " + field, hashID);
+        }
+        if (id == INVALID) {
+            throw new MalformedRequestException("Invalid " + field, hashID);
+        }
+    }
+
+    // INVALID unless the value is a non-negative integer, or a string of digits
+    private static long parseId(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT) {
+            if (parser.getNumberType() != JsonParser.NumberType.INT && parser.getNumberType() != JsonParser.NumberType.LONG) {
+                return INVALID;
+            }
+            long id = parser.getLongValue();
+            return id < 0 ? INVALID : id;
+        }
+        if (value == JsonToken.VALUE_STRING) {
+            return parseDigits(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        }
+        parser.skipChildren();
+        return INVALID;
+    }
+
+    private static long parseDigits(char[] chars, int offset, int length) {
+        if (length == 0 || length > 18) {
+            return INVALID;
+        }
+        long result = 0;
+        for (int i = offset; i < offset + length; i++) {
+            char c = chars[i];
+            if (c < '0' || c > '9') {
+                return INVALID;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+}
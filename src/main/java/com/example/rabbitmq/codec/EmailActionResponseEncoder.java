@@ -0,0 +1,95 @@
+package com.example.rabbitmq.codec;
+
+import com.example.rabbitmq.model.EmailActionBatchResponse;
+import com.example.rabbitmq.model.EmailActionResponse;
+import com.example.rabbitmq.model.MailboxEventBatch;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.rabbitmq.client.AMQP;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Encodes {@link EmailActionResponse}s and {@link EmailActionBatchResponse}s into publish bodies and properties, in any {@link WireFormat},
+ * and {@link MailboxEventBatch}es in JSON.
+ *
+ * Writers are resolved once, and each thread serializes into its own reusable buffer, so encoding costs a single
+ * exact-size copy of the payload. Thread-safe.
+ */
+public class EmailActionResponseEncoder {
+    private static final int PERSISTENT = 2;
+
+    private final Map<WireFormat, ObjectWriter> writers = new EnumMap<>(WireFormat.class);
+    private final Map<WireFormat, ObjectWriter> batchWriters = new EnumMap<>(WireFormat.class);
+    private final ObjectWriter eventWriter;
+    private final Map<WireFormat, AMQP.BasicProperties> templates = new EnumMap<>(WireFormat.class);
+    private final ThreadLocal<ByteArrayBuilder> buffers = ThreadLocal.withInitial(() -> new ByteArrayBuilder(512));
+
+    public EmailActionResponseEncoder() {
+        for (WireFormat format : WireFormat.values()) {
+            ObjectMapper objectMapper = new ObjectMapper(format.getFactory());
+            writers.put(format, objectMapper.writerFor(EmailActionResponse.class));
+            batchWriters.put(format, objectMapper.writerFor(EmailActionBatchResponse.class));
+            AMQP.BasicProperties.Builder template = new AMQP.BasicProperties.Builder()
+                    .contentType(format.getContentType())
+                    .deliveryMode(PERSISTENT);
+            if (format == WireFormat.JSON) {
+                template.contentEncoding("UTF-8");
+            }
+            templates.put(format, template.build());
+        }
+        eventWriter = new ObjectMapper(WireFormat.JSON.getFactory()).writerFor(MailboxEventBatch.class);
+    }
+
+    public byte[] encode(EmailActionResponse response) throws IOException {
+        return encode(response, WireFormat.JSON);
+    }
+
+    public byte[] encode(EmailActionResponse response, WireFormat format) throws IOException {
+        return write(writers.get(format), response, format);
+    }
+
+    public byte[] encode(EmailActionBatchResponse response, WireFormat format) throws IOException {
+        return write(batchWriters.get(format), response, format);
+    }
+
+    public byte[] encode(MailboxEventBatch batch) throws IOException {
+        return write(eventWriter, batch, WireFormat.JSON);
+    }
+
+    private byte[] write(ObjectWriter writer, Object value, WireFormat format) throws IOException {
+        ByteArrayBuilder buffer = buffers.get();
+        buffer.reset();
+        try (JsonGenerator generator = format.getFactory().createGenerator(buffer)) {
+            writer.writeValue(generator, value);
+        }
+        return buffer.toByteArray();
+    }
+
+    // Results are persistent and correlated to their request through the hashID
+    public AMQP.BasicProperties properties(EmailActionResponse response, WireFormat format) {
+        return properties(response.getHashID(), response.getTimestamp(), format);
+    }
+
+    public AMQP.BasicProperties properties(EmailActionBatchResponse response, WireFormat format) {
+        return properties(response.getBatchID(), response.getTimestamp(), format);
+    }
+
+    public AMQP.BasicProperties properties(MailboxEventBatch batch) {
+        return templates.get(WireFormat.JSON).builder()
+                .timestamp(new Date(batch.getTimestamp()))
+                .build();
+    }
+
+    private AMQP.BasicProperties properties(String correlationId, long timestamp, WireFormat format) {
+        return templates.get(format).builder()
+                .correlationId(correlationId)
+                .timestamp(new Date(timestamp))
+                .build();
+    }
+}
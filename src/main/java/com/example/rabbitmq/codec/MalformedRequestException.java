@@ -0,0 +1,25 @@
+package com.example.rabbitmq.codec;
+
+import java.io.IOException;
+
+/**
+ * A delivery that can never be processed, whatever the number of attempts. It must not be requeued.
+ */
+public class MalformedRequestException extends IOException {
+    private final String hashID;
+
+    public MalformedRequestException(String message, String hashID) {
+        super(message);
+        this.hashID = hashID;
+    }
+
+    public MalformedRequestException(String message, String hashID, Throwable cause) {
+        super(message, cause);
+        this.hashID = hashID;
+    }
+
+    // The hashID of the request when it could be read, so that a failure result can still be published
+    public String getHashID() {
+        return hashID;
+    }
+}
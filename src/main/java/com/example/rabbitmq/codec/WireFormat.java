@@ -0,0 +1,43 @@
+package com.example.rabbitmq.codec;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+/**
+ * Encodings accepted on the input queue, negotiated through the AMQP {@code content-type} property.
+ * Results are published in the encoding of the request they answer.
+ */
+public enum WireFormat {
+    JSON("application/json", new JsonFactory()),
+
+    // Binary JSON data model (RFC 8949): the same documents, with numbers and short strings encoded compactly
+    CBOR("application/cbor", new CBORFactory());
+
+    private final String contentType;
+    private final JsonFactory factory;
+
+    WireFormat(String contentType, JsonFactory factory) {
+        this.contentType = contentType;
+        this.factory = factory;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public JsonFactory getFactory() {
+        return factory;
+    }
+
+    // Messages without a content-type, or with an unknown one, are read as JSON for compatibility
+    public static WireFormat fromContentType(String contentType) {
+        if (contentType != null) {
+            for (WireFormat format : WireFormat.values()) {
+                if (contentType.regionMatches(true, 0, format.contentType, 0, format.contentType.length())) {
+                    return format;
+                }
+            }
+        }
+        return JSON;
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.rabbitmq.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A queue actions are consumed from, with the weight of its deliveries when workers are shared with other queues.
+ */
+public class InputQueue {
+    private final String name;
+    private final int weight;
+
+    public InputQueue(String name, int weight) {
+        this.name = name;
+        this.weight = weight;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Parses a comma-separated list of {@code name:weight} entries, e.g.
+     * {@code james.email.actions.interactive:8,james.email.actions.bulk:1}. The weight defaults to 1.
+     */
+    public static List<InputQueue> parseList(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<InputQueue> queues = new ArrayList<>();
+        for (String entry : text.split(",")) {
+            String trimmed = entry.trim();
+            int separator = trimmed.lastIndexOf(':');
+            if (separator < 0) {
+                queues.add(new InputQueue(trimmed, 1));
+                continue;
+            }
+            try {
+                queues.add(new InputQueue(trimmed.substring(0, separator).trim(),
+                        Integer.parseInt(trimmed.substring(separator + 1).trim())));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid weight in input queue " + trimmed, e);
+            }
+        }
+        return queues;
+    }
+
+    @Override
+    public String toString() {
+        return name + ":" + weight;
+    }
+}
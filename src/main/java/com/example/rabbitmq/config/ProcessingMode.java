@@ -0,0 +1,28 @@
+package com.example.rabbitmq.config;
+
+public enum ProcessingMode {
+    // Deliveries are processed by a fixed pool of worker threads
+    WORKER("worker"),
+
+    // Deliveries are processed as a Reactor pipeline with bounded concurrency
+    REACTIVE("reactive");
+
+    private final String value;
+
+    ProcessingMode(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public static ProcessingMode fromString(String text) {
+        for (ProcessingMode mode : ProcessingMode.values()) {
+            if (mode.value.equalsIgnoreCase(text)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("No processing mode " + text + " found");
+    }
+}
@@ -1,5 +1,11 @@
 package com.example.rabbitmq.config;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 public class RabbitMQExtensionConfiguration {
     private final String host;
     private final int port;
@@ -7,8 +13,56 @@ public class RabbitMQExtensionConfiguration {
     private final String password;
     private final String virtualHost;
     private final String inputQueue;
+    private final int inputQueueWeight;
+    private final List<InputQueue> priorityQueues;
     private final String outputExchange;
     private final String outputRoutingKey;
+    private final int consumerCount;
+    private final int prefetchCount;
+    private final int workerThreads;
+    private final int partitionQueueCapacity;
+    private final ProcessingMode processingMode;
+    private final int shutdownTimeoutSeconds;
+    private final long batchWindowMillis;
+    private final int batchMaxSize;
+    private final int bulkChunkSize;
+    private final boolean eventsEnabled;
+    private final String eventsExchange;
+    private final String eventsRoutingKey;
+    private final int eventsBatchMaxSize;
+    private final long eventsBatchWindowMillis;
+    private final int eventsBufferSize;
+    private final long mailboxCacheMaxSize;
+    private final long mailboxCacheTtlSeconds;
+    private final long sessionPoolMaxUsers;
+    private final int sessionPoolMaxIdlePerUser;
+    private final long sessionPoolMaxLifetimeSeconds;
+    private final int publisherChannels;
+    private final boolean publisherConfirms;
+    private final int maxOutstandingConfirms;
+    private final long publisherConfirmTimeoutSeconds;
+    private final int heartbeatSeconds;
+    private final int connectionTimeoutMillis;
+    private final long recoveryInitialDelayMillis;
+    private final long recoveryMaxDelayMillis;
+    private final int maxActionsPerMessage;
+    private final int retryMaxAttempts;
+    private final long retryInitialDelayMillis;
+    private final long retryMaxDelayMillis;
+    private final String deadLetterExchange;
+    private final String deadLetterQueue;
+    private final long dedupMaxSize;
+    private final long dedupTtlSeconds;
+    private final boolean dedupPersistent;
+    private final double rateLimitActionsPerSecond;
+    private final boolean adaptiveConcurrency;
+    private final long adaptiveTargetLatencyMillis;
+    private final int adaptiveMinConcurrency;
+    private final int adaptiveMaxConcurrency;
+    private final String databaseDriverClassName;
+    private final String databaseUrl;
+    private final String databaseUsername;
+    private final String databasePassword;
 
     private RabbitMQExtensionConfiguration(Builder builder) {
         this.host = builder.host;
@@ -17,8 +71,56 @@ public class RabbitMQExtensionConfiguration {
         this.password = builder.password;
         this.virtualHost = builder.virtualHost;
         this.inputQueue = builder.inputQueue;
+        this.inputQueueWeight = builder.inputQueueWeight;
+        this.priorityQueues = Collections.unmodifiableList(new ArrayList<>(builder.priorityQueues));
         this.outputExchange = builder.outputExchange;
         this.outputRoutingKey = builder.outputRoutingKey;
+        this.consumerCount = builder.consumerCount;
+        this.prefetchCount = builder.prefetchCount;
+        this.workerThreads = builder.workerThreads;
+        this.partitionQueueCapacity = builder.partitionQueueCapacity;
+        this.processingMode = builder.processingMode;
+        this.shutdownTimeoutSeconds = builder.shutdownTimeoutSeconds;
+        this.batchWindowMillis = builder.batchWindowMillis;
+        this.batchMaxSize = builder.batchMaxSize;
+        this.bulkChunkSize = builder.bulkChunkSize;
+        this.eventsEnabled = builder.eventsEnabled;
+        this.eventsExchange = builder.eventsExchange;
+        this.eventsRoutingKey = builder.eventsRoutingKey;
+        this.eventsBatchMaxSize = builder.eventsBatchMaxSize;
+        this.eventsBatchWindowMillis = builder.eventsBatchWindowMillis;
+        this.eventsBufferSize = builder.eventsBufferSize;
+        this.mailboxCacheMaxSize = builder.mailboxCacheMaxSize;
+        this.mailboxCacheTtlSeconds = builder.mailboxCacheTtlSeconds;
+        this.sessionPoolMaxUsers = builder.sessionPoolMaxUsers;
+        this.sessionPoolMaxIdlePerUser = builder.sessionPoolMaxIdlePerUser;
+        this.sessionPoolMaxLifetimeSeconds = builder.sessionPoolMaxLifetimeSeconds;
+        this.publisherChannels = builder.publisherChannels;
+        this.publisherConfirms = builder.publisherConfirms;
+        this.maxOutstandingConfirms = builder.maxOutstandingConfirms;
+        this.publisherConfirmTimeoutSeconds = builder.publisherConfirmTimeoutSeconds;
+        this.heartbeatSeconds = builder.heartbeatSeconds;
+        this.connectionTimeoutMillis = builder.connectionTimeoutMillis;
+        this.recoveryInitialDelayMillis = builder.recoveryInitialDelayMillis;
+        this.recoveryMaxDelayMillis = builder.recoveryMaxDelayMillis;
+        this.maxActionsPerMessage = builder.maxActionsPerMessage;
+        this.retryMaxAttempts = builder.retryMaxAttempts;
+        this.retryInitialDelayMillis = builder.retryInitialDelayMillis;
+        this.retryMaxDelayMillis = builder.retryMaxDelayMillis;
+        this.deadLetterExchange = builder.deadLetterExchange;
+        this.deadLetterQueue = builder.deadLetterQueue;
+        this.dedupMaxSize = builder.dedupMaxSize;
+        this.dedupTtlSeconds = builder.dedupTtlSeconds;
+        this.dedupPersistent = builder.dedupPersistent;
+        this.rateLimitActionsPerSecond = builder.rateLimitActionsPerSecond;
+        this.adaptiveConcurrency = builder.adaptiveConcurrency;
+        this.adaptiveTargetLatencyMillis = builder.adaptiveTargetLatencyMillis;
+        this.adaptiveMinConcurrency = builder.adaptiveMinConcurrency;
+        this.adaptiveMaxConcurrency = builder.adaptiveMaxConcurrency;
+        this.databaseDriverClassName = builder.databaseDriverClassName;
+        this.databaseUrl = builder.databaseUrl;
+        this.databaseUsername = builder.databaseUsername;
+        this.databasePassword = builder.databasePassword;
     }
 
     public static Builder builder() {
@@ -32,8 +134,56 @@ public class RabbitMQExtensionConfiguration {
         private String password = "guest";
         private String virtualHost = "/";
         private String inputQueue = "james.email.actions";
+        private int inputQueueWeight = 1;
+        private List<InputQueue> priorityQueues = Collections.emptyList();
         private String outputExchange = "james.email.results";
         private String outputRoutingKey = "result";
+        private int consumerCount = 1;
+        private int prefetchCount = 20;
+        private int workerThreads = 1;
+        private int partitionQueueCapacity = 64;
+        private ProcessingMode processingMode = ProcessingMode.WORKER;
+        private int shutdownTimeoutSeconds = 30;
+        private long batchWindowMillis = 0;
+        private int batchMaxSize = 100;
+        private int bulkChunkSize = 500;
+        private boolean eventsEnabled = false;
+        private String eventsExchange = "james.mailbox.events";
+        private String eventsRoutingKey = "mailbox";
+        private int eventsBatchMaxSize = 100;
+        private long eventsBatchWindowMillis = 50;
+        private int eventsBufferSize = 10000;
+        private long mailboxCacheMaxSize = 10000;
+        private long mailboxCacheTtlSeconds = 300;
+        private long sessionPoolMaxUsers = 1000;
+        private int sessionPoolMaxIdlePerUser = 4;
+        private long sessionPoolMaxLifetimeSeconds = 600;
+        private int publisherChannels = 4;
+        private boolean publisherConfirms = false;
+        private int maxOutstandingConfirms = 1000;
+        private long publisherConfirmTimeoutSeconds = 30;
+        private int heartbeatSeconds = 30;
+        private int connectionTimeoutMillis = 10000;
+        private long recoveryInitialDelayMillis = 1000;
+        private long recoveryMaxDelayMillis = 30000;
+        private int maxActionsPerMessage = 50000;
+        private int retryMaxAttempts = 5;
+        private long retryInitialDelayMillis = 1000;
+        private long retryMaxDelayMillis = 60000;
+        private String deadLetterExchange = "james.email.actions.dlx";
+        private String deadLetterQueue = "james.email.actions.dlq";
+        private long dedupMaxSize = 100000;
+        private long dedupTtlSeconds = 86400;
+        private boolean dedupPersistent = false;
+        private double rateLimitActionsPerSecond = 0;
+        private boolean adaptiveConcurrency = false;
+        private long adaptiveTargetLatencyMillis = 250;
+        private int adaptiveMinConcurrency = 1;
+        private int adaptiveMaxConcurrency = 0;
+        private String databaseDriverClassName = null;
+        private String databaseUrl = null;
+        private String databaseUsername = null;
+        private String databasePassword = null;
 
         public Builder host(String host) { this.host = host; return this; }
         public Builder port(int port) { this.port = port; return this; }
@@ -41,10 +191,131 @@ public class RabbitMQExtensionConfiguration {
         public Builder password(String password) { this.password = password; return this; }
         public Builder virtualHost(String virtualHost) { this.virtualHost = virtualHost; return this; }
         public Builder inputQueue(String inputQueue) { this.inputQueue = inputQueue; return this; }
+        public Builder inputQueueWeight(int inputQueueWeight) { this.inputQueueWeight = inputQueueWeight; return this; }
+        public Builder priorityQueues(List<InputQueue> priorityQueues) { this.priorityQueues = priorityQueues; return this; }
         public Builder outputExchange(String outputExchange) { this.outputExchange = outputExchange; return this; }
         public Builder outputRoutingKey(String outputRoutingKey) { this.outputRoutingKey = outputRoutingKey; return this; }
+        public Builder consumerCount(int consumerCount) { this.consumerCount = consumerCount; return this; }
+        public Builder prefetchCount(int prefetchCount) { this.prefetchCount = prefetchCount; return this; }
+        public Builder workerThreads(int workerThreads) { this.workerThreads = workerThreads; return this; }
+        public Builder partitionQueueCapacity(int partitionQueueCapacity) { this.partitionQueueCapacity = partitionQueueCapacity; return this; }
+        public Builder processingMode(ProcessingMode processingMode) { this.processingMode = processingMode; return this; }
+        public Builder shutdownTimeoutSeconds(int shutdownTimeoutSeconds) { this.shutdownTimeoutSeconds = shutdownTimeoutSeconds; return this; }
+        public Builder batchWindowMillis(long batchWindowMillis) { this.batchWindowMillis = batchWindowMillis; return this; }
+        public Builder batchMaxSize(int batchMaxSize) { this.batchMaxSize = batchMaxSize; return this; }
+        public Builder bulkChunkSize(int bulkChunkSize) { this.bulkChunkSize = bulkChunkSize; return this; }
+        public Builder eventsEnabled(boolean eventsEnabled) { this.eventsEnabled = eventsEnabled; return this; }
+        public Builder eventsExchange(String eventsExchange) { this.eventsExchange = eventsExchange; return this; }
+        public Builder eventsRoutingKey(String eventsRoutingKey) { this.eventsRoutingKey = eventsRoutingKey; return this; }
+        public Builder eventsBatchMaxSize(int eventsBatchMaxSize) { this.eventsBatchMaxSize = eventsBatchMaxSize; return this; }
+        public Builder eventsBatchWindowMillis(long eventsBatchWindowMillis) { this.eventsBatchWindowMillis = eventsBatchWindowMillis; return this; }
+        public Builder eventsBufferSize(int eventsBufferSize) { this.eventsBufferSize = eventsBufferSize; return this; }
+        public Builder mailboxCacheMaxSize(long mailboxCacheMaxSize) { this.mailboxCacheMaxSize = mailboxCacheMaxSize; return this; }
+        public Builder mailboxCacheTtlSeconds(long mailboxCacheTtlSeconds) { this.mailboxCacheTtlSeconds = mailboxCacheTtlSeconds; return this; }
+        public Builder sessionPoolMaxUsers(long sessionPoolMaxUsers) { this.sessionPoolMaxUsers = sessionPoolMaxUsers; return this; }
+        public Builder sessionPoolMaxIdlePerUser(int sessionPoolMaxIdlePerUser) { this.sessionPoolMaxIdlePerUser = sessionPoolMaxIdlePerUser; return this; }
+        public Builder sessionPoolMaxLifetimeSeconds(long sessionPoolMaxLifetimeSeconds) { this.sessionPoolMaxLifetimeSeconds = sessionPoolMaxLifetimeSeconds; return this; }
+        public Builder publisherChannels(int publisherChannels) { this.publisherChannels = publisherChannels; return this; }
+        public Builder publisherConfirms(boolean publisherConfirms) { this.publisherConfirms = publisherConfirms; return this; }
+        public Builder maxOutstandingConfirms(int maxOutstandingConfirms) { this.maxOutstandingConfirms = maxOutstandingConfirms; return this; }
+        public Builder publisherConfirmTimeoutSeconds(long publisherConfirmTimeoutSeconds) { this.publisherConfirmTimeoutSeconds = publisherConfirmTimeoutSeconds; return this; }
+        public Builder heartbeatSeconds(int heartbeatSeconds) { this.heartbeatSeconds = heartbeatSeconds; return this; }
+        public Builder connectionTimeoutMillis(int connectionTimeoutMillis) { this.connectionTimeoutMillis = connectionTimeoutMillis; return this; }
+        public Builder recoveryInitialDelayMillis(long recoveryInitialDelayMillis) { this.recoveryInitialDelayMillis = recoveryInitialDelayMillis; return this; }
+        public Builder recoveryMaxDelayMillis(long recoveryMaxDelayMillis) { this.recoveryMaxDelayMillis = recoveryMaxDelayMillis; return this; }
+        public Builder maxActionsPerMessage(int maxActionsPerMessage) { this.maxActionsPerMessage = maxActionsPerMessage; return this; }
+        public Builder retryMaxAttempts(int retryMaxAttempts) { this.retryMaxAttempts = retryMaxAttempts; return this; }
+        public Builder retryInitialDelayMillis(long retryInitialDelayMillis) { this.retryInitialDelayMillis = retryInitialDelayMillis; return this; }
+        public Builder retryMaxDelayMillis(long retryMaxDelayMillis) { this.retryMaxDelayMillis = retryMaxDelayMillis; return this; }
+        public Builder deadLetterExchange(String deadLetterExchange) { this.deadLetterExchange = deadLetterExchange; return this; }
+        public Builder deadLetterQueue(String deadLetterQueue) { this.deadLetterQueue = deadLetterQueue; return this; }
+        public Builder dedupMaxSize(long dedupMaxSize) { this.dedupMaxSize = dedupMaxSize; return this; }
+        public Builder dedupTtlSeconds(long dedupTtlSeconds) { this.dedupTtlSeconds = dedupTtlSeconds; return this; }
+        public Builder dedupPersistent(boolean dedupPersistent) { this.dedupPersistent = dedupPersistent; return this; }
+        public Builder rateLimitActionsPerSecond(double rateLimitActionsPerSecond) { this.rateLimitActionsPerSecond = rateLimitActionsPerSecond; return this; }
+        public Builder adaptiveConcurrency(boolean adaptiveConcurrency) { this.adaptiveConcurrency = adaptiveConcurrency; return this; }
+        public Builder adaptiveTargetLatencyMillis(long adaptiveTargetLatencyMillis) { this.adaptiveTargetLatencyMillis = adaptiveTargetLatencyMillis; return this; }
+        public Builder adaptiveMinConcurrency(int adaptiveMinConcurrency) { this.adaptiveMinConcurrency = adaptiveMinConcurrency; return this; }
+        public Builder adaptiveMaxConcurrency(int adaptiveMaxConcurrency) { this.adaptiveMaxConcurrency = adaptiveMaxConcurrency; return this; }
+        public Builder databaseDriverClassName(String databaseDriverClassName) { this.databaseDriverClassName = databaseDriverClassName; return this; }
+        public Builder databaseUrl(String databaseUrl) { this.databaseUrl = databaseUrl; return this; }
+        public Builder databaseUsername(String databaseUsername) { this.databaseUsername = databaseUsername; return this; }
+        public Builder databasePassword(String databasePassword) { this.databasePassword = databasePassword; return this; }
 
         public RabbitMQExtensionConfiguration build() {
+            if (consumerCount < 1) {
+                throw new IllegalArgumentException("consumerCount must be at least 1");
+            }
+            if (prefetchCount < 1) {
+                throw new IllegalArgumentException("prefetchCount must be at least 1");
+            }
+            if (workerThreads < 1) {
+                throw new IllegalArgumentException("workerThreads must be at least 1");
+            }
+            if (inputQueueWeight < 1) {
+                throw new IllegalArgumentException("inputQueueWeight must be at least 1");
+            }
+            Set<String> queueNames = new HashSet<>();
+            queueNames.add(inputQueue);
+            for (InputQueue queue : priorityQueues) {
+                if (queue.getName().isEmpty() || !queueNames.add(queue.getName())) {
+                    throw new IllegalArgumentException("Input queue names must be unique and not empty: " + queue.getName());
+                }
+                if (queue.getWeight() < 1) {
+                    throw new IllegalArgumentException("Weight of input queue " + queue.getName() + " must be at least 1");
+                }
+            }
+            // Reactive pipelines share one scheduler, the weights would silently be ignored
+            if (processingMode == ProcessingMode.REACTIVE
+                    && (inputQueueWeight != 1 || priorityQueues.stream().anyMatch(queue -> queue.getWeight() != 1))) {
+                throw new IllegalArgumentException("Input queue weights are not supported in reactive mode, "
+                        + "inputQueue.weight and the priorityQueues weights must be 1");
+            }
+            if (partitionQueueCapacity < 1) {
+                throw new IllegalArgumentException("partitionQueueCapacity must be at least 1");
+            }
+            if (publisherChannels < 1) {
+                throw new IllegalArgumentException("publisherChannels must be at least 1");
+            }
+            if (maxOutstandingConfirms < 1) {
+                throw new IllegalArgumentException("maxOutstandingConfirms must be at least 1");
+            }
+            if (batchMaxSize < 1) {
+                throw new IllegalArgumentException("batchMaxSize must be at least 1");
+            }
+            if (bulkChunkSize < 1) {
+                throw new IllegalArgumentException("bulkChunkSize must be at least 1");
+            }
+            if (eventsBatchMaxSize < 1 || eventsBatchWindowMillis < 0 || eventsBufferSize < eventsBatchMaxSize) {
+                throw new IllegalArgumentException("eventsBatchMaxSize must be at least 1, eventsBatchWindowMillis not "
+                        + "negative and eventsBufferSize at least eventsBatchMaxSize");
+            }
+            if (retryMaxAttempts < 0) {
+                throw new IllegalArgumentException("retryMaxAttempts must not be negative");
+            }
+            if (retryInitialDelayMillis < 1 || retryMaxDelayMillis < retryInitialDelayMillis) {
+                throw new IllegalArgumentException("retryMaxDelayMillis must be at least retryInitialDelayMillis, which must be positive");
+            }
+            if (maxActionsPerMessage < 1) {
+                throw new IllegalArgumentException("maxActionsPerMessage must be at least 1");
+            }
+            if (recoveryInitialDelayMillis < 1 || recoveryMaxDelayMillis < recoveryInitialDelayMillis) {
+                throw new IllegalArgumentException("recoveryMaxDelayMillis must be at least recoveryInitialDelayMillis, which must be positive");
+            }
+            if (dedupMaxSize < 0 || dedupTtlSeconds < 1) {
+                throw new IllegalArgumentException("dedupMaxSize must not be negative and dedupTtlSeconds must be positive");
+            }
+            if (rateLimitActionsPerSecond < 0) {
+                throw new IllegalArgumentException("rateLimitActionsPerSecond must not be negative");
+            }
+            if (adaptiveTargetLatencyMillis < 1 || adaptiveMinConcurrency < 1
+                    || (adaptiveMaxConcurrency != 0 && adaptiveMaxConcurrency < adaptiveMinConcurrency)) {
+                throw new IllegalArgumentException("adaptiveTargetLatencyMillis and adaptiveMinConcurrency must be positive, "
+                        + "and adaptiveMaxConcurrency 0 or at least adaptiveMinConcurrency");
+            }
+            if (dedupPersistent && databaseUrl == null) {
+                throw new IllegalArgumentException("dedupPersistent requires database.url in james-database.properties");
+            }
             return new RabbitMQExtensionConfiguration(this);
         }
     }
@@ -56,6 +327,64 @@ public class RabbitMQExtensionConfiguration {
     public String getPassword() { return password; }
     public String getVirtualHost() { return virtualHost; }
     public String getInputQueue() { return inputQueue; }
+    public int getInputQueueWeight() { return inputQueueWeight; }
+    public List<InputQueue> getPriorityQueues() { return priorityQueues; }
+    // inputQueue first, then the priority queues
+    public List<InputQueue> getInputQueues() {
+        List<InputQueue> queues = new ArrayList<>();
+        queues.add(new InputQueue(inputQueue, inputQueueWeight));
+        queues.addAll(priorityQueues);
+        return queues;
+    }
     public String getOutputExchange() { return outputExchange; }
     public String getOutputRoutingKey() { return outputRoutingKey; }
+    public int getConsumerCount() { return consumerCount; }
+    public int getPrefetchCount() { return prefetchCount; }
+    public int getWorkerThreads() { return workerThreads; }
+    public int getPartitionQueueCapacity() { return partitionQueueCapacity; }
+    public ProcessingMode getProcessingMode() { return processingMode; }
+    public int getShutdownTimeoutSeconds() { return shutdownTimeoutSeconds; }
+    public long getBatchWindowMillis() { return batchWindowMillis; }
+    public int getBatchMaxSize() { return batchMaxSize; }
+    public int getBulkChunkSize() { return bulkChunkSize; }
+    public boolean isEventsEnabled() { return eventsEnabled; }
+    public String getEventsExchange() { return eventsExchange; }
+    public String getEventsRoutingKey() { return eventsRoutingKey; }
+    public int getEventsBatchMaxSize() { return eventsBatchMaxSize; }
+    public long getEventsBatchWindowMillis() { return eventsBatchWindowMillis; }
+    public int getEventsBufferSize() { return eventsBufferSize; }
+    public boolean isBatchingEnabled() { return batchWindowMillis > 0; }
+    public long getMailboxCacheMaxSize() { return mailboxCacheMaxSize; }
+    public long getMailboxCacheTtlSeconds() { return mailboxCacheTtlSeconds; }
+    public long getSessionPoolMaxUsers() { return sessionPoolMaxUsers; }
+    public int getSessionPoolMaxIdlePerUser() { return sessionPoolMaxIdlePerUser; }
+    public long getSessionPoolMaxLifetimeSeconds() { return sessionPoolMaxLifetimeSeconds; }
+    public int getPublisherChannels() { return publisherChannels; }
+    public boolean isPublisherConfirms() { return publisherConfirms; }
+    public int getMaxOutstandingConfirms() { return maxOutstandingConfirms; }
+    public long getPublisherConfirmTimeoutSeconds() { return publisherConfirmTimeoutSeconds; }
+    public int getHeartbeatSeconds() { return heartbeatSeconds; }
+    public int getConnectionTimeoutMillis() { return connectionTimeoutMillis; }
+    public long getRecoveryInitialDelayMillis() { return recoveryInitialDelayMillis; }
+    public long getRecoveryMaxDelayMillis() { return recoveryMaxDelayMillis; }
+    public int getMaxActionsPerMessage() { return maxActionsPerMessage; }
+    public int getRetryMaxAttempts() { return retryMaxAttempts; }
+    public long getRetryInitialDelayMillis() { return retryInitialDelayMillis; }
+    public long getRetryMaxDelayMillis() { return retryMaxDelayMillis; }
+    public String getDeadLetterExchange() { return deadLetterExchange; }
+    public String getDeadLetterQueue() { return deadLetterQueue; }
+    public long getDedupMaxSize() { return dedupMaxSize; }
+    public boolean isDedupEnabled() { return dedupMaxSize > 0; }
+    public long getDedupTtlSeconds() { return dedupTtlSeconds; }
+    public boolean isDedupPersistent() { return dedupPersistent; }
+    public double getRateLimitActionsPerSecond() { return rateLimitActionsPerSecond; }
+    public boolean isAdaptiveConcurrency() { return adaptiveConcurrency; }
+    public long getAdaptiveTargetLatencyMillis() { return adaptiveTargetLatencyMillis; }
+    public int getAdaptiveMinConcurrency() { return adaptiveMinConcurrency; }
+    public int getAdaptiveMaxConcurrency() { return adaptiveMaxConcurrency; }
+    public boolean isRateLimited() { return rateLimitActionsPerSecond > 0; }
+    public String getDatabaseDriverClassName() { return databaseDriverClassName; }
+    public String getDatabaseUrl() { return databaseUrl; }
+    public String getDatabaseUsername() { return databaseUsername; }
+    public String getDatabasePassword() { return databasePassword; }
 }
\ No newline at end of file
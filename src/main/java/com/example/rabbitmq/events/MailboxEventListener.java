@@ -0,0 +1,115 @@
+package com.example.rabbitmq.events;
+
+import com.example.rabbitmq.config.RabbitMQExtensionConfiguration;
+import com.example.rabbitmq.model.FlagUpdate;
+import com.example.rabbitmq.model.MailboxEventMessage;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.james.events.Event;
+import org.apache.james.events.EventListener;
+import org.apache.james.events.Group;
+import org.apache.james.mailbox.MessageUid;
+import org.apache.james.mailbox.events.MailboxEvents.Added;
+import org.apache.james.mailbox.events.MailboxEvents.Expunged;
+import org.apache.james.mailbox.events.MailboxEvents.FlagsUpdated;
+import org.apache.james.mailbox.events.MailboxEvents.MailboxDeletion;
+import org.apache.james.mailbox.events.MailboxEvents.MailboxEvent;
+import org.apache.james.mailbox.events.MailboxEvents.MessageEvent;
+import org.apache.james.mailbox.model.UpdatedFlags;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Mono;
+
+import javax.mail.Flags;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Hands new, expunged and re-flagged messages and deleted mailboxes to the {@link MailboxEventPublisher}, when
+ * {@code rabbitmq.events.enabled} is set. Only buffers the event, so the event bus is never held up by the broker.
+ */
+@Singleton
+public class MailboxEventListener implements EventListener.ReactiveGroupEventListener {
+    public static class MailboxEventListenerGroup extends Group {
+    }
+
+    private static final Group GROUP = new MailboxEventListenerGroup();
+
+    private final RabbitMQExtensionConfiguration config;
+    private final MailboxEventPublisher publisher;
+
+    @Inject
+    public MailboxEventListener(RabbitMQExtensionConfiguration config,
+                                MailboxEventPublisher publisher) {
+        this.config = config;
+        this.publisher = publisher;
+    }
+
+    @Override
+    public Group getDefaultGroup() {
+        return GROUP;
+    }
+
+    @Override
+    public boolean isHandling(Event event) {
+        return config.isEventsEnabled()
+                && (event instanceof Added || event instanceof Expunged
+                || event instanceof FlagsUpdated || event instanceof MailboxDeletion);
+    }
+
+    @Override
+    public Publisher<Void> reactiveEvent(Event event) {
+        return Mono.fromRunnable(() -> publish(event));
+    }
+
+    @Override
+    public void event(Event event) {
+        publish(event);
+    }
+
+    private void publish(Event event) {
+        if (isHandling(event)) {
+            publisher.offer(toMessage(event));
+        }
+    }
+
+    private static MailboxEventMessage toMessage(Event event) {
+        String eventID = event.getEventId().getId().toString();
+        String user = event.getUsername().asString();
+        String mailboxID = ((MailboxEvent) event).getMailboxId().serialize();
+        if (event instanceof MailboxDeletion) {
+            return new MailboxEventMessage(eventID, MailboxEventMessage.MAILBOX_DELETION, user, mailboxID, null, null);
+        }
+
+        List<Long> uids = ((MessageEvent) event).getUids().stream()
+                .map(MessageUid::asLong)
+                .collect(Collectors.toList());
+        if (event instanceof Added) {
+            return new MailboxEventMessage(eventID, MailboxEventMessage.ADDED, user, mailboxID, uids, null);
+        }
+        if (event instanceof Expunged) {
+            return new MailboxEventMessage(eventID, MailboxEventMessage.EXPUNGED, user, mailboxID, uids, null);
+        }
+        Map<Long, List<String>> flags = new TreeMap<>();
+        for (UpdatedFlags updated : ((FlagsUpdated) event).getUpdatedFlags()) {
+            flags.put(updated.getUid().asLong(), flagNames(updated.getNewFlags()));
+        }
+        return new MailboxEventMessage(eventID, MailboxEventMessage.FLAGS_UPDATED, user, mailboxID, uids, flags);
+    }
+
+    // System flags by their IMAP name, then keywords
+    private static List<String> flagNames(Flags flags) {
+        List<String> names = new ArrayList<>();
+        FlagUpdate.SYSTEM_FLAGS.forEach((name, flag) -> {
+            if (flags.contains(flag)) {
+                names.add(name);
+            }
+        });
+        for (String keyword : flags.getUserFlags()) {
+            names.add(keyword);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.rabbitmq.events;
+
+import com.example.rabbitmq.config.RabbitMQExtensionConfiguration;
+import com.example.rabbitmq.metrics.ExtensionMetrics;
+import com.example.rabbitmq.model.MailboxEventBatch;
+import com.example.rabbitmq.model.MailboxEventMessage;
+import com.example.rabbitmq.service.RabbitMQPublisherService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Publishes mailbox events to the events exchange in batches, from a bounded buffer.
+ *
+ * {@link #offer} never blocks the event bus: while the buffer is full, e.g. during a broker outage, new events are
+ * dropped and counted. A single thread takes up to {@code eventsBatchMaxSize} events, waiting at most
+ * {@code eventsBatchWindowMillis} for a batch to fill, and publishes them as one message. Batches are published one
+ * at a time and retried with backoff until published, or confirmed when publisher confirms are enabled, so consumers
+ * see events in the order James emitted them, possibly more than once.
+ */
+@Singleton
+public class MailboxEventPublisher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MailboxEventPublisher.class);
+
+    private final RabbitMQExtensionConfiguration config;
+    private final RabbitMQPublisherService publisherService;
+    private final ExtensionMetrics metrics;
+    private final BlockingQueue<MailboxEventMessage> buffer;
+    private volatile boolean running;
+    private volatile boolean overflowing;
+    private Thread thread;
+
+    @Inject
+    public MailboxEventPublisher(RabbitMQExtensionConfiguration config,
+                                 RabbitMQPublisherService publisherService,
+                                 ExtensionMetrics metrics) {
+        this.config = config;
+        this.publisherService = publisherService;
+        this.metrics = metrics;
+        this.buffer = new ArrayBlockingQueue<>(config.getEventsBufferSize());
+        metrics.setEventBufferGauge(buffer::size);
+    }
+
+    public void start() {
+        if (!config.isEventsEnabled()) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "RabbitMQ-Event-Publisher");
+        thread.setDaemon(true);
+        thread.start();
+        LOGGER.info("Started mailbox event publisher for exchange: {} (batchMaxSize={}, window={}ms, bufferSize={})",
+                config.getEventsExchange(), config.getEventsBatchMaxSize(), config.getEventsBatchWindowMillis(),
+                config.getEventsBufferSize());
+    }
+
+    // Events offered before start() are kept, up to the buffer size
+    public void offer(MailboxEventMessage event) {
+        if (buffer.offer(event)) {
+            return;
+        }
+        metrics.eventsDropped(1);
+        if (!overflowing) {
+            overflowing = true;
+            LOGGER.warn("Mailbox event buffer is full ({} events), dropping events until it drains", config.getEventsBufferSize());
+        }
+    }
+
+    private void run() {
+        try {
+            // Buffered events are still published once stopping
+            while (running || !buffer.isEmpty()) {
+                List<MailboxEventMessage> batch = nextBatch();
+                if (!batch.isEmpty()) {
+                    publish(batch);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int remaining = buffer.size();
+        if (remaining > 0) {
+            LOGGER.warn("Dropping {} mailbox events not published before shutdown", remaining);
+            metrics.eventsDropped(remaining);
+        }
+    }
+
+    // Waits for a first event, then up to the batch window for more
+    private List<MailboxEventMessage> nextBatch() throws InterruptedException {
+        MailboxEventMessage first = buffer.poll(1, TimeUnit.SECONDS);
+        if (first == null) {
+            return List.of();
+        }
+        int maxSize = config.getEventsBatchMaxSize();
+        List<MailboxEventMessage> batch = new ArrayList<>(maxSize);
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getEventsBatchWindowMillis());
+        while (batch.size() < maxSize) {
+            if (buffer.drainTo(batch, maxSize - batch.size()) > 0) {
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            MailboxEventMessage next = remaining > 0 ? buffer.poll(remaining, TimeUnit.NANOSECONDS) : null;
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+        return batch;
+    }
+
+    private void publish(List<MailboxEventMessage> events) throws InterruptedException {
+        long delay = config.getRecoveryInitialDelayMillis();
+        while (true) {
+            try {
+                publisherService.publishEvents(new MailboxEventBatch(events))
+                        .get(config.getPublisherConfirmTimeoutSeconds(), TimeUnit.SECONDS);
+                metrics.eventsPublished(events.size());
+                overflowing = false;
+                return;
+            } catch (ExecutionException | TimeoutException | RuntimeException e) {
+                if (!running) {
+                    LOGGER.warn("Dropping {} mailbox events not published before shutdown", events.size());
+                    metrics.eventsDropped(events.size());
+                    return;
+                }
+                LOGGER.warn("Failed to publish {} mailbox events, retrying in {}ms: {}", events.size(), delay, e.getMessage());
+                Thread.sleep(delay);
+                delay = Math.min(delay * 2, config.getRecoveryMaxDelayMillis());
+            }
+        }
+    }
+
+    /**
+     * Publishes the buffered events, waiting up to {@code shutdownTimeoutSeconds}. Must be called before the
+     * publisher service is stopped.
+     */
+    public void stop() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(config.getShutdownTimeoutSeconds()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            thread.interrupt();
+        }
+        thread = null;
+        LOGGER.info("Stopped mailbox event publisher");
+    }
+}
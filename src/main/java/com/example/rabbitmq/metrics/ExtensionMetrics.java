@@ -0,0 +1,325 @@
+package com.example.rabbitmq.metrics;
+
+import com.example.rabbitmq.cache.MailboxMetadataCache;
+import com.example.rabbitmq.cache.ProcessedActionStore;
+import com.example.rabbitmq.model.EmailAction;
+import com.example.rabbitmq.service.AdaptiveLimiter;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Counters and per-stage latency histograms of the consume, process and publish pipeline.
+ *
+ * Recording is lock-free and cheap enough for the hot path. The values can be read in process through the
+ * getters, or over JMX once {@link #register()} was called.
+ */
+@Singleton
+public class ExtensionMetrics implements ExtensionMetricsMXBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExtensionMetrics.class);
+    public static final String OBJECT_NAME = "com.example.rabbitmq:type=RabbitMQExtension,name=Metrics";
+
+    private final MailboxMetadataCache mailboxCache;
+    private final ProcessedActionStore processedActions;
+    private final AdaptiveLimiter limiter;
+    private final RateMeter deliveries = new RateMeter();
+    private final Map<PipelineStage, LatencyHistogram> latencies = new EnumMap<>(PipelineStage.class);
+    private final Map<EmailAction, LongAdder> succeeded = new EnumMap<>(EmailAction.class);
+    private final Map<EmailAction, LongAdder> failed = new EnumMap<>(EmailAction.class);
+    private final LongAdder nacks = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder deadLetters = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder publishFailures = new LongAdder();
+    private final LongAdder publishedEvents = new LongAdder();
+    private final LongAdder droppedEvents = new LongAdder();
+    private volatile Supplier<String> state = () -> "STARTING";
+    private volatile IntSupplier inFlight = () -> 0;
+    private volatile IntSupplier bufferedEvents = () -> 0;
+    private ObjectName registeredName;
+
+    @Inject
+    public ExtensionMetrics(MailboxMetadataCache mailboxCache, ProcessedActionStore processedActions,
+                            AdaptiveLimiter limiter) {
+        this.mailboxCache = mailboxCache;
+        this.processedActions = processedActions;
+        this.limiter = limiter;
+        for (PipelineStage stage : PipelineStage.values()) {
+            latencies.put(stage, new LatencyHistogram());
+        }
+        for (EmailAction action : EmailAction.values()) {
+            succeeded.put(action, new LongAdder());
+            failed.put(action, new LongAdder());
+        }
+    }
+
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+            registeredName = name;
+            LOGGER.info("Registered metrics MBean {}", OBJECT_NAME);
+        } catch (Exception e) {
+            LOGGER.warn("Could not register metrics MBean {}", OBJECT_NAME, e);
+        }
+    }
+
+    public void unregister() {
+        if (registeredName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (Exception e) {
+            LOGGER.debug("Could not unregister metrics MBean {}", OBJECT_NAME, e);
+        }
+        registeredName = null;
+    }
+
+    // Recording
+
+    public void delivered() {
+        deliveries.mark();
+    }
+
+    public LatencyHistogram latency(PipelineStage stage) {
+        return latencies.get(stage);
+    }
+
+    public void recordSince(PipelineStage stage, long startNanos) {
+        latencies.get(stage).recordSince(startNanos);
+    }
+
+    // Records the time from subscription until the given Mono terminates
+    public <T> Mono<T> time(PipelineStage stage, Mono<T> mono) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return mono.doFinally(signal -> recordSince(stage, start));
+        });
+    }
+
+    public void actionCompleted(EmailAction action, boolean success) {
+        (success ? succeeded : failed).get(action).increment();
+    }
+
+    public void nacked() {
+        nacks.increment();
+    }
+
+    public void retried() {
+        retries.increment();
+    }
+
+    public void deadLettered() {
+        deadLetters.increment();
+    }
+
+    public void rejected() {
+        rejected.increment();
+    }
+
+    public void publishFailed() {
+        publishFailures.increment();
+    }
+
+    public void setStateGauge(Supplier<String> state) {
+        this.state = state;
+    }
+
+    public void setInFlightGauge(IntSupplier inFlight) {
+        this.inFlight = inFlight;
+    }
+
+    public void eventsPublished(int count) {
+        publishedEvents.add(count);
+    }
+
+    public void eventsDropped(int count) {
+        droppedEvents.add(count);
+    }
+
+    public void setEventBufferGauge(IntSupplier bufferedEvents) {
+        this.bufferedEvents = bufferedEvents;
+    }
+
+    // Reading
+
+    public long succeededCount(EmailAction action) {
+        return succeeded.get(action).sum();
+    }
+
+    public long failedCount(EmailAction action) {
+        return failed.get(action).sum();
+    }
+
+    @Override
+    public String getState() {
+        return state.get();
+    }
+
+    @Override
+    public long getDeliveries() {
+        return deliveries.count();
+    }
+
+    @Override
+    public double getDeliveriesPerSecond() {
+        return deliveries.ratePerSecond();
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight.getAsInt();
+    }
+
+    @Override
+    public Map<String, Long> getSucceededActions() {
+        return byActionName(succeeded);
+    }
+
+    @Override
+    public Map<String, Long> getFailedActions() {
+        return byActionName(failed);
+    }
+
+    @Override
+    public long getNacks() {
+        return nacks.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getDeadLetters() {
+        return deadLetters.sum();
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public long getDuplicates() {
+        return processedActions.duplicateCount();
+    }
+
+    @Override
+    public long getPublishFailures() {
+        return publishFailures.sum();
+    }
+
+    @Override
+    public long getPublishedEvents() {
+        return publishedEvents.sum();
+    }
+
+    @Override
+    public long getDroppedEvents() {
+        return droppedEvents.sum();
+    }
+
+    @Override
+    public int getBufferedEvents() {
+        return bufferedEvents.getAsInt();
+    }
+
+    @Override
+    public double getMailboxCacheHitRatio() {
+        return mailboxCache.hitRate();
+    }
+
+    @Override
+    public double getDedupHitRatio() {
+        return processedActions.hitRate();
+    }
+
+    @Override
+    public double getRateLimit() {
+        return limiter.getRate();
+    }
+
+    @Override
+    public int getConcurrencyLimit() {
+        return limiter.getConcurrencyLimit();
+    }
+
+    @Override
+    public int getLimitedInFlight() {
+        return limiter.getInFlight();
+    }
+
+    @Override
+    public double getSmoothedOperationLatencyMillis() {
+        return limiter.getSmoothedLatencyMillis();
+    }
+
+    @Override
+    public int getPrefetch() {
+        return limiter.getPrefetch();
+    }
+
+    @Override
+    public StageLatency getDecodeLatency() {
+        return latency(PipelineStage.DECODE).snapshot();
+    }
+
+    @Override
+    public StageLatency getLookupLatency() {
+        return latency(PipelineStage.LOOKUP).snapshot();
+    }
+
+    @Override
+    public StageLatency getSearchLatency() {
+        return latency(PipelineStage.SEARCH).snapshot();
+    }
+
+    @Override
+    public StageLatency getMoveLatency() {
+        return latency(PipelineStage.MOVE).snapshot();
+    }
+
+    @Override
+    public StageLatency getUpdateLatency() {
+        return latency(PipelineStage.UPDATE).snapshot();
+    }
+
+    @Override
+    public StageLatency getPublishLatency() {
+        return latency(PipelineStage.PUBLISH).snapshot();
+    }
+
+    @Override
+    public StageLatency getAckLatency() {
+        return latency(PipelineStage.ACK).snapshot();
+    }
+
+    @Override
+    public void resetLatencies() {
+        latencies.values().forEach(LatencyHistogram::reset);
+    }
+
+    private static Map<String, Long> byActionName(Map<EmailAction, LongAdder> counters) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        counters.forEach((action, counter) -> values.put(action.getValue(), counter.sum()));
+        return values;
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.rabbitmq.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link ExtensionMetrics}, registered as {@value ExtensionMetrics#OBJECT_NAME}.
+ */
+public interface ExtensionMetricsMXBean {
+    // STARTING, RUNNING, DEGRADED or STOPPED; only RUNNING means deliveries are consumed
+    String getState();
+
+    long getDeliveries();
+
+    double getDeliveriesPerSecond();
+
+    int getInFlight();
+
+    // Per action name, e.g. "Move" and "Trash"
+    Map<String, Long> getSucceededActions();
+
+    Map<String, Long> getFailedActions();
+
+    long getNacks();
+
+    long getRetries();
+
+    long getDeadLetters();
+
+    long getRejected();
+
+    long getDuplicates();
+
+    long getPublishFailures();
+
+    // Mailbox events published to the events exchange, dropped because the buffer was full, and waiting in it
+    long getPublishedEvents();
+
+    long getDroppedEvents();
+
+    int getBufferedEvents();
+
+    double getMailboxCacheHitRatio();
+
+    double getDedupHitRatio();
+
+    // Actions per second, 0 when not rate limited
+    double getRateLimit();
+
+    // Mailbox operations allowed at once, 0 when not adaptive
+    int getConcurrencyLimit();
+
+    int getLimitedInFlight();
+
+    double getSmoothedOperationLatencyMillis();
+
+    // Current prefetch of each consumer channel
+    int getPrefetch();
+
+    StageLatency getDecodeLatency();
+
+    StageLatency getLookupLatency();
+
+    StageLatency getSearchLatency();
+
+    StageLatency getMoveLatency();
+
+    StageLatency getUpdateLatency();
+
+    StageLatency getPublishLatency();
+
+    StageLatency getAckLatency();
+
+    void resetLatencies();
+}
@@ -0,0 +1,27 @@
+package com.example.rabbitmq.metrics;
+
+/**
+ * Stages of the consume, process and publish pipeline whose latency is recorded.
+ */
+public enum PipelineStage {
+    // Parsing a delivery body into a request or batch
+    DECODE,
+
+    // Resolving a mailbox id to its owner and path, from the cache or the mailbox mapper
+    LOOKUP,
+
+    // Resolving the UIDs a bulk action applies to with a mailbox search
+    SEARCH,
+
+    // One moveMessages call, for a single message or a contiguous UID range
+    MOVE,
+
+    // One setFlags call for a contiguous UID range, or one delete call
+    UPDATE,
+
+    // From publishing a result until it is written, or confirmed by the broker when confirms are enabled
+    PUBLISH,
+
+    // One basicAck, possibly releasing several deliveries
+    ACK
+}
@@ -0,0 +1,48 @@
+package com.example.rabbitmq.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events and reports their rate over the last minute, from one slot per second.
+ */
+public class RateMeter {
+    private static final int WINDOW_SECONDS = 60;
+
+    private final LongAdder total = new LongAdder();
+    private final AtomicLongArray slotSeconds = new AtomicLongArray(WINDOW_SECONDS);
+    private final AtomicLongArray slotCounts = new AtomicLongArray(WINDOW_SECONDS);
+
+    public void mark() {
+        mark(1);
+    }
+
+    public void mark(long events) {
+        total.add(events);
+        long second = System.currentTimeMillis() / 1000;
+        int slot = (int) (second % WINDOW_SECONDS);
+        long slotSecond = slotSeconds.get(slot);
+        // The first event of a new second recycles the slot; a concurrent event may be lost in that race
+        if (slotSecond != second && slotSeconds.compareAndSet(slot, slotSecond, second)) {
+            slotCounts.set(slot, 0);
+        }
+        slotCounts.addAndGet(slot, events);
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    // Events per second over the last complete minute
+    public double ratePerSecond() {
+        long now = System.currentTimeMillis() / 1000;
+        long events = 0;
+        for (int slot = 0; slot < WINDOW_SECONDS; slot++) {
+            long second = slotSeconds.get(slot);
+            if (second < now && second >= now - WINDOW_SECONDS) {
+                events += slotCounts.get(slot);
+            }
+        }
+        return (double) events / WINDOW_SECONDS;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.rabbitmq.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Point-in-time summary of a {@link LatencyHistogram}, exposed over JMX as composite data. Latencies are in
+ * microseconds.
+ */
+public class StageLatency {
+    private final long count;
+    private final double meanMicros;
+    private final long p50Micros;
+    private final long p99Micros;
+    private final long p999Micros;
+    private final long maxMicros;
+
+    @ConstructorProperties({"count", "meanMicros", "p50Micros", "p99Micros", "p999Micros", "maxMicros"})
+    public StageLatency(long count, double meanMicros, long p50Micros, long p99Micros, long p999Micros, long maxMicros) {
+        this.count = count;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.p999Micros = p999Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMeanMicros() {
+        return meanMicros;
+    }
+
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    public long getP999Micros() {
+        return p999Micros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return "StageLatency{count=" + count + ", mean=" + String.format("%.1f", meanMicros) + "us, p50=" + p50Micros
+                + "us, p99=" + p99Micros + "us, p999=" + p999Micros + "us, max=" + maxMicros + "us}";
+    }
+}
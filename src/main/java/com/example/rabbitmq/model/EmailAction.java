@@ -1,20 +1,39 @@
 package com.example.rabbitmq.model;
 
 public enum EmailAction {
-    MOVE("Move"),
+    MOVE("Move", false),
 
-    TRASH("Trash");
+    TRASH("Trash", false),
+
+    // Add and remove flags or keywords of a message, from a FlagUpdate
+    SET_FLAGS("SetFlags", false),
+
+    ADD_KEYWORDS("AddKeywords", false),
+
+    // Permanently delete a message, without going through the Trash
+    DELETE("Delete", false),
+
+    // Move or trash every message matched by a MessageSelector, in chunks, with progress results
+    BULK_MOVE("BulkMove", true),
+
+    BULK_TRASH("BulkTrash", true);
 
     private final String value;
+    private final boolean bulk;
 
-    EmailAction(String value) {
+    EmailAction(String value, boolean bulk) {
         this.value = value;
+        this.bulk = bulk;
     }
 
     public String getValue() {
         return value;
     }
 
+    public boolean isBulk() {
+        return bulk;
+    }
+
     public static EmailAction fromString(String text) {
         for (EmailAction action : EmailAction.values()) {
             if (action.value.equalsIgnoreCase(text)) {
@@ -0,0 +1,68 @@
+package com.example.rabbitmq.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Many actions carried by a single message, answered by one {@link EmailActionBatchResponse}.
+ */
+public final class EmailActionBatch implements EmailActionMessage {
+    private final String batchID;
+    private final List<EmailActionRequest> requests;
+    private final List<EmailActionResponse> rejected;
+
+    private EmailActionBatch(String batchID, List<EmailActionRequest> requests, List<EmailActionResponse> rejected) {
+        this.batchID = batchID;
+        this.requests = Collections.unmodifiableList(requests);
+        this.rejected = Collections.unmodifiableList(rejected);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private final List<EmailActionRequest> requests = new ArrayList<>();
+        private final List<EmailActionResponse> rejected = new ArrayList<>();
+
+        public Builder add(EmailActionRequest request) { requests.add(request); return this; }
+
+        // An action of the batch that could not be decoded; it is answered with a failure
+        public Builder reject(String hashID, String reason) {
+            rejected.add(EmailActionResponse.failure(hashID, "Invalid request: " + reason));
+            return this;
+        }
+
+        public int size() { return requests.size() + rejected.size(); }
+
+        public EmailActionBatch build(String batchID) {
+            return new EmailActionBatch(batchID, requests, rejected);
+        }
+    }
+
+    public String getBatchID() {
+        return batchID;
+    }
+
+    public List<EmailActionRequest> getRequests() {
+        return requests;
+    }
+
+    public List<EmailActionResponse> getRejected() {
+        return rejected;
+    }
+
+    public int size() {
+        return requests.size() + rejected.size();
+    }
+
+    @Override
+    public String toString() {
+        return "EmailActionBatch{" +
+                "batchID='" + batchID + '\'' +
+                ", actions=" + requests.size() +
+                ", rejected=" + rejected.size() +
+                '}';
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.rabbitmq.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+public class EmailActionBatchResponse {
+    @JsonProperty("batchID")
+    private String batchID;
+
+    // SUCCESS when every action succeeded, FAILED when none did, PARTIAL otherwise
+    @JsonProperty("status")
+    private String status;
+
+    @JsonProperty("succeeded")
+    private int succeeded;
+
+    @JsonProperty("failed")
+    private int failed;
+
+    @JsonProperty("results")
+    private List<EmailActionResponse> results;
+
+    @JsonProperty("timestamp")
+    private long timestamp;
+
+    public EmailActionBatchResponse() {
+    }
+
+    public EmailActionBatchResponse(String batchID, List<EmailActionResponse> results) {
+        this.batchID = batchID;
+        this.results = results;
+        for (EmailActionResponse result : results) {
+            if (EmailActionResponse.SUCCESS.equals(result.getStatus())) {
+                succeeded++;
+            } else {
+                failed++;
+            }
+        }
+        this.status = failed == 0 ? EmailActionResponse.SUCCESS : succeeded == 0 ? EmailActionResponse.FAILED : "PARTIAL";
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public String getBatchID() {
+        return batchID;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public List<EmailActionResponse> getResults() {
+        return results;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
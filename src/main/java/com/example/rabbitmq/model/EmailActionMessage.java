@@ -0,0 +1,7 @@
+package com.example.rabbitmq.model;
+
+/**
+ * A message of the input queue: a single {@link EmailActionRequest} or an {@link EmailActionBatch}.
+ */
+public interface EmailActionMessage {
+}
@@ -1,87 +1,82 @@
 package com.example.rabbitmq.model;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
-
-public class EmailActionRequest {
-    @JsonProperty("action")
-    private String action;
-
-    @JsonProperty("sourceMailboxID")
-    private String sourceMailboxID;
-
-    @JsonProperty("sourceMessageID")
-    private String sourceMessageID;
-
-    @JsonProperty("destinationMailboxID")
-    private String destinationMailboxID;
-
-    @JsonProperty("hashID")
-    private String hashID;
-
-    // Default constructor
-    public EmailActionRequest() {
+/**
+ * An action decoded from the input queue. Immutable, with numeric ids already parsed.
+ */
+public final class EmailActionRequest implements EmailActionMessage {
+    // Value of destinationMailboxID when the payload did not carry one
+    public static final long NO_MAILBOX = -1;
+
+    private final EmailAction action;
+    private final long sourceMailboxID;
+    private final long sourceMessageID;
+    private final long destinationMailboxID;
+    private final String hashID;
+    private final MessageSelector selector;
+    private final FlagUpdate flagUpdate;
+
+    public EmailActionRequest(EmailAction action, long sourceMailboxID,
+                              long sourceMessageID, long destinationMailboxID,
+                              String hashID) {
+        this(action, sourceMailboxID, sourceMessageID, destinationMailboxID, hashID, null, null);
     }
 
-    // Constructor
-    public EmailActionRequest(String action, String sourceMailboxID,
-                              String sourceMessageID, String destinationMailboxID,
-                              String hashID) {
+    public EmailActionRequest(EmailAction action, long sourceMailboxID,
+                              long sourceMessageID, long destinationMailboxID,
+                              String hashID, MessageSelector selector, FlagUpdate flagUpdate) {
         this.action = action;
         this.sourceMailboxID = sourceMailboxID;
         this.sourceMessageID = sourceMessageID;
         this.destinationMailboxID = destinationMailboxID;
         this.hashID = hashID;
+        this.selector = selector;
+        this.flagUpdate = flagUpdate;
     }
 
-    // Getters and Setters
-    public String getAction() {
+    public EmailAction getAction() {
         return action;
     }
 
-    public void setAction(String action) {
-        this.action = action;
-    }
-
-    public String getSourceMailboxID() {
+    public long getSourceMailboxID() {
         return sourceMailboxID;
     }
 
-    public void setSourceMailboxID(String sourceMailboxID) {
-        this.sourceMailboxID = sourceMailboxID;
-    }
-
-    public String getSourceMessageID() {
+    // UID of the message in the source mailbox, unused by bulk actions
+    public long getSourceMessageID() {
         return sourceMessageID;
     }
 
-    public void setSourceMessageID(String sourceMessageID) {
-        this.sourceMessageID = sourceMessageID;
-    }
-
-    public String getDestinationMailboxID() {
+    public long getDestinationMailboxID() {
         return destinationMailboxID;
     }
 
-    public void setDestinationMailboxID(String destinationMailboxID) {
-        this.destinationMailboxID = destinationMailboxID;
+    public boolean hasDestinationMailbox() {
+        return destinationMailboxID != NO_MAILBOX;
     }
 
     public String getHashID() {
         return hashID;
     }
 
-    public void setHashID(String hashID) {
-        this.hashID = hashID;
+    // Messages of a bulk action, null for the other actions
+    public MessageSelector getSelector() {
+        return selector;
+    }
+
+    // Flags of a SetFlags or AddKeywords action, null for the other actions
+    public FlagUpdate getFlagUpdate() {
+        return flagUpdate;
     }
 
     @Override
     public String toString() {
         return "EmailActionRequest{" +
-                "action='" + action + '\'' +
+                "action='" + action.getValue() + '\'' +
                 ", sourceMailboxID='" + sourceMailboxID + '\'' +
-                ", sourceMessageID='" + sourceMessageID + '\'' +
-                ", destinationMailboxID='" + destinationMailboxID + '\'' +
+                (selector == null ? ", sourceMessageID='" + sourceMessageID : ", selector='" + selector) + '\'' +
+                ", destinationMailboxID='" + (hasDestinationMailbox() ? destinationMailboxID : null) + '\'' +
+                (flagUpdate == null ? "" : ", flags='" + flagUpdate + '\'') +
                 ", hashID='" + hashID + '\'' +
                 '}';
     }
-}
\ No newline at end of file
+}
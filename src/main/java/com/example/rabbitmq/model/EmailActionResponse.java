@@ -1,8 +1,14 @@
 package com.example.rabbitmq.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class EmailActionResponse {
+    public static final String SUCCESS = "SUCCESS";
+    public static final String FAILED = "FAILED";
+    // Intermediate result of a bulk action, followed by more results with the same hashID
+    public static final String IN_PROGRESS = "IN_PROGRESS";
+
     @JsonProperty("hashID")
     private String hashID;
 
@@ -15,6 +21,15 @@ public class EmailActionResponse {
     @JsonProperty("timestamp")
     private long timestamp;
 
+    // Messages processed so far and messages selected, only set for bulk actions
+    @JsonProperty("processed")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long processed;
+
+    @JsonProperty("total")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long total;
+
     public EmailActionResponse() {
     }
 
@@ -26,11 +41,22 @@ public class EmailActionResponse {
     }
 
     public static EmailActionResponse success(String hashID, String message) {
-        return new EmailActionResponse(hashID, "SUCCESS", message);
+        return new EmailActionResponse(hashID, SUCCESS, message);
     }
 
     public static EmailActionResponse failure(String hashID, String message) {
-        return new EmailActionResponse(hashID, "FAILED", message);
+        return new EmailActionResponse(hashID, FAILED, message);
+    }
+
+    public static EmailActionResponse progress(String hashID, long processed, long total) {
+        return new EmailActionResponse(hashID, IN_PROGRESS, "Processed " + processed + " of " + total + " messages")
+                .withCounts(processed, total);
+    }
+
+    public EmailActionResponse withCounts(long processed, long total) {
+        this.processed = processed;
+        this.total = total;
+        return this;
     }
 
     // Getters and Setters
@@ -65,4 +91,20 @@ public class EmailActionResponse {
     public void setTimestamp(long timestamp) {
         this.timestamp = timestamp;
     }
+
+    public Long getProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(Long processed) {
+        this.processed = processed;
+    }
+
+    public Long getTotal() {
+        return total;
+    }
+
+    public void setTotal(Long total) {
+        this.total = total;
+    }
 }
\ No newline at end of file
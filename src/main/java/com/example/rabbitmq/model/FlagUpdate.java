@@ -0,0 +1,107 @@
+package com.example.rabbitmq.model;
+
+import javax.mail.Flags;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Flags added to and removed from the message of a {@code SetFlags} or {@code AddKeywords} action. System flags are
+ * held by their IMAP name, e.g. {@code \Seen}; any other name is a keyword. Immutable; equal updates are applied to
+ * their messages together.
+ */
+public final class FlagUpdate {
+    // The system flags by their IMAP name, in IMAP order
+    public static final Map<String, Flags.Flag> SYSTEM_FLAGS;
+    // Set by the server only (RFC 3501), never by an action
+    private static final String RECENT = "\\Recent";
+
+    static {
+        Map<String, Flags.Flag> flags = new LinkedHashMap<>();
+        flags.put("\\Answered", Flags.Flag.ANSWERED);
+        flags.put("\\Deleted", Flags.Flag.DELETED);
+        flags.put("\\Draft", Flags.Flag.DRAFT);
+        flags.put("\\Flagged", Flags.Flag.FLAGGED);
+        flags.put(RECENT, Flags.Flag.RECENT);
+        flags.put("\\Seen", Flags.Flag.SEEN);
+        SYSTEM_FLAGS = Collections.unmodifiableMap(flags);
+    }
+
+    private final Set<String> added;
+    private final Set<String> removed;
+
+    public FlagUpdate(Set<String> added, Set<String> removed) {
+        this.added = Collections.unmodifiableSet(new TreeSet<>(added));
+        this.removed = Collections.unmodifiableSet(new TreeSet<>(removed));
+    }
+
+    /**
+     * The IMAP name of a system flag an action may set, matched case-insensitively with or without its backslash
+     * ({@code seen}, {@code \Seen}), or null otherwise: {@code \Recent} is never settable.
+     */
+    public static String systemFlag(String name) {
+        String flag = systemFlagName(name);
+        return RECENT.equals(flag) ? null : flag;
+    }
+
+    // Whether name is one of the system flags, which are not keywords even when they cannot be set
+    public static boolean isSystemFlag(String name) {
+        return systemFlagName(name) != null;
+    }
+
+    private static String systemFlagName(String name) {
+        String bare = name.startsWith("\\") ? name.substring(1) : name;
+        for (String flag : SYSTEM_FLAGS.keySet()) {
+            if (flag.substring(1).equalsIgnoreCase(bare)) {
+                return flag;
+            }
+        }
+        return null;
+    }
+
+    // Keywords are IMAP atoms: no spaces, controls or atom-specials, and no leading backslash
+    public static boolean isValidKeyword(String name) {
+        if (name.isEmpty() || name.startsWith("\\")) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c <= ' ' || c >= 0x7f || "(){%*\"]\\".indexOf(c) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Set<String> getAdded() {
+        return added;
+    }
+
+    public Set<String> getRemoved() {
+        return removed;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof FlagUpdate)) return false;
+        FlagUpdate that = (FlagUpdate) o;
+        return added.equals(that.added) && removed.equals(that.removed);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * added.hashCode() + removed.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "+" + added + " -" + removed;
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.rabbitmq.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * One message of the events exchange: consecutive mailbox events, in the order James emitted them.
+ */
+public class MailboxEventBatch {
+    @JsonProperty("events")
+    private List<MailboxEventMessage> events;
+
+    @JsonProperty("timestamp")
+    private long timestamp;
+
+    public MailboxEventBatch() {
+    }
+
+    public MailboxEventBatch(List<MailboxEventMessage> events) {
+        this.events = events;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public List<MailboxEventMessage> getEvents() {
+        return events;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.rabbitmq.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact form of a James mailbox event, published on the events exchange. {@code uids} are set for
+ * {@code Added}, {@code Expunged} and {@code FlagsUpdated} events, {@code flags} (the new flags by UID) only for
+ * {@code FlagsUpdated} ones.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class MailboxEventMessage {
+    public static final String ADDED = "Added";
+    public static final String EXPUNGED = "Expunged";
+    public static final String FLAGS_UPDATED = "FlagsUpdated";
+    public static final String MAILBOX_DELETION = "MailboxDeletion";
+
+    // Id of the James event, for consumers to drop events redelivered by the event bus
+    @JsonProperty("eventID")
+    private String eventID;
+
+    @JsonProperty("type")
+    private String type;
+
+    @JsonProperty("user")
+    private String user;
+
+    @JsonProperty("mailboxID")
+    private String mailboxID;
+
+    @JsonProperty("uids")
+    private List<Long> uids;
+
+    @JsonProperty("flags")
+    private Map<Long, List<String>> flags;
+
+    public MailboxEventMessage() {
+    }
+
+    public MailboxEventMessage(String eventID, String type, String user, String mailboxID, List<Long> uids,
+                               Map<Long, List<String>> flags) {
+        this.eventID = eventID;
+        this.type = type;
+        this.user = user;
+        this.mailboxID = mailboxID;
+        this.uids = uids;
+        this.flags = flags;
+    }
+
+    public String getEventID() {
+        return eventID;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getMailboxID() {
+        return mailboxID;
+    }
+
+    public List<Long> getUids() {
+        return uids;
+    }
+
+    public Map<Long, List<String>> getFlags() {
+        return flags;
+    }
+
+    @Override
+    public String toString() {
+        return "MailboxEventMessage{" +
+                "eventID='" + eventID + '\'' +
+                ", type='" + type + '\'' +
+                ", mailboxID='" + mailboxID + '\'' +
+                ", uids=" + (uids == null ? 0 : uids.size()) +
+                '}';
+    }
+}
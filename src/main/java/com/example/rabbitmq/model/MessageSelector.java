@@ -0,0 +1,78 @@
+package com.example.rabbitmq.model;
+
+import java.util.Arrays;
+
+/**
+ * The messages of the source mailbox a bulk action applies to: a UID range, a set of UIDs, or the messages
+ * matching {@link SearchCriteria}. UIDs that no longer exist are ignored.
+ */
+public final class MessageSelector {
+    public enum Kind {
+        RANGE,
+        SET,
+        QUERY
+    }
+
+    private final Kind kind;
+    private final long from;
+    private final long to;
+    private final long[] uids;
+    private final SearchCriteria criteria;
+
+    private MessageSelector(Kind kind, long from, long to, long[] uids, SearchCriteria criteria) {
+        this.kind = kind;
+        this.from = from;
+        this.to = to;
+        this.uids = uids;
+        this.criteria = criteria;
+    }
+
+    public static MessageSelector range(long from, long to) {
+        return new MessageSelector(Kind.RANGE, from, to, null, null);
+    }
+
+    // The UIDs are sorted and deduplicated
+    public static MessageSelector uids(long[] uids) {
+        long[] sorted = Arrays.stream(uids).sorted().distinct().toArray();
+        return new MessageSelector(Kind.SET, 0, 0, sorted, null);
+    }
+
+    public static MessageSelector query(SearchCriteria criteria) {
+        return new MessageSelector(Kind.QUERY, 0, 0, null, criteria);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    // First UID of a RANGE
+    public long getFrom() {
+        return from;
+    }
+
+    // Last UID of a RANGE, inclusive
+    public long getTo() {
+        return to;
+    }
+
+    // Sorted UIDs of a SET
+    public long[] getUids() {
+        return uids.clone();
+    }
+
+    public SearchCriteria getCriteria() {
+        return criteria;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case RANGE:
+                return "uids " + from + ":" + to;
+            case SET:
+                return uids.length + " uids";
+            default:
+                return String.valueOf(criteria);
+        }
+    }
+}
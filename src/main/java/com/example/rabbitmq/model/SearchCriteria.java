@@ -0,0 +1,75 @@
+package com.example.rabbitmq.model;
+
+/**
+ * Conditions of a {@link MessageSelector} query, all of which must hold. Unset conditions are {@link #UNSET} or
+ * {@code null}. Dates are epoch milliseconds of the internal (received) date.
+ */
+public final class SearchCriteria {
+    public static final long UNSET = -1;
+
+    private final long receivedBefore;
+    private final long receivedAfter;
+    private final int olderThanDays;
+    private final Boolean seen;
+    private final Boolean flagged;
+    private final long minSize;
+    private final long maxSize;
+
+    private SearchCriteria(Builder builder) {
+        this.receivedBefore = builder.receivedBefore;
+        this.receivedAfter = builder.receivedAfter;
+        this.olderThanDays = builder.olderThanDays;
+        this.seen = builder.seen;
+        this.flagged = builder.flagged;
+        this.minSize = builder.minSize;
+        this.maxSize = builder.maxSize;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private long receivedBefore = UNSET;
+        private long receivedAfter = UNSET;
+        private int olderThanDays = (int) UNSET;
+        private Boolean seen;
+        private Boolean flagged;
+        private long minSize = UNSET;
+        private long maxSize = UNSET;
+
+        public Builder receivedBefore(long receivedBefore) { this.receivedBefore = receivedBefore; return this; }
+        public Builder receivedAfter(long receivedAfter) { this.receivedAfter = receivedAfter; return this; }
+        // Relative to the time the action is applied: a retried action also selects the messages aged past the cutoff since
+        public Builder olderThanDays(int olderThanDays) { this.olderThanDays = olderThanDays; return this; }
+        public Builder seen(Boolean seen) { this.seen = seen; return this; }
+        public Builder flagged(Boolean flagged) { this.flagged = flagged; return this; }
+        public Builder minSize(long minSize) { this.minSize = minSize; return this; }
+        public Builder maxSize(long maxSize) { this.maxSize = maxSize; return this; }
+
+        public SearchCriteria build() {
+            return new SearchCriteria(this);
+        }
+    }
+
+    public long getReceivedBefore() { return receivedBefore; }
+    public long getReceivedAfter() { return receivedAfter; }
+    public int getOlderThanDays() { return olderThanDays; }
+    public Boolean getSeen() { return seen; }
+    public Boolean getFlagged() { return flagged; }
+    public long getMinSize() { return minSize; }
+    public long getMaxSize() { return maxSize; }
+
+    @Override
+    public String toString() {
+        return "SearchCriteria{" +
+                "receivedBefore=" + receivedBefore +
+                ", receivedAfter=" + receivedAfter +
+                ", olderThanDays=" + olderThanDays +
+                ", seen=" + seen +
+                ", flagged=" + flagged +
+                ", minSize=" + minSize +
+                ", maxSize=" + maxSize +
+                '}';
+    }
+}
@@ -0,0 +1,292 @@
+package com.example.rabbitmq.service;
+
+import com.example.rabbitmq.codec.WireFormat;
+import com.example.rabbitmq.config.RabbitMQExtensionConfiguration;
+import com.example.rabbitmq.metrics.ExtensionMetrics;
+import com.example.rabbitmq.metrics.PipelineStage;
+import com.example.rabbitmq.model.EmailActionRequest;
+import com.example.rabbitmq.model.EmailActionResponse;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.rabbitmq.client.Delivery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro-batching stage between the consumer and {@link EmailManagementService}.
+ *
+ * Move, flag and delete requests are buffered for up to {@code batchWindowMillis} or {@code batchMaxSize} requests,
+ * grouped as by {@link ActionGroups} and applied with one mailbox operation per contiguous UID range, so that a burst
+ * of flag updates on a mailbox becomes a few {@code setFlags} calls. Results are published per request and the
+ * deliveries are released together per channel, with a multiple-ack when they are at the head of its unacked ones.
+ * A delivery whose mailbox operation failed, or whose result cannot be published, goes through the
+ * {@link RetryHandler}.
+ *
+ * Flushes are serialized: the buffer is only drained while holding the flush lock, which is kept until the drained
+ * requests were applied, so two flushes never apply actions of the same mailbox out of order.
+ */
+@Singleton
+public class ActionBatcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ActionBatcher.class);
+
+    private final RabbitMQExtensionConfiguration config;
+    private final EmailManagementService emailService;
+    private final RabbitMQPublisherService publisherService;
+    private final RetryHandler retryHandler;
+    private final ExtensionMetrics metrics;
+    private final Object lock = new Object();
+    private final Object flushLock = new Object();
+    private List<PendingAction> buffer = new ArrayList<>();
+    // Source mailboxes of the requests being applied by the current flush, guarded by lock
+    private Set<Long> flushing = Set.of();
+    private ScheduledFuture<?> scheduledFlush;
+    private ScheduledExecutorService scheduler;
+
+    @Inject
+    public ActionBatcher(RabbitMQExtensionConfiguration config,
+                         EmailManagementService emailService,
+                         RabbitMQPublisherService publisherService,
+                         RetryHandler retryHandler,
+                         ExtensionMetrics metrics) {
+        this.config = config;
+        this.emailService = emailService;
+        this.publisherService = publisherService;
+        this.retryHandler = retryHandler;
+        this.metrics = metrics;
+    }
+
+    public void start() {
+        if (!config.isBatchingEnabled()) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "RabbitMQ-Action-Batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        LOGGER.info("Started action batcher (window={}ms, maxSize={})",
+                config.getBatchWindowMillis(), config.getBatchMaxSize());
+    }
+
+    public boolean accepts(EmailActionRequest request) {
+        if (scheduler == null) {
+            return false;
+        }
+        switch (request.getAction()) {
+            case MOVE:
+                return request.hasDestinationMailbox();
+            case SET_FLAGS:
+            case ADD_KEYWORDS:
+            case DELETE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public void submit(EmailActionRequest request, WireFormat format, DeliveryTracker tracker, Delivery delivery) {
+        boolean full;
+        synchronized (lock) {
+            buffer.add(new PendingAction(request, format, tracker, delivery));
+            full = buffer.size() >= config.getBatchMaxSize();
+            if (!full && scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(this::flushAll,
+                        config.getBatchWindowMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full) {
+            flushAll();
+        }
+    }
+
+    /**
+     * Flushes the buffered requests if some of them are from {@code sourceMailboxID}, and waits for a flush applying
+     * requests of that mailbox, so that an action on that mailbox which is not batched does not overtake them.
+     */
+    public void flushPendingFrom(long sourceMailboxID) {
+        if (scheduler == null) {
+            return;
+        }
+        synchronized (lock) {
+            if (!flushing.contains(sourceMailboxID) && !hasPendingFrom(sourceMailboxID)) {
+                return;
+            }
+        }
+        synchronized (flushLock) {
+            List<PendingAction> toFlush = List.of();
+            synchronized (lock) {
+                if (hasPendingFrom(sourceMailboxID)) {
+                    toFlush = drain();
+                }
+            }
+            flush(toFlush);
+        }
+    }
+
+    private boolean hasPendingFrom(long sourceMailboxID) {
+        for (PendingAction action : buffer) {
+            if (action.request.getSourceMailboxID() == sourceMailboxID) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void flushAll() {
+        synchronized (flushLock) {
+            List<PendingAction> toFlush;
+            synchronized (lock) {
+                toFlush = drain();
+            }
+            flush(toFlush);
+        }
+    }
+
+    // Must be called holding both locks: the drained requests are applied before the flush lock is released
+    private List<PendingAction> drain() {
+        List<PendingAction> drained = buffer;
+        buffer = new ArrayList<>();
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        Set<Long> sources = new HashSet<>();
+        for (PendingAction action : drained) {
+            sources.add(action.request.getSourceMailboxID());
+        }
+        flushing = sources;
+        return drained;
+    }
+
+    private void flush(List<PendingAction> actions) {
+        try {
+            apply(actions);
+        } finally {
+            synchronized (lock) {
+                flushing = Set.of();
+            }
+        }
+    }
+
+    private void apply(List<PendingAction> actions) {
+        if (actions.isEmpty()) {
+            return;
+        }
+        List<List<PendingAction>> groups = ActionGroups.consecutive(actions, action -> action.request);
+        LOGGER.debug("Flushing {} requests in {} groups", actions.size(), groups.size());
+
+        Set<DeliveryTracker> trackers = new LinkedHashSet<>();
+        List<CompletableFuture<?>> confirmations = new ArrayList<>(actions.size());
+        for (List<PendingAction> group : groups) {
+            List<EmailActionRequest> requests = new ArrayList<>(group.size());
+            for (PendingAction action : group) {
+                requests.add(action.request);
+            }
+            BatchResult result = process(requests);
+
+            for (int i = 0; i < group.size(); i++) {
+                PendingAction action = group.get(i);
+                trackers.add(action.tracker);
+                confirmations.add(answer(action, result.getResponse(i), result.getError(i))
+                        .handleAsync((ignored, error) -> {
+                            if (error == null) {
+                                action.tracker.markCompleted(action.deliveryTag);
+                            } else {
+                                LOGGER.error("Failed to schedule a retry of delivery {}, requeueing it", action.deliveryTag, error);
+                                nack(action);
+                            }
+                            return null;
+                        }, publisherService.confirmExecutor()));
+            }
+        }
+
+        // Release the whole batch per channel once every result is confirmed
+        CompletableFuture.allOf(confirmations.toArray(new CompletableFuture[0]))
+                .thenRunAsync(() -> {
+                    for (DeliveryTracker tracker : trackers) {
+                        long start = System.nanoTime();
+                        try {
+                            tracker.flush();
+                            metrics.recordSince(PipelineStage.ACK, start);
+                        } catch (IOException e) {
+                            LOGGER.error("Failed to acknowledge batched deliveries", e);
+                        }
+                    }
+                }, publisherService.confirmExecutor());
+    }
+
+    // Publishes the response, or retries the delivery when the action or the publish failed
+    private CompletableFuture<Void> answer(PendingAction action, EmailActionResponse response, Exception failure) {
+        if (failure != null) {
+            return retryHandler.handleFailure(action.delivery, action.tracker.getQueue(), failure);
+        }
+        // The retry publishes, so it must not run on the I/O thread completing the confirmation
+        return publisherService.publishResult(response, action.format)
+                .handleAsync((ignored, error) -> {
+                    if (error == null) {
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    LOGGER.error("Error publishing result for {}", action.request, error);
+                    return retryHandler.handleFailure(action.delivery, action.tracker.getQueue(), error);
+                }, publisherService.confirmExecutor())
+                .thenCompose(retried -> retried);
+    }
+
+    private BatchResult process(List<EmailActionRequest> group) {
+        switch (group.get(0).getAction()) {
+            case MOVE:
+                return emailService.processMoveBatch(group);
+            case DELETE:
+                return emailService.processDeleteBatch(group);
+            default:
+                return emailService.processFlagsBatch(group);
+        }
+    }
+
+    private void nack(PendingAction action) {
+        metrics.nacked();
+        try {
+            action.tracker.nack(action.deliveryTag, true);
+        } catch (IOException e) {
+            LOGGER.error("Failed to nack delivery {}", action.deliveryTag, e);
+        }
+    }
+
+    public void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        flushAll();
+        scheduler.shutdownNow();
+        scheduler = null;
+        LOGGER.info("Stopped action batcher");
+    }
+
+    private static class PendingAction {
+        private final EmailActionRequest request;
+        private final WireFormat format;
+        private final DeliveryTracker tracker;
+        private final Delivery delivery;
+        private final long deliveryTag;
+
+        private PendingAction(EmailActionRequest request, WireFormat format, DeliveryTracker tracker, Delivery delivery) {
+            this.request = request;
+            this.format = format;
+            this.tracker = tracker;
+            this.delivery = delivery;
+            this.deliveryTag = delivery.getEnvelope().getDeliveryTag();
+        }
+    }
+}
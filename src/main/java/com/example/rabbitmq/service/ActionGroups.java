@@ -0,0 +1,43 @@
+package com.example.rabbitmq.service;
+
+import com.example.rabbitmq.model.EmailActionRequest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Splits actions into the groups applied with one mailbox operation per contiguous UID run: actions of the same
+ * kind on the same source mailbox, with the same destination and flag update.
+ *
+ * Only consecutive actions of a source mailbox are grouped, so applying the groups in order keeps the order of the
+ * actions of every mailbox, e.g. a flag that is set then cleared ends up cleared. Actions of other mailboxes in
+ * between do not split a group.
+ */
+final class ActionGroups {
+    private ActionGroups() {
+    }
+
+    static <T> List<List<T>> consecutive(List<T> items, Function<T, EmailActionRequest> requestOf) {
+        List<List<T>> groups = new ArrayList<>();
+        Map<Long, List<T>> latestBySource = new HashMap<>();
+        for (T item : items) {
+            EmailActionRequest request = requestOf.apply(item);
+            List<T> latest = latestBySource.get(request.getSourceMailboxID());
+            if (latest == null || !key(requestOf.apply(latest.get(0))).equals(key(request))) {
+                latest = new ArrayList<>();
+                groups.add(latest);
+                latestBySource.put(request.getSourceMailboxID(), latest);
+            }
+            latest.add(item);
+        }
+        return groups;
+    }
+
+    private static List<Object> key(EmailActionRequest request) {
+        return Arrays.asList(request.getAction(), request.getDestinationMailboxID(), request.getFlagUpdate());
+    }
+}
@@ -0,0 +1,357 @@
+package com.example.rabbitmq.service;
+
+import com.example.rabbitmq.config.RabbitMQExtensionConfiguration;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the extension from crowding out IMAP, SMTP and JMAP on the mailbox backend they share.
+ *
+ * Two independent limits apply to every mailbox operation of {@link EmailManagementService}, e.g. the move of a
+ * contiguous UID run or of a bulk chunk:
+ * <ul>
+ *     <li>a token bucket of {@code rabbitmq.rateLimit.actionsPerSecond}, one token per action, bursting up to one
+ *     second worth of tokens. Large operations take their tokens a tenth of a second worth at a time, so they wait
+ *     for them instead of leaving the debt to the next caller;</li>
+ *     <li>with {@code rabbitmq.adaptive.enabled}, a concurrency limit adjusted by AIMD on the observed latency per
+ *     action of the operations: it shrinks by a quarter when the smoothed latency exceeds the target, at most once
+ *     per smoothed operation latency, and grows by one for every limit's worth of fast operations that found it
+ *     saturated.</li>
+ * </ul>
+ * Callers wait for both, so the lanes stop taking deliveries and the consumer channels fill up. Concurrency slots are
+ * handed out in arrival order, to blocking callers and reactive subscribers alike; reactive subscribers wait without
+ * holding a thread. The prefetch of
+ * the channels follows the concurrency limit through {@link #onPrefetchChange(IntConsumer)}, which keeps the
+ * deliveries waiting on a slow backend in the broker instead of in the extension.
+ */
+@Singleton
+public class AdaptiveLimiter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveLimiter.class);
+    private static final double DECREASE_FACTOR = 0.75;
+    // Weight of each new sample in the smoothed latency
+    private static final double SMOOTHING = 0.1;
+
+    private final RabbitMQExtensionConfiguration config;
+    private final RateLimiter rateLimiter;
+    private final boolean adaptive;
+    private final long targetLatencyNanos;
+    private final int minLimit;
+    private final int maxLimit;
+    private final List<IntConsumer> prefetchListeners = new CopyOnWriteArrayList<>();
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private final Object prefetchLock = new Object();
+    private int limit;
+    private int inFlight;
+    private double increaseCredit;
+    private double smoothedLatencyNanos;
+    private double smoothedOperationNanos;
+    private long lastDecrease;
+    private volatile int prefetch;
+
+    @Inject
+    public AdaptiveLimiter(RabbitMQExtensionConfiguration config) {
+        this.config = config;
+        this.rateLimiter = config.isRateLimited() ? RateLimiter.create(config.getRateLimitActionsPerSecond()) : null;
+        this.adaptive = config.isAdaptiveConcurrency();
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(config.getAdaptiveTargetLatencyMillis());
+        this.minLimit = config.getAdaptiveMinConcurrency();
+        // 0 stands for one operation per worker thread
+        this.maxLimit = config.getAdaptiveMaxConcurrency() > 0 ? config.getAdaptiveMaxConcurrency() : config.getWorkerThreads();
+        this.limit = maxLimit;
+        this.prefetch = config.getPrefetchCount();
+        this.lastDecrease = System.nanoTime();
+        LOGGER.info("Adaptive limiter initialized (rate={}/s, adaptive={}, target={}ms, concurrency={}..{})",
+                rateLimiter == null ? "unlimited" : config.getRateLimitActionsPerSecond(), adaptive,
+                config.getAdaptiveTargetLatencyMillis(), minLimit, maxLimit);
+    }
+
+    public boolean isEnabled() {
+        return rateLimiter != null || adaptive;
+    }
+
+    /**
+     * Runs a blocking mailbox operation on {@code actions} actions once the limits allow it.
+     */
+    public <T> T call(int actions, Supplier<T> operation) {
+        if (!isEnabled()) {
+            return operation.get();
+        }
+        Permit permit = acquire(actions);
+        try {
+            return operation.get();
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Same as {@link #call(int, Supplier)}, for an operation throwing a checked exception.
+     */
+    public <E extends Exception> void run(int actions, Operation<E> operation) throws E {
+        if (!isEnabled()) {
+            operation.run();
+            return;
+        }
+        Permit permit = acquire(actions);
+        try {
+            operation.run();
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Reactive counterpart of {@link #call(int, Supplier)}. Waiting for the limits holds no thread, so that the
+     * operations holding a slot never wait for a thread parked on the limits: the operation is subscribed by the
+     * thread that frees a slot for it, or on {@code scheduler} once it waited for tokens.
+     */
+    public <T> Mono<T> limit(int actions, Mono<T> operation, Scheduler scheduler) {
+        if (!isEnabled()) {
+            return operation;
+        }
+        return Mono.usingWhen(acquireReactive(actions, scheduler).doOnDiscard(Permit.class, Permit::abandon),
+                permit -> operation,
+                permit -> Mono.fromRunnable(permit::release));
+    }
+
+    public void onPrefetchChange(IntConsumer listener) {
+        prefetchListeners.add(listener);
+    }
+
+    public synchronized int getConcurrencyLimit() {
+        return adaptive ? limit : 0;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized double getSmoothedLatencyMillis() {
+        return smoothedLatencyNanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    public double getRate() {
+        return rateLimiter == null ? 0 : rateLimiter.getRate();
+    }
+
+    private Permit acquire(int actions) {
+        if (rateLimiter != null) {
+            for (int tokens : tokenPieces(actions)) {
+                rateLimiter.acquire(tokens);
+            }
+        }
+        if (!adaptive) {
+            return new Permit(actions, false, false);
+        }
+        CompletableFuture<Permit> granted = new CompletableFuture<>();
+        Waiter waiter = new Waiter(actions, granted::complete);
+        Permit permit = tryAcquire(waiter);
+        if (permit != null) {
+            return permit;
+        }
+        try {
+            return granted.get();
+        } catch (InterruptedException e) {
+            if (!cancel(waiter)) {
+                granted.join().abandon();
+            }
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the concurrency limit", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private Mono<Permit> acquireReactive(int actions, Scheduler scheduler) {
+        Mono<Void> tokens = rateLimiter == null
+                ? Mono.<Void>empty()
+                : Flux.fromIterable(tokenPieces(actions)).concatMap(piece -> takeTokens(piece, scheduler)).then();
+        if (!adaptive) {
+            return tokens.then(Mono.fromSupplier(() -> new Permit(actions, false, false)));
+        }
+        return tokens.then(Mono.<Permit>create(sink -> {
+            Waiter waiter = new Waiter(actions, sink::success);
+            Permit permit = tryAcquire(waiter);
+            if (permit != null) {
+                sink.success(permit);
+            } else {
+                // A permit granted after the cancellation is discarded, and abandoned
+                sink.onCancel(() -> cancel(waiter));
+            }
+        }));
+    }
+
+    // Large operations take a tenth of a second worth of tokens at a time
+    private List<Integer> tokenPieces(int actions) {
+        int maxTokens = Math.max(1, (int) (rateLimiter.getRate() / 10));
+        List<Integer> pieces = new ArrayList<>();
+        for (int remaining = Math.max(1, actions); remaining > 0; remaining -= maxTokens) {
+            pieces.add(Math.min(remaining, maxTokens));
+        }
+        return pieces;
+    }
+
+    // Polls instead of sleeping in RateLimiter.acquire, which would hold a scheduler thread
+    private Mono<Void> takeTokens(int tokens, Scheduler scheduler) {
+        return Mono.defer(() -> rateLimiter.tryAcquire(tokens)
+                ? Mono.<Void>empty()
+                : Mono.delay(Duration.ofNanos((long) (TimeUnit.SECONDS.toNanos(1) * tokens / rateLimiter.getRate())), scheduler)
+                        .then(takeTokens(tokens, scheduler)));
+    }
+
+    // A permit when a slot is free and nobody is waiting for one, otherwise the waiter is queued and null returned
+    private synchronized Permit tryAcquire(Waiter waiter) {
+        if (waiters.isEmpty() && inFlight < limit) {
+            return newPermit(waiter.actions);
+        }
+        waiters.addLast(waiter);
+        return null;
+    }
+
+    // False when the waiter was already granted its permit
+    private synchronized boolean cancel(Waiter waiter) {
+        return waiters.remove(waiter);
+    }
+
+    // Called with the lock held
+    private Permit newPermit(int actions) {
+        inFlight++;
+        return new Permit(actions, true, inFlight >= limit);
+    }
+
+    // Called with the lock held, the grants are run once it is released
+    private List<Runnable> grantWaiting() {
+        List<Runnable> grants = new ArrayList<>();
+        while (!waiters.isEmpty() && inFlight < limit) {
+            Waiter waiter = waiters.pollFirst();
+            Permit permit = newPermit(waiter.actions);
+            grants.add(() -> waiter.grant.accept(permit));
+        }
+        return grants;
+    }
+
+    // A slot given back without running the operation, e.g. when its waiter was cancelled once granted
+    private void abandoned() {
+        List<Runnable> grants;
+        synchronized (this) {
+            inFlight--;
+            grants = grantWaiting();
+        }
+        grants.forEach(Runnable::run);
+    }
+
+    private void completed(int actions, long latencyNanos, boolean saturated) {
+        List<Runnable> grants;
+        boolean limitChanged;
+        synchronized (this) {
+            inFlight--;
+            smoothedOperationNanos = smooth(smoothedOperationNanos, latencyNanos);
+            smoothedLatencyNanos = smooth(smoothedLatencyNanos, (double) latencyNanos / Math.max(1, actions));
+            long now = System.nanoTime();
+            int previous = limit;
+            if (smoothedLatencyNanos > targetLatencyNanos) {
+                // Back off once per round trip, the operations already in flight report the same slowdown
+                if (now - lastDecrease >= smoothedOperationNanos) {
+                    limit = Math.max(minLimit, (int) (limit * DECREASE_FACTOR));
+                    lastDecrease = now;
+                    increaseCredit = 0;
+                }
+            } else if (saturated && limit < maxLimit) {
+                increaseCredit += 1.0 / limit;
+                if (increaseCredit >= 1) {
+                    limit++;
+                    increaseCredit = 0;
+                }
+            }
+            limitChanged = limit != previous;
+            if (limitChanged) {
+                LOGGER.info("Concurrency limit {} -> {} (smoothed latency {}ms, target {}ms)", previous, limit,
+                        Math.round(getSmoothedLatencyMillis()), config.getAdaptiveTargetLatencyMillis());
+            }
+            grants = grantWaiting();
+        }
+        grants.forEach(Runnable::run);
+        if (limitChanged) {
+            updatePrefetch();
+        }
+    }
+
+    // Serialized, and computed from the limit once the lock is held, so the channels end with the latest prefetch
+    private void updatePrefetch() {
+        synchronized (prefetchLock) {
+            int newPrefetch = Math.max(1, (int) Math.ceil((double) config.getPrefetchCount() * getConcurrencyLimit() / maxLimit));
+            if (newPrefetch == prefetch) {
+                return;
+            }
+            prefetch = newPrefetch;
+            prefetchListeners.forEach(listener -> listener.accept(newPrefetch));
+        }
+    }
+
+    private static double smooth(double smoothed, double sample) {
+        return smoothed == 0 ? sample : smoothed + SMOOTHING * (sample - smoothed);
+    }
+
+    @FunctionalInterface
+    public interface Operation<E extends Exception> {
+        void run() throws E;
+    }
+
+    private static final class Waiter {
+        private final int actions;
+        private final Consumer<Permit> grant;
+
+        private Waiter(int actions, Consumer<Permit> grant) {
+            this.actions = actions;
+            this.grant = grant;
+        }
+    }
+
+    private final class Permit {
+        private final int actions;
+        private final boolean counted;
+        private final boolean saturated;
+        private final long start = System.nanoTime();
+
+        private Permit(int actions, boolean counted, boolean saturated) {
+            this.actions = actions;
+            this.counted = counted;
+            this.saturated = saturated;
+        }
+
+        private void release() {
+            if (counted) {
+                completed(actions, System.nanoTime() - start, saturated);
+            }
+        }
+
+        private void abandon() {
+            if (counted) {
+                abandoned();
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.rabbitmq.service;
+
+import com.example.rabbitmq.model.EmailActionResponse;
+import org.apache.james.mailbox.exception.MailboxException;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Outcome of the actions of a batch, in the order of its requests: each action either has a response, published as
+ * its result, or the error of the mailbox operation that failed for it. Failed actions are not answered, their
+ * deliveries go through the {@link RetryHandler}, which retries them with backoff or dead-letters them.
+ */
+public final class BatchResult {
+    private final EmailActionResponse[] responses;
+    private final Exception[] errors;
+
+    BatchResult(int size) {
+        this.responses = new EmailActionResponse[size];
+        this.errors = new Exception[size];
+    }
+
+    public int size() {
+        return responses.length;
+    }
+
+    // Null when the action failed
+    public EmailActionResponse getResponse(int index) {
+        return responses[index];
+    }
+
+    // Null when the action was answered
+    public Exception getError(int index) {
+        return errors[index];
+    }
+
+    void respond(int index, EmailActionResponse response) {
+        responses[index] = response;
+        errors[index] = null;
+    }
+
+    void fail(int index, Exception error) {
+        responses[index] = null;
+        errors[index] = error;
+    }
+
+    boolean isDone(int index) {
+        return responses[index] != null || errors[index] != null;
+    }
+
+    public EmailActionResponse responseOrThrow(int index) throws MailboxException {
+        if (errors[index] != null) {
+            throw asMailboxException(errors[index]);
+        }
+        return responses[index];
+    }
+
+    // The first error fails the whole batch, for actions that share a delivery
+    public List<EmailActionResponse> responsesOrThrow() throws MailboxException {
+        for (Exception error : errors) {
+            if (error != null) {
+                throw asMailboxException(error);
+            }
+        }
+        return Arrays.asList(responses);
+    }
+
+    // Runtime exceptions are rethrown as they are
+    static MailboxException asMailboxException(Exception error) {
+        if (error instanceof MailboxException) {
+            return (MailboxException) error;
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        return new MailboxException(error.getMessage(), error);
+    }
+}
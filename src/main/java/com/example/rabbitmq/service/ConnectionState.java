@@ -0,0 +1,14 @@
+package com.example.rabbitmq.service;
+
+public enum ConnectionState {
+    // Not connected yet, or the initial connection attempts are still failing
+    DISCONNECTED,
+
+    CONNECTED,
+
+    // The connection was lost and is being recovered automatically
+    RECOVERING,
+
+    // Closed on purpose, no recovery will be attempted
+    CLOSED
+}
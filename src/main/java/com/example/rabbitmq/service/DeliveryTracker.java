@@ -0,0 +1,131 @@
+package com.example.rabbitmq.service;
+
+import com.rabbitmq.client.Channel;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Tracks the unacknowledged deliveries of one consumer channel, and the queue it consumes.
+ *
+ * Deliveries may complete out of order when several workers share a channel. Completed deliveries at the head of the
+ * outstanding delivery tags are acknowledged with a single multiple-ack ({@code basicAck(tag, true)}) whenever more
+ * than one can be released at once. Deliveries completed behind a slower one, e.g. a batch, a retry or a bulk action,
+ * are acknowledged one by one, so that they do not hold their prefetch slot until it completes.
+ *
+ * {@code onDrained} is run, outside of the tracker's lock, whenever an ack, nack or invalidation leaves no
+ * outstanding delivery.
+ */
+public class DeliveryTracker {
+    private final Channel channel;
+    private final String queue;
+    private final Runnable onDrained;
+    private final NavigableSet<Long> outstanding = new TreeSet<>();
+    private final NavigableSet<Long> completed = new TreeSet<>();
+    private boolean invalidated;
+
+    public DeliveryTracker(Channel channel, String queue) {
+        this(channel, queue, () -> {
+        });
+    }
+
+    public DeliveryTracker(Channel channel, String queue, Runnable onDrained) {
+        this.channel = channel;
+        this.queue = queue;
+        this.onDrained = onDrained;
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    public String getQueue() {
+        return queue;
+    }
+
+    // Must be called from the delivery callback, before the delivery is handed off
+    public synchronized void track(long deliveryTag) {
+        if (!invalidated) {
+            outstanding.add(deliveryTag);
+        }
+    }
+
+    public synchronized void markCompleted(long deliveryTag) {
+        if (!invalidated && outstanding.contains(deliveryTag)) {
+            completed.add(deliveryTag);
+        }
+    }
+
+    public void flush() throws IOException {
+        try {
+            ackCompleted();
+        } finally {
+            signalIfDrained();
+        }
+    }
+
+    private synchronized void ackCompleted() throws IOException {
+        long upTo = -1;
+        int count = 0;
+        while (!outstanding.isEmpty() && completed.remove(outstanding.first())) {
+            upTo = outstanding.pollFirst();
+            count++;
+        }
+        if (count > 0) {
+            channel.basicAck(upTo, count > 1);
+        }
+        Iterator<Long> behind = completed.iterator();
+        while (behind.hasNext()) {
+            long deliveryTag = behind.next();
+            behind.remove();
+            outstanding.remove(deliveryTag);
+            channel.basicAck(deliveryTag, false);
+        }
+    }
+
+    public void ack(long deliveryTag) throws IOException {
+        markCompleted(deliveryTag);
+        flush();
+    }
+
+    public void nack(long deliveryTag, boolean requeue) throws IOException {
+        try {
+            synchronized (this) {
+                if (invalidated || !outstanding.remove(deliveryTag)) {
+                    return;
+                }
+                completed.remove(deliveryTag);
+                channel.basicNack(deliveryTag, false, requeue);
+                ackCompleted();
+            }
+        } finally {
+            signalIfDrained();
+        }
+    }
+
+    /**
+     * Once a channel is recovered, the tags of the deliveries received before no longer identify unacked
+     * deliveries, since the broker requeued them. Their completions are then ignored rather than acked, and
+     * their tags are kept out of the multiple acks of the deliveries received after the recovery.
+     */
+    public void invalidate() {
+        synchronized (this) {
+            invalidated = true;
+            outstanding.clear();
+            completed.clear();
+        }
+        onDrained.run();
+    }
+
+    private void signalIfDrained() {
+        if (outstandingCount() == 0) {
+            onDrained.run();
+        }
+    }
+
+    public synchronized int outstandingCount() {
+        return outstanding.size();
+    }
+}
@@ -1,163 +1,946 @@
 package com.example.rabbitmq.service;
 
 
+import com.example.rabbitmq.cache.MailboxMetadata;
+import com.example.rabbitmq.cache.MailboxMetadataCache;
+import com.example.rabbitmq.cache.ProcessedActionStore;
+import com.example.rabbitmq.cache.TrashMailboxResolver;
+import com.example.rabbitmq.config.RabbitMQExtensionConfiguration;
+import com.example.rabbitmq.metrics.ExtensionMetrics;
+import com.example.rabbitmq.metrics.PipelineStage;
 import com.example.rabbitmq.model.EmailAction;
 import com.example.rabbitmq.model.EmailActionRequest;
 import com.example.rabbitmq.model.EmailActionResponse;
+import com.example.rabbitmq.model.FlagUpdate;
+import com.example.rabbitmq.model.MessageSelector;
+import com.example.rabbitmq.model.SearchCriteria;
 import com.google.inject.Inject;
-import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import org.apache.james.core.Username;
 import org.apache.james.mailbox.MailboxManager;
 import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.MessageManager;
 import org.apache.james.mailbox.MessageUid;
 import org.apache.james.mailbox.exception.MailboxException;
-import org.apache.james.mailbox.jpa.JPAId;
+import org.apache.james.mailbox.exception.MailboxNotFoundException;
 import org.apache.james.mailbox.model.Mailbox;
 import org.apache.james.mailbox.model.MailboxId;
 import org.apache.james.mailbox.model.MailboxPath;
 import org.apache.james.mailbox.model.MessageRange;
-import org.apache.james.mailbox.store.mail.MailboxMapper;
-import org.apache.james.mailbox.store.mail.MailboxMapperFactory;
+import org.apache.james.mailbox.model.SearchQuery;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import javax.mail.Flags;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Singleton
 public class EmailManagementService {
     private static final Logger LOGGER = LoggerFactory.getLogger(EmailManagementService.class);
+    // Identity used for mailbox lookups, before the owner of the mailbox is known
+    private static final Username EXTENSION_USER = Username.of("james-rabbitmq-extension");
+    private static final String MOVE_SUCCESS = "Message successfully moved to destination mailbox";
+    private static final String TRASH_SUCCESS = "Message successfully moved to trash";
+    private static final String BULK_MOVE_SUCCESS = "Messages successfully moved to destination mailbox";
+    private static final String BULK_TRASH_SUCCESS = "Messages successfully moved to trash";
+    private static final String FLAGS_SUCCESS = "Message flags successfully updated";
+    private static final String DELETE_SUCCESS = "Message permanently deleted";
 
-    private final Provider<MailboxManager> mailboxManagerProvider;
-    private final Provider<MailboxMapperFactory> mailboxMapperFactoryProvider;
+    private final RabbitMQExtensionConfiguration config;
+    private final MailboxSessionPool sessionPool;
+    private final MailboxMetadataCache mailboxCache;
+    private final TrashMailboxResolver trashResolver;
+    private final ProcessedActionStore processedActions;
+    private final ExtensionMetrics metrics;
+    private final MailboxId.Factory mailboxIdFactory;
+    private final AdaptiveLimiter limiter;
 
     @Inject
-    public EmailManagementService(Provider<MailboxManager> mailboxManagerProvider,
-                                  Provider<MailboxMapperFactory> mailboxMapperFactoryProvider) {
-        this.mailboxManagerProvider = mailboxManagerProvider;
-        this.mailboxMapperFactoryProvider = mailboxMapperFactoryProvider;
-        LOGGER.info("EmailManagementService initialized with Provider<MailboxManager>");
+    public EmailManagementService(RabbitMQExtensionConfiguration config,
+                                  MailboxSessionPool sessionPool,
+                                  MailboxMetadataCache mailboxCache,
+                                  TrashMailboxResolver trashResolver,
+                                  ProcessedActionStore processedActions,
+                                  ExtensionMetrics metrics,
+                                  MailboxId.Factory mailboxIdFactory,
+                                  AdaptiveLimiter limiter) {
+        this.config = config;
+        this.sessionPool = sessionPool;
+        this.mailboxCache = mailboxCache;
+        this.trashResolver = trashResolver;
+        this.processedActions = processedActions;
+        this.metrics = metrics;
+        this.mailboxIdFactory = mailboxIdFactory;
+        this.limiter = limiter;
+        LOGGER.info("EmailManagementService initialized with MailboxSessionPool");
+    }
+
+    /**
+     * Applies an action, unless it was already applied: the recorded response is then returned without touching
+     * the mailboxes. Its mailbox operation waits for the {@link AdaptiveLimiter}. Bulk actions are applied without
+     * reporting progress, see {@link #processBulkAction}.
+     *
+     * Invalid actions are answered with a {@code FAILED} response. A failing mailbox operation is thrown instead, so
+     * that the delivery goes through the {@link RetryHandler}; a {@link MailboxNotFoundException} is dead-lettered.
+     */
+    public EmailActionResponse processEmailAction(EmailActionRequest request) throws MailboxException {
+        if (request.getAction().isBulk()) {
+            // Limited chunk by chunk rather than as a whole
+            return processBulkAction(request, progress -> { });
+        }
+        Optional<EmailActionResponse> processed = processedActions.get(request.getHashID());
+        if (processed.isPresent()) {
+            return processed.get();
+        }
+        EmailActionResponse response = runAction(request);
+        completed(request, response);
+        return response;
+    }
+
+    private EmailActionResponse runAction(EmailActionRequest request) throws MailboxException {
+        LOGGER.info("Processing email action: {}", request);
+
+        switch (request.getAction()) {
+            case MOVE:
+                return handleMoveAction(request);
+            case TRASH:
+                return handleTrashAction(request);
+            case SET_FLAGS:
+            case ADD_KEYWORDS:
+                return flagsBatch(List.of(request)).responseOrThrow(0);
+            case DELETE:
+                return deleteBatch(List.of(request)).responseOrThrow(0);
+            default:
+                return EmailActionResponse.failure(request.getHashID(),
+                        "Unsupported action: " + request.getAction().getValue());
+        }
+    }
+
+    /**
+     * Applies a bulk action, unless it was already applied, chunk after chunk as by {@link #startBulkAction}.
+     * {@code progress} is given an {@link EmailActionResponse#IN_PROGRESS} response after every chunk but the last.
+     */
+    public EmailActionResponse processBulkAction(EmailActionRequest request, Consumer<EmailActionResponse> progress)
+            throws MailboxException {
+        try (BulkAction action = startBulkAction(request)) {
+            while (!action.isDone()) {
+                EmailActionResponse response = action.moveNextChunk();
+                if (!action.isDone()) {
+                    progress.accept(response);
+                }
+            }
+            return action.getResponse();
+        }
     }
 
-    public EmailActionResponse processEmailAction(EmailActionRequest request) {
+    /**
+     * Starts a bulk action, unless it was already applied: the action is then done with its recorded response.
+     * The UIDs its selector matches in the source mailbox are resolved with one search, then moved
+     * {@code bulkChunkSize} at a time by {@link BulkAction#moveNextChunk()}: each chunk waits for the
+     * {@link AdaptiveLimiter} and is moved with one {@code moveMessages} call per contiguous UID run. A failing chunk
+     * ends the action and is thrown: its retry selects the messages that were not moved yet.
+     */
+    public BulkAction startBulkAction(EmailActionRequest request) throws MailboxException {
+        Optional<EmailActionResponse> processed = processedActions.get(request.getHashID());
+        if (processed.isPresent()) {
+            return new BulkAction(request, processed.get());
+        }
+        boolean trash = request.getAction() == EmailAction.BULK_TRASH;
+        if (!trash && !request.hasDestinationMailbox()) {
+            return finished(request, EmailActionResponse.failure(request.getHashID(),
+                    "Destination mailbox ID is required for move action"));
+        }
+        LOGGER.info("Processing bulk action: {}", request);
+        MailboxId sourceMailBoxId = parseMailboxID(request.getSourceMailboxID());
+
+        MailboxSessionPool.Lease lease = null;
         try {
-            LOGGER.info("Processing email action: {}", request);
+            MailboxMetadata sourceMailBox = lookupExistingMailbox(sourceMailBoxId);
+            Username username = sourceMailBox.getOwner();
+            lease = sessionPool.borrow(username);
+            MailboxSession session = lease.session();
+            MailboxManager mailboxManager = lease.mailboxManager();
+            MailboxId destinationMailBoxId = trash
+                    ? trashResolver.resolve(username, mailboxManager, session)
+                    : lookupExistingMailbox(parseMailboxID(request.getDestinationMailboxID())).getMailboxId();
+            if (destinationMailBoxId.equals(sourceMailBoxId)) {
+                return finished(request, EmailActionResponse.success(request.getHashID(),
+                        trash ? "Messages are already in trash" : "Messages are already in destination mailbox")
+                        .withCounts(0, 0));
+            }
+
+            long searchStart = System.nanoTime();
+            MessageManager sourceMessages = mailboxManager.getMailbox(sourceMailBoxId, session);
+            List<Long> uids = Flux.from(sourceMessages.search(searchQuery(request.getSelector()), session))
+                    .map(MessageUid::asLong)
+                    .sort()
+                    .collectList()
+                    .block();
+            metrics.recordSince(PipelineStage.SEARCH, searchStart);
+            LOGGER.info("Bulk action {} selected {} messages of mailbox {}", request.getHashID(), uids.size(),
+                    sourceMailBoxId);
+
+            BulkAction action = new BulkAction(request, username, sourceMailBoxId, destinationMailBoxId, uids, lease);
+            lease = null;
+            if (uids.isEmpty()) {
+                action.finish();
+            }
+            return action;
+        } catch (MailboxNotFoundException e) {
+            LOGGER.error("Error in bulk action {}", request, e);
+            mailboxCache.invalidate(sourceMailBoxId);
+            throw e;
+        } catch (MailboxException | RuntimeException e) {
+            LOGGER.error("Error in bulk action {}", request, e);
+            throw e;
+        } finally {
+            if (lease != null) {
+                lease.close();
+            }
+        }
+    }
+
+    private BulkAction finished(EmailActionRequest request, EmailActionResponse response) {
+        completed(request, response);
+        return new BulkAction(request, response);
+    }
+
+    /**
+     * A started bulk action, moved one chunk per {@link #moveNextChunk()} call until it is done. It holds a pooled
+     * session until closed.
+     */
+    public final class BulkAction implements AutoCloseable {
+        private final EmailActionRequest request;
+        private final boolean trash;
+        private final Username username;
+        private final MailboxId sourceMailBoxId;
+        private final MailboxId destinationMailBoxId;
+        private final List<Long> uids;
+        private MailboxSessionPool.Lease lease;
+        private int moved;
+        private EmailActionResponse response;
+
+        private BulkAction(EmailActionRequest request, EmailActionResponse response) {
+            this(request, null, null, null, List.of(), null);
+            this.response = response;
+        }
+
+        private BulkAction(EmailActionRequest request, Username username, MailboxId sourceMailBoxId,
+                           MailboxId destinationMailBoxId, List<Long> uids, MailboxSessionPool.Lease lease) {
+            this.request = request;
+            this.trash = request.getAction() == EmailAction.BULK_TRASH;
+            this.username = username;
+            this.sourceMailBoxId = sourceMailBoxId;
+            this.destinationMailBoxId = destinationMailBoxId;
+            this.uids = uids;
+            this.lease = lease;
+        }
+
+        public EmailActionRequest getRequest() {
+            return request;
+        }
+
+        public boolean isDone() {
+            return response != null;
+        }
+
+        // The final response, once done
+        public EmailActionResponse getResponse() {
+            return response;
+        }
+
+        /**
+         * Moves the next chunk, and returns an {@link EmailActionResponse#IN_PROGRESS} response, or the final one
+         * after the last chunk.
+         */
+        public EmailActionResponse moveNextChunk() throws MailboxException {
+            if (isDone()) {
+                throw new IllegalStateException("Bulk action " + request.getHashID() + " is done");
+            }
+            List<Long> chunk = uids.subList(moved, Math.min(moved + config.getBulkChunkSize(), uids.size()));
+            MailboxSessionPool.Lease chunkLease = lease;
+            try {
+                limiter.run(chunk.size(), () -> moveChunk(chunk, sourceMailBoxId, destinationMailBoxId, chunkLease));
+            } catch (MailboxNotFoundException e) {
+                LOGGER.error("Error in bulk action {} after moving {} of {} messages", request, moved, uids.size(), e);
+                if (trash) {
+                    // The cached Trash may have been deleted behind our back
+                    trashResolver.invalidate(username);
+                }
+                mailboxCache.invalidate(sourceMailBoxId);
+                mailboxCache.invalidate(destinationMailBoxId);
+                throw e;
+            } catch (MailboxException | RuntimeException e) {
+                LOGGER.error("Error in bulk action {} after moving {} of {} messages", request, moved, uids.size(), e);
+                throw e;
+            }
+            moved += chunk.size();
+            if (moved < uids.size()) {
+                return EmailActionResponse.progress(request.getHashID(), moved, uids.size());
+            }
+            finish();
+            return response;
+        }
+
+        private void finish() {
+            LOGGER.info("Bulk action {} moved {} messages from mailbox {} to mailbox {}", request.getHashID(), moved,
+                    sourceMailBoxId, destinationMailBoxId);
+            response = EmailActionResponse.success(request.getHashID(), trash ? BULK_TRASH_SUCCESS : BULK_MOVE_SUCCESS)
+                    .withCounts(moved, uids.size());
+            completed(request, response);
+        }
+
+        @Override
+        public void close() {
+            if (lease != null) {
+                lease.close();
+                lease = null;
+            }
+        }
+    }
+
+    private void moveChunk(List<Long> sortedUids, MailboxId sourceMailBoxId, MailboxId destinationMailBoxId,
+                           MailboxSessionPool.Lease lease) throws MailboxException {
+        for (List<Long> uids : contiguousRuns(sortedUids)) {
+            long start = System.nanoTime();
+            lease.mailboxManager().moveMessages(toRange(uids), sourceMailBoxId, destinationMailBoxId, lease.session());
+            metrics.recordSince(PipelineStage.MOVE, start);
+        }
+    }
+
+    // UID ranges and sets are searched too, so that UIDs which no longer exist are neither moved nor counted
+    private static SearchQuery searchQuery(MessageSelector selector) {
+        switch (selector.getKind()) {
+            case RANGE:
+                return SearchQuery.of(SearchQuery.uid(new SearchQuery.UidRange[] {
+                        new SearchQuery.UidRange(MessageUid.of(selector.getFrom()), MessageUid.of(selector.getTo()))}));
+            case SET:
+                List<Long> uids = Arrays.stream(selector.getUids()).boxed().collect(Collectors.toList());
+                SearchQuery.UidRange[] ranges = contiguousRuns(uids).stream()
+                        .map(run -> new SearchQuery.UidRange(MessageUid.of(run.get(0)), MessageUid.of(run.get(run.size() - 1))))
+                        .toArray(SearchQuery.UidRange[]::new);
+                return SearchQuery.of(SearchQuery.uid(ranges));
+            default:
+                return SearchQuery.of(criteria(selector.getCriteria()).toArray(new SearchQuery.Criterion[0]));
+        }
+    }
+
+    // Sizes are inclusive bounds, dates exclusive ones
+    private static List<SearchQuery.Criterion> criteria(SearchCriteria criteria) {
+        List<SearchQuery.Criterion> conditions = new ArrayList<>();
+        if (criteria.getReceivedBefore() != SearchCriteria.UNSET) {
+            conditions.add(SearchQuery.internalDateBefore(new Date(criteria.getReceivedBefore()), SearchQuery.DateResolution.Second));
+        }
+        if (criteria.getReceivedAfter() != SearchCriteria.UNSET) {
+            conditions.add(SearchQuery.internalDateAfter(new Date(criteria.getReceivedAfter()), SearchQuery.DateResolution.Second));
+        }
+        if (criteria.getOlderThanDays() != SearchCriteria.UNSET) {
+            long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(criteria.getOlderThanDays());
+            conditions.add(SearchQuery.internalDateBefore(new Date(cutoff), SearchQuery.DateResolution.Second));
+        }
+        if (criteria.getSeen() != null) {
+            conditions.add(criteria.getSeen() ? SearchQuery.flagIsSet(Flags.Flag.SEEN) : SearchQuery.flagIsUnSet(Flags.Flag.SEEN));
+        }
+        if (criteria.getFlagged() != null) {
+            conditions.add(criteria.getFlagged() ? SearchQuery.flagIsSet(Flags.Flag.FLAGGED) : SearchQuery.flagIsUnSet(Flags.Flag.FLAGGED));
+        }
+        if (criteria.getMinSize() > 0) {
+            conditions.add(SearchQuery.sizeGreaterThan(criteria.getMinSize() - 1));
+        }
+        if (criteria.getMaxSize() != SearchCriteria.UNSET) {
+            conditions.add(SearchQuery.sizeLessThan(criteria.getMaxSize() + 1));
+        }
+        if (conditions.isEmpty()) {
+            conditions.add(SearchQuery.all());
+        }
+        return conditions;
+    }
 
-            EmailAction action = EmailAction.fromString(request.getAction());
+    /**
+     * Non-blocking counterpart of {@link #processEmailAction(EmailActionRequest)}: lookups, Trash resolution
+     * and moves are composed as {@link Mono}s and never {@code block()}. The blocking parts, bulk and flag actions
+     * and first-time Trash resolutions, run on {@code blockingScheduler}. Failing mailbox operations are signalled
+     * as errors.
+     */
+    public Mono<EmailActionResponse> processEmailActionReactive(EmailActionRequest request, Scheduler blockingScheduler) {
+        if (request.getAction().isBulk()) {
+            return Mono.fromCallable(() -> processBulkAction(request, progress -> { }))
+                    .subscribeOn(blockingScheduler);
+        }
+        return Mono.defer(() -> processedActions.get(request.getHashID())
+                .map(Mono::just)
+                .orElseGet(() -> runActionReactive(request, blockingScheduler)
+                        .doOnNext(response -> completed(request, response))));
+    }
+
+    private Mono<EmailActionResponse> runActionReactive(EmailActionRequest request, Scheduler blockingScheduler) {
+        return Mono.defer(() -> {
+            LOGGER.info("Processing email action: {}", request);
 
-            switch (action) {
+            switch (request.getAction()) {
                 case MOVE:
-                    return handleMoveAction(request);
+                    return handleMoveActionReactive(request, blockingScheduler);
                 case TRASH:
-                    return handleTrashAction(request);
+                    return handleTrashActionReactive(request, blockingScheduler);
+                case SET_FLAGS:
+                case ADD_KEYWORDS:
+                case DELETE:
+                    // Blocking, like batches, and limited the same way
+                    return Mono.fromCallable(() -> runAction(request))
+                            .subscribeOn(blockingScheduler);
                 default:
-                    return EmailActionResponse.failure(request.getHashID(),
-                            "Unsupported action: " + request.getAction());
+                    return Mono.just(EmailActionResponse.failure(request.getHashID(),
+                            "Unsupported action: " + request.getAction().getValue()));
             }
-        } catch (Exception e) {
-            LOGGER.error("Error processing email action: {}", request, e);
-            return EmailActionResponse.failure(request.getHashID(),
-                    "Error processing action: " + e.getMessage());
-        }
+        });
     }
 
-    private EmailActionResponse handleMoveAction(EmailActionRequest request) {
-        if (request.getDestinationMailboxID() == null) {
+    private EmailActionResponse handleMoveAction(EmailActionRequest request) throws MailboxException {
+        if (!request.hasDestinationMailbox()) {
             return EmailActionResponse.failure(request.getHashID(),
                     "Destination mailbox ID is required for move action");
         }
-        MailboxSession session = null;
-        MailboxManager mailboxManager = mailboxManagerProvider.get();
-        try {
-            LOGGER.info("Start processing request session");
-            MailboxMapper mailboxMapper = getMailboxMapper(mailboxManager);
-            Mailbox sourceMailBox = mailboxMapper.findMailboxById(parseMailboxID(request.getSourceMailboxID())).block();
-            if (sourceMailBox == null) {
-                throw new MailboxException("Source mailbox not found");
-            }
-            Username username = sourceMailBox.getUser();
-            mailboxManager.startProcessingRequest(session);
+        return moveBatch(List.of(request)).responseOrThrow(0);
+    }
+
+    /**
+     * Moves a batch of messages sharing the same source and destination mailbox.
+     *
+     * Mailbox lookups and the session are done once for the whole batch, and contiguous UIDs are moved
+     * with a single {@code moveMessages} call. The result is in the order of {@code requests}.
+     */
+    public BatchResult processMoveBatch(List<EmailActionRequest> requests) {
+        return deduplicated(requests, this::moveBatch);
+    }
+
+    private BatchResult moveBatch(List<EmailActionRequest> requests) {
+        BatchResult result = new BatchResult(requests.size());
+        EmailActionRequest first = requests.get(0);
 
-            session = mailboxManager.createSystemSession(username);
+        // Keep track of which requests target which UID
+        TreeMap<Long, List<Integer>> requestsByUid = groupByUid(requests);
+
+        MailboxSessionPool.Lease lease = null;
+        try {
+            MailboxMetadata sourceMailBox = lookupExistingMailbox(parseMailboxID(first.getSourceMailboxID()));
+            Username username = sourceMailBox.getOwner();
+            lease = sessionPool.borrow(username);
+            MailboxSession session = lease.session();
+            MailboxManager mailboxManager = lease.mailboxManager();
             MailboxId sourceMailBoxId = sourceMailBox.getMailboxId();
 
-            Mailbox desitnationMailBox = mailboxMapper.findMailboxById(parseMailboxID(request.getDestinationMailboxID())).block();
-            if (desitnationMailBox == null) {
-                throw new MailboxException("Destination mailbox not found");
-            }
+            MailboxMetadata desitnationMailBox = lookupExistingMailbox(parseMailboxID(first.getDestinationMailboxID()));
             MailboxId destinationMailBoxId = desitnationMailBox.getMailboxId();
 
-            MessageUid messageUid = MessageUid.of(Long.parseLong(request.getSourceMessageID()));
-            LOGGER.info("Start move mail {} from source {} to dest {}", messageUid, request.getSourceMailboxID(),
-                    request.getDestinationMailboxID());
-            mailboxManager.moveMessages(
-                    MessageRange.one(messageUid),
-                    sourceMailBoxId,
-                    destinationMailBoxId,
-                    session);
-            // Parse message UID
-            LOGGER.info("Successfully moved message {} from mailbox {} to mailbox {}",
-                    request.getSourceMessageID(), request.getSourceMailboxID(), request.getDestinationMailboxID());
-            return EmailActionResponse.success(request.getHashID(),
-                    "Message successfully moved to destination mailbox");
-
-        } catch (Exception e) {
+            for (List<Long> uids : contiguousRuns(requestsByUid.navigableKeySet())) {
+                MessageRange range = toRange(uids);
+                try {
+                    LOGGER.info("Start move mail {} from source {} to dest {}", range, first.getSourceMailboxID(),
+                            first.getDestinationMailboxID());
+                    limiter.run(uids.size(), () -> {
+                        long start = System.nanoTime();
+                        mailboxManager.moveMessages(range, sourceMailBoxId, destinationMailBoxId, session);
+                        metrics.recordSince(PipelineStage.MOVE, start);
+                    });
+                    LOGGER.info("Successfully moved messages {} from mailbox {} to mailbox {}",
+                            range, first.getSourceMailboxID(), first.getDestinationMailboxID());
+                    respond(result, requests, requestsByUid, uids, MOVE_SUCCESS);
+                } catch (MailboxNotFoundException e) {
+                    LOGGER.error("Error moving messages {}", range, e);
+                    mailboxCache.invalidate(sourceMailBoxId);
+                    mailboxCache.invalidate(destinationMailBoxId);
+                    fail(result, requestsByUid, uids, e);
+                } catch (MailboxException | RuntimeException e) {
+                    LOGGER.error("Error moving messages {}", range, e);
+                    fail(result, requestsByUid, uids, e);
+                }
+            }
+        } catch (MailboxException | RuntimeException e) {
             LOGGER.error("Error in move action", e);
-            return EmailActionResponse.failure(request.getHashID(),
-                    "Error processing move action: " + e.getMessage());
+            failRemaining(result, e);
         } finally {
-            if (session != null) {
-                mailboxManager.endProcessingRequest(session);
+            if (lease != null) {
+                lease.close();
             }
         }
+        return result;
     }
 
-    private EmailActionResponse handleTrashAction(EmailActionRequest request) {
-        MailboxSession session = null;
-        MailboxManager mailboxManager = mailboxManagerProvider.get();
+    /**
+     * Trashes a batch of messages of the same source mailbox: the owner's Trash is resolved once and
+     * contiguous UIDs are moved with a single {@code moveMessages} call. The result is in the order of {@code requests}.
+     */
+    public BatchResult processTrashBatch(List<EmailActionRequest> requests) {
+        return deduplicated(requests, this::trashBatch);
+    }
+
+    private BatchResult trashBatch(List<EmailActionRequest> requests) {
+        BatchResult result = new BatchResult(requests.size());
+        TreeMap<Long, List<Integer>> requestsByUid = groupByUid(requests);
+        MailboxId sourceMailBoxId = parseMailboxID(requests.get(0).getSourceMailboxID());
+
+        MailboxSessionPool.Lease lease = null;
         try {
-            MailboxMapper mailboxMapper = getMailboxMapper(mailboxManager);
-            Mailbox sourceMailBox = mailboxMapper.findMailboxById(parseMailboxID(request.getSourceMailboxID())).block();
-            if (sourceMailBox == null) {
-                throw new MailboxException("Source mailbox not found");
+            MailboxMetadata sourceMailBox = lookupExistingMailbox(sourceMailBoxId);
+            Username username = sourceMailBox.getOwner();
+            lease = sessionPool.borrow(username);
+            MailboxSession session = lease.session();
+            MailboxManager mailboxManager = lease.mailboxManager();
+            MailboxId trashMailBoxId = trashResolver.resolve(username, mailboxManager, session);
+            if (trashMailBoxId.equals(sourceMailBoxId)) {
+                for (int i = 0; i < result.size(); i++) {
+                    result.respond(i, EmailActionResponse.success(requests.get(i).getHashID(), "Message is already in trash"));
+                }
+                return result;
             }
-            Username username = sourceMailBox.getUser();
-            session = mailboxManager.createSystemSession(username);
-            MailboxId sourceMailBoxId = parseMailboxID(request.getSourceMailboxID());
-            MailboxPath sourcePath = mailboxManager.getMailbox(sourceMailBoxId, session).getMailboxPath();
-            mailboxManager.startProcessingRequest(session);
-            MessageUid messageUid = MessageUid.of(Long.parseLong(request.getSourceMessageID()));
-            MailboxPath trashPath = MailboxPath.forUser(sourcePath.getUser(), "Trash");
-            boolean mailboxExists = Boolean.TRUE.equals(Mono.from(mailboxManager.mailboxExists(trashPath, session)).block());
-            if (!mailboxExists) {
-                mailboxManager.createMailbox(trashPath, session);
-            }
-            mailboxManager.moveMessages(
-                    MessageRange.one(messageUid),
-                    sourcePath,
-                    trashPath,
-                    session);
-            LOGGER.info("Successfully trashed message {} from mailbox {}",
-                    request.getSourceMessageID(), request.getSourceMailboxID());
-            return EmailActionResponse.success(request.getHashID(),
-                    "Message successfully moved to trash");
-
-        } catch (Exception e) {
+
+            for (List<Long> uids : contiguousRuns(requestsByUid.navigableKeySet())) {
+                MessageRange range = toRange(uids);
+                try {
+                    limiter.run(uids.size(), () -> {
+                        long start = System.nanoTime();
+                        mailboxManager.moveMessages(range, sourceMailBoxId, trashMailBoxId, session);
+                        metrics.recordSince(PipelineStage.MOVE, start);
+                    });
+                    LOGGER.info("Successfully trashed messages {} from mailbox {}", range, sourceMailBoxId);
+                    respond(result, requests, requestsByUid, uids, TRASH_SUCCESS);
+                } catch (MailboxNotFoundException e) {
+                    LOGGER.error("Error trashing messages {}", range, e);
+                    // The cached Trash may have been deleted behind our back
+                    trashResolver.invalidate(username);
+                    mailboxCache.invalidate(sourceMailBoxId);
+                    fail(result, requestsByUid, uids, e);
+                } catch (MailboxException | RuntimeException e) {
+                    LOGGER.error("Error trashing messages {}", range, e);
+                    fail(result, requestsByUid, uids, e);
+                }
+            }
+        } catch (MailboxNotFoundException e) {
             LOGGER.error("Error in trash action", e);
-            return EmailActionResponse.failure(request.getHashID(),
-                    "Error processing trash action: " + e.getMessage());
+            mailboxCache.invalidate(sourceMailBoxId);
+            failRemaining(result, e);
+        } catch (MailboxException | RuntimeException e) {
+            LOGGER.error("Error in trash action", e);
+            failRemaining(result, e);
         } finally {
-            if (session != null) {
-                mailboxManager.endProcessingRequest(session);
+            if (lease != null) {
+                lease.close();
             }
         }
+        return result;
+    }
+
+    /**
+     * Updates the flags of a batch of messages of the same source mailbox, all with the same {@link FlagUpdate}:
+     * flags are added, then removed, with one {@code setFlags} call each per contiguous UID run. The result is in
+     * the order of {@code requests}.
+     */
+    public BatchResult processFlagsBatch(List<EmailActionRequest> requests) {
+        return deduplicated(requests, this::flagsBatch);
+    }
+
+    private BatchResult flagsBatch(List<EmailActionRequest> requests) {
+        BatchResult result = new BatchResult(requests.size());
+        TreeMap<Long, List<Integer>> requestsByUid = groupByUid(requests);
+        MailboxId sourceMailBoxId = parseMailboxID(requests.get(0).getSourceMailboxID());
+        FlagUpdate update = requests.get(0).getFlagUpdate();
+        Flags added = toFlags(update.getAdded());
+        Flags removed = toFlags(update.getRemoved());
+
+        MailboxSessionPool.Lease lease = null;
+        try {
+            MailboxMetadata sourceMailBox = lookupExistingMailbox(sourceMailBoxId);
+            lease = sessionPool.borrow(sourceMailBox.getOwner());
+            MailboxSession session = lease.session();
+            MessageManager messageManager = lease.mailboxManager().getMailbox(sourceMailBoxId, session);
+
+            for (List<Long> uids : contiguousRuns(requestsByUid.navigableKeySet())) {
+                MessageRange range = toRange(uids);
+                try {
+                    limiter.run(uids.size(), () -> {
+                        long start = System.nanoTime();
+                        if (!update.getAdded().isEmpty()) {
+                            messageManager.setFlags(added, MessageManager.FlagsUpdateMode.ADD, range, session);
+                        }
+                        if (!update.getRemoved().isEmpty()) {
+                            messageManager.setFlags(removed, MessageManager.FlagsUpdateMode.REMOVE, range, session);
+                        }
+                        metrics.recordSince(PipelineStage.UPDATE, start);
+                    });
+                    LOGGER.info("Successfully updated flags {} of messages {} in mailbox {}", update, range, sourceMailBoxId);
+                    respond(result, requests, requestsByUid, uids, FLAGS_SUCCESS);
+                } catch (MailboxException | RuntimeException e) {
+                    LOGGER.error("Error updating flags of messages {}", range, e);
+                    fail(result, requestsByUid, uids, e);
+                }
+            }
+        } catch (MailboxNotFoundException e) {
+            LOGGER.error("Error in flags action", e);
+            mailboxCache.invalidate(sourceMailBoxId);
+            failRemaining(result, e);
+        } catch (MailboxException | RuntimeException e) {
+            LOGGER.error("Error in flags action", e);
+            failRemaining(result, e);
+        } finally {
+            if (lease != null) {
+                lease.close();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Permanently deletes a batch of messages of the same source mailbox with a single {@code delete} call.
+     * The result is in the order of {@code requests}.
+     */
+    public BatchResult processDeleteBatch(List<EmailActionRequest> requests) {
+        return deduplicated(requests, this::deleteBatch);
+    }
+
+    private BatchResult deleteBatch(List<EmailActionRequest> requests) {
+        BatchResult result = new BatchResult(requests.size());
+        TreeMap<Long, List<Integer>> requestsByUid = groupByUid(requests);
+        MailboxId sourceMailBoxId = parseMailboxID(requests.get(0).getSourceMailboxID());
+
+        MailboxSessionPool.Lease lease = null;
+        try {
+            MailboxMetadata sourceMailBox = lookupExistingMailbox(sourceMailBoxId);
+            lease = sessionPool.borrow(sourceMailBox.getOwner());
+            MailboxSession session = lease.session();
+            MessageManager messageManager = lease.mailboxManager().getMailbox(sourceMailBoxId, session);
+
+            List<MessageUid> uids = requestsByUid.keySet().stream()
+                    .map(MessageUid::of)
+                    .collect(Collectors.toList());
+            limiter.run(uids.size(), () -> {
+                long start = System.nanoTime();
+                messageManager.delete(uids, session);
+                metrics.recordSince(PipelineStage.UPDATE, start);
+            });
+            LOGGER.info("Permanently deleted {} messages from mailbox {}", uids.size(), sourceMailBoxId);
+            respond(result, requests, requestsByUid, new ArrayList<>(requestsByUid.keySet()), DELETE_SUCCESS);
+        } catch (MailboxNotFoundException e) {
+            LOGGER.error("Error in delete action", e);
+            mailboxCache.invalidate(sourceMailBoxId);
+            failRemaining(result, e);
+        } catch (MailboxException | RuntimeException e) {
+            LOGGER.error("Error in delete action", e);
+            failRemaining(result, e);
+        } finally {
+            if (lease != null) {
+                lease.close();
+            }
+        }
+        return result;
+    }
+
+    private static Flags toFlags(Set<String> names) {
+        Flags flags = new Flags();
+        for (String name : names) {
+            Flags.Flag systemFlag = FlagUpdate.SYSTEM_FLAGS.get(name);
+            if (systemFlag != null) {
+                flags.add(systemFlag);
+            } else {
+                flags.add(name);
+            }
+        }
+        return flags;
+    }
+
+    /**
+     * Runs the actions of a batch message, grouped as by {@link ActionGroups}: each group uses one session and one
+     * mailbox operation per contiguous UID run, or a single one for deletes. Responses are in the order of
+     * {@code requests}. The batch shares one delivery, so a failing action fails the whole batch: its retry answers
+     * the actions applied meanwhile with their recorded response.
+     */
+    public List<EmailActionResponse> processBatch(List<EmailActionRequest> requests) throws MailboxException {
+        return deduplicated(requests, this::runBatch).responsesOrThrow();
+    }
+
+    private BatchResult runBatch(List<EmailActionRequest> requests) {
+        BatchResult result = new BatchResult(requests.size());
+        List<Integer> valid = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            EmailActionRequest request = requests.get(i);
+            if (request.getAction() == EmailAction.MOVE && !request.hasDestinationMailbox()) {
+                result.respond(i, EmailActionResponse.failure(request.getHashID(),
+                        "Destination mailbox ID is required for move action"));
+                continue;
+            }
+            valid.add(i);
+        }
+
+        for (List<Integer> indexes : ActionGroups.consecutive(valid, requests::get)) {
+            List<EmailActionRequest> group = new ArrayList<>(indexes.size());
+            for (int index : indexes) {
+                group.add(requests.get(index));
+            }
+            BatchResult groupResult;
+            switch (group.get(0).getAction()) {
+                case MOVE:
+                    groupResult = moveBatch(group);
+                    break;
+                case TRASH:
+                    groupResult = trashBatch(group);
+                    break;
+                case SET_FLAGS:
+                case ADD_KEYWORDS:
+                    groupResult = flagsBatch(group);
+                    break;
+                case DELETE:
+                    groupResult = deleteBatch(group);
+                    break;
+                default:
+                    groupResult = new BatchResult(group.size());
+                    for (int i = 0; i < group.size(); i++) {
+                        try {
+                            groupResult.respond(i, runAction(group.get(i)));
+                        } catch (MailboxException | RuntimeException e) {
+                            groupResult.fail(i, e);
+                        }
+                    }
+            }
+            for (int i = 0; i < indexes.size(); i++) {
+                if (groupResult.getError(i) != null) {
+                    result.fail(indexes.get(i), groupResult.getError(i));
+                } else {
+                    result.respond(indexes.get(i), groupResult.getResponse(i));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Answers the already applied actions with their recorded response and hands only the others to
+     * {@code processor}, recording its responses; failed actions are not recorded. The processor waits for the
+     * limiter for each of its mailbox operations. The result is in the order of {@code requests}.
+     */
+    private BatchResult deduplicated(List<EmailActionRequest> requests,
+                                     Function<List<EmailActionRequest>, BatchResult> processor) {
+        BatchResult result = new BatchResult(requests.size());
+        List<EmailActionRequest> pending = new ArrayList<>(requests.size());
+        List<Integer> pendingIndexes = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            Optional<EmailActionResponse> processed = processedActions.get(requests.get(i).getHashID());
+            if (processed.isPresent()) {
+                result.respond(i, processed.get());
+            } else {
+                pending.add(requests.get(i));
+                pendingIndexes.add(i);
+            }
+        }
+        if (pending.isEmpty()) {
+            return result;
+        }
+        BatchResult pendingResult = processor.apply(pending);
+        for (int i = 0; i < pendingIndexes.size(); i++) {
+            EmailActionResponse response = pendingResult.getResponse(i);
+            if (response == null) {
+                result.fail(pendingIndexes.get(i), pendingResult.getError(i));
+                continue;
+            }
+            completed(pending.get(i), response);
+            result.respond(pendingIndexes.get(i), response);
+        }
+        return result;
+    }
+
+    private void completed(EmailActionRequest request, EmailActionResponse response) {
+        processedActions.record(response);
+        metrics.actionCompleted(request.getAction(), EmailActionResponse.SUCCESS.equals(response.getStatus()));
+    }
+
+    private static TreeMap<Long, List<Integer>> groupByUid(List<EmailActionRequest> requests) {
+        TreeMap<Long, List<Integer>> requestsByUid = new TreeMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            requestsByUid.computeIfAbsent(requests.get(i).getSourceMessageID(), key -> new ArrayList<>()).add(i);
+        }
+        return requestsByUid;
+    }
+
+    private static void failRemaining(BatchResult result, Exception error) {
+        for (int i = 0; i < result.size(); i++) {
+            if (!result.isDone(i)) {
+                result.fail(i, error);
+            }
+        }
+    }
+
+    private static void respond(BatchResult result, List<EmailActionRequest> requests,
+                                Map<Long, List<Integer>> requestsByUid, List<Long> uids, String message) {
+        for (Long uid : uids) {
+            for (int index : requestsByUid.get(uid)) {
+                result.respond(index, EmailActionResponse.success(requests.get(index).getHashID(), message));
+            }
+        }
+    }
+
+    private static void fail(BatchResult result, Map<Long, List<Integer>> requestsByUid, List<Long> uids,
+                             Exception error) {
+        for (Long uid : uids) {
+            for (int index : requestsByUid.get(uid)) {
+                result.fail(index, error);
+            }
+        }
+    }
+
+    private static List<List<Long>> contiguousRuns(Iterable<Long> sortedUids) {
+        List<List<Long>> runs = new ArrayList<>();
+        List<Long> current = new ArrayList<>();
+        for (Long uid : sortedUids) {
+            if (!current.isEmpty() && current.get(current.size() - 1) + 1 != uid) {
+                runs.add(current);
+                current = new ArrayList<>();
+            }
+            current.add(uid);
+        }
+        if (!current.isEmpty()) {
+            runs.add(current);
+        }
+        return runs;
+    }
+
+    private static MessageRange toRange(List<Long> contiguousUids) {
+        MessageUid from = MessageUid.of(contiguousUids.get(0));
+        if (contiguousUids.size() == 1) {
+            return MessageRange.one(from);
+        }
+        return MessageRange.range(from, MessageUid.of(contiguousUids.get(contiguousUids.size() - 1)));
+    }
+
+    private Mono<EmailActionResponse> handleMoveActionReactive(EmailActionRequest request, Scheduler blockingScheduler) {
+        if (!request.hasDestinationMailbox()) {
+            return Mono.just(EmailActionResponse.failure(request.getHashID(),
+                    "Destination mailbox ID is required for move action"));
+        }
+        return Mono.defer(() -> {
+            MessageRange range = MessageRange.one(MessageUid.of(request.getSourceMessageID()));
+            MailboxId sourceMailBoxId = parseMailboxID(request.getSourceMailboxID());
+            MailboxId destinationMailBoxId = parseMailboxID(request.getDestinationMailboxID());
+
+            return lookupMailboxReactive(sourceMailBoxId)
+                    .zipWith(lookupMailboxReactive(destinationMailBoxId))
+                    .flatMap(mailboxes -> withLease(mailboxes.getT1().getOwner(), lease ->
+                            limiter.limit(1, metrics.time(PipelineStage.MOVE, Mono.defer(() -> Mono.from(
+                                            lease.mailboxManager().moveMessagesReactive(range,
+                                                    mailboxes.getT1().getMailboxId(), mailboxes.getT2().getMailboxId(),
+                                                    lease.session())))), blockingScheduler)
+                                    .doOnError(MailboxNotFoundException.class, e -> {
+                                        mailboxCache.invalidate(sourceMailBoxId);
+                                        mailboxCache.invalidate(destinationMailBoxId);
+                                    })))
+                    .then(Mono.fromCallable(() -> {
+                        LOGGER.info("Successfully moved message {} from mailbox {} to mailbox {}",
+                                request.getSourceMessageID(), request.getSourceMailboxID(),
+                                request.getDestinationMailboxID());
+                        return EmailActionResponse.success(request.getHashID(), MOVE_SUCCESS);
+                    }));
+        });
+    }
+
+    private Mono<EmailActionResponse> handleTrashActionReactive(EmailActionRequest request, Scheduler blockingScheduler) {
+        return Mono.defer(() -> {
+            MessageRange range = MessageRange.one(MessageUid.of(request.getSourceMessageID()));
+            MailboxId sourceMailBoxId = parseMailboxID(request.getSourceMailboxID());
+
+            return lookupMailboxReactive(sourceMailBoxId)
+                    .flatMap(sourceMailBox -> withLease(sourceMailBox.getOwner(), lease ->
+                            trashResolver.resolveReactive(sourceMailBox.getOwner(), lease.mailboxManager(), lease.session(), blockingScheduler)
+                                    .flatMap(trashMailBoxId -> {
+                                        if (trashMailBoxId.equals(sourceMailBoxId)) {
+                                            return Mono.just(EmailActionResponse.success(request.getHashID(),
+                                                    "Message is already in trash"));
+                                        }
+                                        // Limited once the Trash is resolved: a first resolution needs a scheduler thread
+                                        return limiter.limit(1, metrics.time(PipelineStage.MOVE, Mono.defer(() -> Mono.from(
+                                                                lease.mailboxManager().moveMessagesReactive(range,
+                                                                        sourceMailBoxId, trashMailBoxId, lease.session())))),
+                                                        blockingScheduler)
+                                                .doOnError(MailboxNotFoundException.class, e -> {
+                                                    // The cached Trash may have been deleted behind our back
+                                                    trashResolver.invalidate(sourceMailBox.getOwner());
+                                                    mailboxCache.invalidate(sourceMailBoxId);
+                                                })
+                                                .then(Mono.fromCallable(() -> {
+                                                    LOGGER.info("Successfully trashed message {} from mailbox {}",
+                                                            request.getSourceMessageID(), request.getSourceMailboxID());
+                                                    return EmailActionResponse.success(request.getHashID(), TRASH_SUCCESS);
+                                                }));
+                                    })));
+        });
+    }
+
+    private EmailActionResponse handleTrashAction(EmailActionRequest request) throws MailboxException {
+        return trashBatch(List.of(request)).responseOrThrow(0);
+    }
+
+    /**
+     * Readiness probe: queries the mailbox store once, failing while James or its database is not available yet.
+     */
+    public void checkMailboxAvailability() throws MailboxException {
+        try (MailboxSessionPool.Lease lease = sessionPool.borrow(EXTENSION_USER)) {
+            MailboxSession session = lease.session();
+            Mono.from(lease.mailboxManager().mailboxExists(MailboxPath.inbox(session), session)).block();
+        }
+    }
+
+    // Served from the metadata cache when possible, so a pooled session is only borrowed on a miss
+    private Optional<MailboxMetadata> lookupMailbox(MailboxId mailboxId) throws MailboxException {
+        long start = System.nanoTime();
+        try {
+            Optional<MailboxMetadata> cached = mailboxCache.get(mailboxId);
+            if (cached.isPresent()) {
+                return cached;
+            }
+            Mailbox mailbox;
+            try (MailboxSessionPool.Lease lease = sessionPool.borrow(EXTENSION_USER)) {
+                mailbox = lease.mailboxMapper().findMailboxById(mailboxId).block();
+            }
+            if (mailbox == null) {
+                return Optional.empty();
+            }
+            return Optional.of(mailboxCache.put(mailbox));
+        } finally {
+            metrics.recordSince(PipelineStage.LOOKUP, start);
+        }
+    }
+
+    // A missing mailbox is permanent, its deliveries are dead-lettered rather than retried
+    private MailboxMetadata lookupExistingMailbox(MailboxId mailboxId) throws MailboxException {
+        return lookupMailbox(mailboxId).orElseThrow(() -> new MailboxNotFoundException(mailboxId));
+    }
+
+    private Mono<MailboxMetadata> lookupMailboxReactive(MailboxId mailboxId) {
+        return metrics.time(PipelineStage.LOOKUP, Mono.defer(() -> Mono.justOrEmpty(mailboxCache.get(mailboxId)))
+                .switchIfEmpty(Mono.defer(() -> withLease(EXTENSION_USER, lease ->
+                                Mono.fromCallable(lease::mailboxMapper)
+                                        .flatMap(mailboxMapper -> mailboxMapper.findMailboxById(mailboxId)))
+                        .map(mailboxCache::put))))
+                .switchIfEmpty(Mono.error(() -> new MailboxNotFoundException(mailboxId)));
     }
 
-    private MailboxMapper getMailboxMapper(MailboxManager mailboxManager) throws MailboxException {
-        return mailboxMapperFactoryProvider.get()
-                .getMailboxMapper(mailboxManager.createSystemSession(Username.of("james-rabbitmq-extension")));
+    // The lease is released once the inner publisher terminates or is cancelled
+    private <T> Mono<T> withLease(Username username, Function<MailboxSessionPool.Lease, Mono<T>> action) {
+        return Mono.using(() -> sessionPool.borrow(username), action, MailboxSessionPool.Lease::close);
     }
 
-    private MailboxId parseMailboxID(String mailboxID) {
-        return new JPAId(Long.parseLong(mailboxID));
+    // Numeric ids are those of the JPA mailbox James is configured with; the factory is bound by its mailbox module
+    private MailboxId parseMailboxID(long mailboxID) {
+        return mailboxIdFactory.fromString(Long.toString(mailboxID));
     }
 }
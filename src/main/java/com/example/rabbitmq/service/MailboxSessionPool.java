@@ -0,0 +1,162 @@
+package com.example.rabbitmq.service;
+
+import com.example.rabbitmq.config.RabbitMQExtensionConfiguration;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import org.apache.james.core.Username;
+import org.apache.james.mailbox.MailboxManager;
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.store.mail.MailboxMapper;
+import org.apache.james.mailbox.store.mail.MailboxMapperFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reuses system {@link MailboxSession}s per {@link Username}.
+ *
+ * A session is leased exclusively to one caller at a time: {@link #borrow(Username)} starts a processing request
+ * and {@link Lease#close()} ends it before the session goes back to the idle pool. Idle sessions are kept for at
+ * most {@code sessionPoolMaxLifetimeSeconds} and {@code sessionPoolMaxIdlePerUser} per user.
+ */
+@Singleton
+public class MailboxSessionPool {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MailboxSessionPool.class);
+
+    private final Provider<MailboxManager> mailboxManagerProvider;
+    private final Provider<MailboxMapperFactory> mailboxMapperFactoryProvider;
+    private final Cache<Username, Deque<PooledSession>> idleSessions;
+    private final long maxLifetimeMillis;
+    private final int maxIdlePerUser;
+    private final LongAdder created = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+
+    @Inject
+    public MailboxSessionPool(RabbitMQExtensionConfiguration config,
+                              Provider<MailboxManager> mailboxManagerProvider,
+                              Provider<MailboxMapperFactory> mailboxMapperFactoryProvider) {
+        this.mailboxManagerProvider = mailboxManagerProvider;
+        this.mailboxMapperFactoryProvider = mailboxMapperFactoryProvider;
+        this.maxLifetimeMillis = Duration.ofSeconds(config.getSessionPoolMaxLifetimeSeconds()).toMillis();
+        this.maxIdlePerUser = config.getSessionPoolMaxIdlePerUser();
+        this.idleSessions = CacheBuilder.newBuilder()
+                .maximumSize(config.getSessionPoolMaxUsers())
+                .expireAfterAccess(Duration.ofSeconds(config.getSessionPoolMaxLifetimeSeconds()))
+                .build();
+    }
+
+    public Lease borrow(Username username) throws MailboxException {
+        MailboxManager mailboxManager = mailboxManagerProvider.get();
+        PooledSession pooled = pollIdle(username);
+        if (pooled == null) {
+            pooled = new PooledSession(mailboxManager.createSystemSession(username));
+            created.increment();
+        } else {
+            reused.increment();
+        }
+        mailboxManager.startProcessingRequest(pooled.session);
+        return new Lease(pooled, mailboxManager);
+    }
+
+    private PooledSession pollIdle(Username username) {
+        Deque<PooledSession> idle = idleSessions.getIfPresent(username);
+        if (idle == null) {
+            return null;
+        }
+        PooledSession pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (!pooled.isExpired()) {
+                return pooled;
+            }
+        }
+        return null;
+    }
+
+    private void release(PooledSession pooled, MailboxManager mailboxManager) {
+        try {
+            mailboxManager.endProcessingRequest(pooled.session);
+        } catch (Exception e) {
+            LOGGER.warn("Failed to end processing request of session {}, discarding it",
+                    pooled.session.getSessionId(), e);
+            return;
+        }
+        if (pooled.isExpired()) {
+            return;
+        }
+        Deque<PooledSession> idle = idleSessions.asMap()
+                .computeIfAbsent(pooled.session.getUser(), username -> new ConcurrentLinkedDeque<>());
+        if (idle.size() < maxIdlePerUser) {
+            idle.offerFirst(pooled);
+        }
+    }
+
+    public long createdCount() {
+        return created.sum();
+    }
+
+    public long reusedCount() {
+        return reused.sum();
+    }
+
+    public long pooledUserCount() {
+        return idleSessions.size();
+    }
+
+    public void clear() {
+        idleSessions.invalidateAll();
+    }
+
+    private class PooledSession {
+        private final MailboxSession session;
+        private final long createdAt;
+
+        private PooledSession(MailboxSession session) {
+            this.session = session;
+            this.createdAt = System.currentTimeMillis();
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() - createdAt > maxLifetimeMillis;
+        }
+    }
+
+    public class Lease implements AutoCloseable {
+        private final PooledSession pooled;
+        private final MailboxManager mailboxManager;
+        private boolean closed;
+
+        private Lease(PooledSession pooled, MailboxManager mailboxManager) {
+            this.pooled = pooled;
+            this.mailboxManager = mailboxManager;
+        }
+
+        public MailboxSession session() {
+            return pooled.session;
+        }
+
+        public MailboxManager mailboxManager() {
+            return mailboxManager;
+        }
+
+        // Not kept across leases: the factory already caches the mapper of a session for the current request
+        public MailboxMapper mailboxMapper() throws MailboxException {
+            return mailboxMapperFactoryProvider.get().getMailboxMapper(pooled.session);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(pooled, mailboxManager);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.rabbitmq.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Chooses the partition key of each delivery from the source mailboxes of its actions, so that actions on a mailbox
+ * are applied in the order they were received even when batches span several mailboxes.
+ *
+ * While a delivery is being processed, each of its mailboxes is pinned to its partition key: a later delivery on
+ * one of them takes the same key, and thus the same lane, whatever mailbox its first action is on. A batch whose
+ * mailboxes are pinned to different keys waits, on the dispatch thread, until all but one of those keys are released.
+ * Every {@link #acquire(long[])} must be followed by a {@link #release(long[])} of the same mailboxes once the
+ * delivery was processed.
+ */
+class PartitionRouter {
+    private final Map<Long, Pin> pins = new HashMap<>();
+
+    private static class Pin {
+        private final long partitionKey;
+        private int deliveries;
+
+        private Pin(long partitionKey) {
+            this.partitionKey = partitionKey;
+        }
+    }
+
+    // mailboxIds are distinct; the first one is the partition key when none of them is pinned
+    synchronized long acquire(long[] mailboxIds) throws InterruptedException {
+        if (mailboxIds.length == 0) {
+            return 0;
+        }
+        Long partitionKey;
+        while ((partitionKey = pinnedKey(mailboxIds)) == null) {
+            wait();
+        }
+        for (long mailboxId : mailboxIds) {
+            long key = partitionKey;
+            pins.computeIfAbsent(mailboxId, id -> new Pin(key)).deliveries++;
+        }
+        return partitionKey;
+    }
+
+    synchronized void release(long[] mailboxIds) {
+        boolean unpinned = false;
+        for (long mailboxId : mailboxIds) {
+            Pin pin = pins.get(mailboxId);
+            if (pin != null && --pin.deliveries == 0) {
+                pins.remove(mailboxId);
+                unpinned = true;
+            }
+        }
+        if (unpinned) {
+            notifyAll();
+        }
+    }
+
+    // The key the mailboxes are pinned to, the first mailbox when none is, or null when pinned to several keys
+    private Long pinnedKey(long[] mailboxIds) {
+        Long key = null;
+        for (long mailboxId : mailboxIds) {
+            Pin pin = pins.get(mailboxId);
+            if (pin == null) {
+                continue;
+            }
+            if (key != null && key != pin.partitionKey) {
+                return null;
+            }
+            key = pin.partitionKey;
+        }
+        return key != null ? key : mailboxIds[0];
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.rabbitmq.service;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks on a fixed number of single-threaded lanes, chosen by hashing a partition key.
+ *
+ * Tasks with the same key run one after the other in submission order, tasks with different keys may run in
+ * parallel. Each lane has a bounded queue: when it is full, {@link #execute(long, Runnable)} blocks the
+ * submitting thread, which stops the consumer from taking more deliveries until the lane catches up.
+ *
+ * Tasks of several input queues share the lanes: each lane queues them per input queue, up to the capacity each,
+ * and takes them by weight (see {@link WeightedTaskQueue}), so a backlog of one queue does not delay the others
+ * by more than their weights allow.
+ */
+public class PartitionedExecutor {
+    private final ThreadPoolExecutor[] lanes;
+
+    public PartitionedExecutor(String name, int laneCount, int queueCapacity) {
+        this(name, laneCount, queueCapacity, new int[]{1});
+    }
+
+    public PartitionedExecutor(String name, int laneCount, int queueCapacity, int[] queueWeights) {
+        lanes = new ThreadPoolExecutor[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            String threadName = name + "-" + (i + 1);
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new WeightedTaskQueue(queueWeights, queueCapacity),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, threadName);
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    new BlockWhenFull());
+        }
+    }
+
+    public int laneFor(long partitionKey) {
+        return laneFor(partitionKey, lanes.length);
+    }
+
+    // Shared with the reactive pipeline, which groups deliveries the same way
+    static int laneFor(long partitionKey, int laneCount) {
+        return Math.floorMod(Long.hashCode(partitionKey), laneCount);
+    }
+
+    public void execute(long partitionKey, Runnable task) {
+        lanes[laneFor(partitionKey)].execute(task);
+    }
+
+    // queueIndex is the index of the weight of the task's input queue
+    public void execute(long partitionKey, int queueIndex, Runnable task) {
+        execute(partitionKey, WeightedTaskQueue.classify(queueIndex, task));
+    }
+
+    /**
+     * Queues the rest of a task of the lane of {@code partitionKey}, ahead of the other tasks of its input queue and
+     * beyond the lane capacity, so that a long task yields to the other input queues without being overtaken on its
+     * own. Only a task running on that lane may call it.
+     *
+     * @throws RejectedExecutionException once the lane is shut down
+     */
+    public void executeNext(long partitionKey, int queueIndex, Runnable task) {
+        lanes[laneFor(partitionKey)].execute(WeightedTaskQueue.classifyNext(queueIndex, task));
+    }
+
+    public int laneCount() {
+        return lanes.length;
+    }
+
+    public int queuedCount() {
+        int queued = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            queued += lane.getQueue().size();
+        }
+        return queued;
+    }
+
+    public void shutdown() {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ThreadPoolExecutor lane : lanes) {
+            if (!lane.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void shutdownNow() {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdownNow();
+        }
+    }
+
+    private static class BlockWhenFull implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor lane) {
+            if (lane.isShutdown()) {
+                throw new RejectedExecutionException("Lane is shut down");
+            }
+            try {
+                lane.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for a lane", e);
+            }
+        }
+    }
+}
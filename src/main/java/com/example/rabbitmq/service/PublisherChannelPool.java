@@ -0,0 +1,170 @@
+package com.example.rabbitmq.service;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size pool of publishing channels over a shared connection.
+ *
+ * AMQP channels must not be used by several threads for publishing at once, so each publish borrows a channel
+ * exclusively. Closed channels are reopened when borrowed, and the time spent waiting for a free channel is recorded.
+ */
+public class PublisherChannelPool {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PublisherChannelPool.class);
+
+    /**
+     * Callback run on every newly opened channel, e.g. to declare the exchange it publishes to.
+     */
+    @FunctionalInterface
+    public interface ChannelInitializer {
+        void initialize(Channel channel) throws IOException;
+    }
+
+    private final Connection connection;
+    private final ChannelInitializer initializer;
+    private final boolean confirms;
+    private final Semaphore confirmPermits;
+    private final long timeoutMillis;
+    private final BlockingQueue<PooledChannel> idle;
+    private final List<PooledChannel> all = new ArrayList<>();
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public PublisherChannelPool(Connection connection, int size, ChannelInitializer initializer,
+                                boolean confirms, int maxOutstandingConfirms, long timeoutMillis) throws IOException {
+        this.connection = connection;
+        this.initializer = initializer;
+        this.confirms = confirms;
+        this.confirmPermits = new Semaphore(maxOutstandingConfirms);
+        this.timeoutMillis = timeoutMillis;
+        this.idle = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            PooledChannel pooled = new PooledChannel();
+            pooled.open();
+            all.add(pooled);
+            idle.add(pooled);
+        }
+    }
+
+    public PooledChannel borrow() throws IOException {
+        long start = System.nanoTime();
+        PooledChannel pooled;
+        try {
+            pooled = idle.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a publisher channel", e);
+        }
+        long waited = System.nanoTime() - start;
+        borrowCount.increment();
+        waitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        if (pooled == null) {
+            throw new IOException("No publisher channel available after " + timeoutMillis + "ms");
+        }
+
+        // Health check: channels closed by the broker (e.g. after a channel error) are replaced in place
+        if (!pooled.channel.isOpen()) {
+            try {
+                pooled.open();
+            } catch (IOException | RuntimeException e) {
+                idle.offer(pooled);
+                throw e;
+            }
+        }
+        return pooled;
+    }
+
+    public void release(PooledChannel pooled) {
+        idle.offer(pooled);
+    }
+
+    public long borrowCount() {
+        return borrowCount.sum();
+    }
+
+    public long totalWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    public long maxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    public int idleCount() {
+        return idle.size();
+    }
+
+    public int outstandingConfirms() {
+        return all.stream()
+                .mapToInt(pooled -> pooled.confirmTracker == null ? 0 : pooled.confirmTracker.outstandingCount())
+                .sum();
+    }
+
+    public void close() {
+        for (PooledChannel pooled : all) {
+            try {
+                if (pooled.channel.isOpen()) {
+                    pooled.channel.close();
+                }
+            } catch (Exception e) {
+                LOGGER.warn("Failed to close publisher channel", e);
+            }
+        }
+    }
+
+    public class PooledChannel {
+        private Channel channel;
+        private PublisherConfirmTracker confirmTracker;
+
+        private void open() throws IOException {
+            Channel newChannel = connection.createChannel();
+            initializer.initialize(newChannel);
+            if (confirms) {
+                PublisherConfirmTracker tracker = new PublisherConfirmTracker(confirmPermits, timeoutMillis);
+                newChannel.confirmSelect();
+                newChannel.addConfirmListener(tracker);
+                newChannel.addShutdownListener(cause -> tracker.failAll(cause));
+                confirmTracker = tracker;
+            }
+            channel = newChannel;
+        }
+
+        /**
+         * Publishes on this channel. The returned future completes once the broker confirmed the publish when
+         * publisher confirms are enabled, or as soon as it was written to the channel otherwise.
+         */
+        public CompletableFuture<Void> publish(String exchange, String routingKey, AMQP.BasicProperties properties,
+                                               byte[] body) throws IOException {
+            if (confirmTracker == null) {
+                channel.basicPublish(exchange, routingKey, properties, body);
+                return CompletableFuture.completedFuture(null);
+            }
+
+            confirmTracker.acquire();
+            long sequenceNumber = channel.getNextPublishSeqNo();
+            CompletableFuture<Void> confirmation = confirmTracker.register(sequenceNumber);
+            try {
+                channel.basicPublish(exchange, routingKey, properties, body);
+            } catch (IOException | RuntimeException e) {
+                confirmTracker.fail(sequenceNumber, e);
+            }
+            return confirmation;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.rabbitmq.service;
+
+import com.rabbitmq.client.ConfirmListener;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the publishes of one channel in confirm mode.
+ *
+ * Each publish is registered under its sequence number and completed asynchronously when the broker confirms
+ * it, handling multiple-acks and multiple-nacks. A semaphore bounds how many publishes may await confirmation.
+ * The futures complete on the connection's I/O thread, see {@link RabbitMQPublisherService#confirmExecutor()}.
+ */
+public class PublisherConfirmTracker implements ConfirmListener {
+    private final ConcurrentNavigableMap<Long, CompletableFuture<Void>> outstanding = new ConcurrentSkipListMap<>();
+    private final Semaphore permits;
+    private final long acquireTimeoutMillis;
+
+    // The permits may be shared with the trackers of other channels to bound outstanding publishes globally
+    public PublisherConfirmTracker(Semaphore permits, long acquireTimeoutMillis) {
+        this.permits = permits;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+    }
+
+    // Blocks while maxOutstanding publishes are waiting for their confirm
+    public void acquire() throws IOException {
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for outstanding publisher confirms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for outstanding publisher confirms", e);
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public CompletableFuture<Void> register(long sequenceNumber) {
+        CompletableFuture<Void> confirmation = new CompletableFuture<>();
+        outstanding.put(sequenceNumber, confirmation);
+        return confirmation;
+    }
+
+    @Override
+    public void handleAck(long deliveryTag, boolean multiple) {
+        complete(deliveryTag, multiple, null);
+    }
+
+    @Override
+    public void handleNack(long deliveryTag, boolean multiple) {
+        complete(deliveryTag, multiple, new IOException("Publish " + deliveryTag + " was nacked by the broker"));
+    }
+
+    public void fail(long sequenceNumber, Exception error) {
+        complete(sequenceNumber, false, error);
+    }
+
+    // Called when the channel closes: confirms of the remaining publishes will never arrive
+    public void failAll(Exception error) {
+        Map.Entry<Long, CompletableFuture<Void>> entry;
+        while ((entry = outstanding.pollFirstEntry()) != null) {
+            settle(entry.getValue(), error);
+        }
+    }
+
+    public int outstandingCount() {
+        return outstanding.size();
+    }
+
+    private void complete(long deliveryTag, boolean multiple, Exception error) {
+        if (!multiple) {
+            CompletableFuture<Void> confirmation = outstanding.remove(deliveryTag);
+            if (confirmation != null) {
+                settle(confirmation, error);
+            }
+            return;
+        }
+        Map.Entry<Long, CompletableFuture<Void>> entry;
+        while ((entry = outstanding.firstEntry()) != null && entry.getKey() <= deliveryTag) {
+            if (outstanding.remove(entry.getKey(), entry.getValue())) {
+                settle(entry.getValue(), error);
+            }
+        }
+    }
+
+    private void settle(CompletableFuture<Void> confirmation, Exception error) {
+        permits.release();
+        if (error == null) {
+            confirmation.complete(null);
+        } else {
+            confirmation.completeExceptionally(error);
+        }
+    }
+}
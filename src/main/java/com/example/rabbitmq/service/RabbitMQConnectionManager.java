@@ -0,0 +1,151 @@
+package com.example.rabbitmq.service;
+
+import com.example.rabbitmq.config.RabbitMQExtensionConfiguration;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryDelayHandler;
+import com.rabbitmq.client.RecoveryListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Owns the single AMQP connection shared by the consumer and the publisher.
+ *
+ * The connection recovers automatically with exponential backoff. Topology recovery re-declares the input queue
+ * and output exchange and re-registers the consumers; listeners registered through
+ * {@link #addRecoveryListener(RecoveryListener)} are told when a recovery starts and completes.
+ */
+@Singleton
+public class RabbitMQConnectionManager {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RabbitMQConnectionManager.class);
+
+    private final RabbitMQExtensionConfiguration config;
+    private final List<RecoveryListener> recoveryListeners = new CopyOnWriteArrayList<>();
+    private volatile ConnectionState state = ConnectionState.DISCONNECTED;
+    private volatile Connection connection;
+
+    @Inject
+    public RabbitMQConnectionManager(RabbitMQExtensionConfiguration config) {
+        this.config = config;
+    }
+
+    /**
+     * Connects to the broker, retrying with exponential backoff until it succeeds or {@link #stop()} is called.
+     */
+    public void start() throws IOException, TimeoutException, InterruptedException {
+        ConnectionFactory factory = createConnectionFactory();
+        long delay = config.getRecoveryInitialDelayMillis();
+        while (state != ConnectionState.CLOSED) {
+            try {
+                connect(factory);
+                return;
+            } catch (IOException | TimeoutException e) {
+                LOGGER.warn("Could not connect to RabbitMQ at {}:{}, retrying in {}ms: {}",
+                        config.getHost(), config.getPort(), delay, e.getMessage());
+                Thread.sleep(delay);
+                delay = Math.min(delay * 2, config.getRecoveryMaxDelayMillis());
+            }
+        }
+        throw new IOException("Connection manager was stopped before connecting");
+    }
+
+    private synchronized void connect(ConnectionFactory factory) throws IOException, TimeoutException {
+        if (connection != null) {
+            return;
+        }
+        Connection newConnection = factory.newConnection("james-rabbitmq-extension");
+        newConnection.addShutdownListener(cause -> {
+            if (!cause.isInitiatedByApplication()) {
+                LOGGER.warn("RabbitMQ connection lost: {}", cause.getMessage());
+                state = ConnectionState.RECOVERING;
+            }
+        });
+        ((Recoverable) newConnection).addRecoveryListener(new RecoveryListener() {
+            @Override
+            public void handleRecoveryStarted(Recoverable recoverable) {
+                LOGGER.info("Recovering RabbitMQ connection");
+                state = ConnectionState.RECOVERING;
+                recoveryListeners.forEach(listener -> listener.handleRecoveryStarted(recoverable));
+            }
+
+            @Override
+            public void handleRecovery(Recoverable recoverable) {
+                LOGGER.info("RabbitMQ connection recovered");
+                state = ConnectionState.CONNECTED;
+                recoveryListeners.forEach(listener -> listener.handleRecovery(recoverable));
+            }
+        });
+        connection = newConnection;
+        state = ConnectionState.CONNECTED;
+        LOGGER.info("Connected to RabbitMQ at {}:{}", config.getHost(), config.getPort());
+    }
+
+    private ConnectionFactory createConnectionFactory() {
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setHost(config.getHost());
+        factory.setPort(config.getPort());
+        factory.setUsername(config.getUsername());
+        factory.setPassword(config.getPassword());
+        factory.setVirtualHost(config.getVirtualHost());
+        factory.setRequestedHeartbeat(config.getHeartbeatSeconds());
+        factory.setConnectionTimeout(config.getConnectionTimeoutMillis());
+        factory.setAutomaticRecoveryEnabled(true);
+        factory.setTopologyRecoveryEnabled(true);
+        factory.setRecoveryDelayHandler(new RecoveryDelayHandler.ExponentialBackoffDelayHandler(backoffSequence()));
+        return factory;
+    }
+
+    private List<Long> backoffSequence() {
+        List<Long> sequence = new ArrayList<>();
+        long delay = config.getRecoveryInitialDelayMillis();
+        while (delay < config.getRecoveryMaxDelayMillis()) {
+            sequence.add(delay);
+            delay *= 2;
+        }
+        sequence.add(config.getRecoveryMaxDelayMillis());
+        return sequence;
+    }
+
+    public Channel createChannel() throws IOException {
+        Connection current = connection;
+        if (current == null) {
+            throw new IOException("Not connected to RabbitMQ");
+        }
+        return current.createChannel();
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public void addRecoveryListener(RecoveryListener listener) {
+        recoveryListeners.add(listener);
+    }
+
+    public ConnectionState getState() {
+        return state;
+    }
+
+    public boolean isConnected() {
+        return state == ConnectionState.CONNECTED;
+    }
+
+    public synchronized void stop() throws IOException {
+        state = ConnectionState.CLOSED;
+        if (connection != null && connection.isOpen()) {
+            connection.close();
+        }
+        connection = null;
+        LOGGER.info("Closed RabbitMQ connection");
+    }
+}
@@ -1,90 +1,618 @@
 package com.example.rabbitmq.service;
 
 
+import com.example.rabbitmq.codec.EmailActionRequestDecoder;
+import com.example.rabbitmq.codec.MalformedRequestException;
+import com.example.rabbitmq.codec.WireFormat;
+import com.example.rabbitmq.config.InputQueue;
+import com.example.rabbitmq.config.ProcessingMode;
 import com.example.rabbitmq.config.RabbitMQExtensionConfiguration;
+import com.example.rabbitmq.metrics.ExtensionMetrics;
+import com.example.rabbitmq.metrics.PipelineStage;
+import com.example.rabbitmq.model.EmailActionBatch;
+import com.example.rabbitmq.model.EmailActionBatchResponse;
+import com.example.rabbitmq.model.EmailActionMessage;
 import com.example.rabbitmq.model.EmailActionRequest;
 import com.example.rabbitmq.model.EmailActionResponse;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.ConnectionFactory;
 import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+import org.apache.james.mailbox.exception.MailboxException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 @Singleton
 public class RabbitMQConsumerService {
     private static final Logger LOGGER = LoggerFactory.getLogger(RabbitMQConsumerService.class);
+    // Deliveries of several channels are emitted to the same sink: retry when another channel is emitting
+    private static final Sinks.EmitFailureHandler RETRY_NON_SERIALIZED =
+            (signalType, result) -> result == Sinks.EmitResult.FAIL_NON_SERIALIZED;
 
     private final RabbitMQExtensionConfiguration config;
     private final EmailManagementService emailService;
     private final RabbitMQPublisherService publisherService;
-    private final ObjectMapper objectMapper;
-    private Connection connection;
-    private Channel channel;
+    private final ActionBatcher actionBatcher;
+    private final RetryHandler retryHandler;
+    private final RabbitMQConnectionManager connectionManager;
+    private final ExtensionMetrics metrics;
+    private final AdaptiveLimiter limiter;
+    private final EmailActionRequestDecoder decoder;
+    private final PartitionRouter partitions = new PartitionRouter();
+    private final List<Channel> channels = new CopyOnWriteArrayList<>();
+    private final Map<Channel, String> consumerTags = new ConcurrentHashMap<>();
+    // One current tracker per channel, replaced whenever the connection recovers
+    private final List<AtomicReference<DeliveryTracker>> trackers = new CopyOnWriteArrayList<>();
+    // Notified by the trackers whenever one of them has no outstanding delivery left
+    private final Object drained = new Object();
+    private final List<Disposable> pipelines = new CopyOnWriteArrayList<>();
+    // One sink per input queue, in the order of RabbitMQExtensionConfiguration#getInputQueues
+    private final List<Sinks.Many<PartitionedProcessing>> reactiveDeliveries = new CopyOnWriteArrayList<>();
+    private PartitionedExecutor lanes;
+    private Scheduler reactiveScheduler;
     @Inject
     public RabbitMQConsumerService(RabbitMQExtensionConfiguration config,
                                    EmailManagementService emailService,
-                                   RabbitMQPublisherService publisherService) {
+                                   RabbitMQPublisherService publisherService,
+                                   ActionBatcher actionBatcher,
+                                   RetryHandler retryHandler,
+                                   RabbitMQConnectionManager connectionManager,
+                                   ExtensionMetrics metrics,
+                                   AdaptiveLimiter limiter) {
         this.config = config;
         this.emailService = emailService;
         this.publisherService = publisherService;
-        this.objectMapper = new ObjectMapper();
+        this.actionBatcher = actionBatcher;
+        this.retryHandler = retryHandler;
+        this.connectionManager = connectionManager;
+        this.metrics = metrics;
+        this.limiter = limiter;
+        this.decoder = new EmailActionRequestDecoder(config.getMaxActionsPerMessage());
+        // Registered once, start() may be retried
+        limiter.onPrefetchChange(this::updatePrefetch);
+        connectionManager.addRecoveryListener(new RecoveryListener() {
+            @Override
+            public void handleRecoveryStarted(Recoverable recoverable) {
+                resetTrackers();
+            }
+
+            @Override
+            public void handleRecovery(Recoverable recoverable) {
+                LOGGER.info("RabbitMQ consumers recovered on queues: {}", config.getInputQueues());
+            }
+        });
     }
 
-    public void start() throws IOException, TimeoutException {
-        ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost(config.getHost());
-        factory.setPort(config.getPort());
-        factory.setUsername(config.getUsername());
-        factory.setPassword(config.getPassword());
-        factory.setVirtualHost(config.getVirtualHost());
+    public void start() throws IOException {
+        List<InputQueue> inputQueues = config.getInputQueues();
+        int queueCapacity = config.getConsumerCount() * config.getPrefetchCount();
+        if (config.getProcessingMode() == ProcessingMode.REACTIVE) {
+            // Only the remaining blocking parts (JPA queries, publishing) run here, never the dispatch thread
+            reactiveScheduler = Schedulers.newBoundedElastic(config.getWorkerThreads(),
+                    queueCapacity * inputQueues.size(), "RabbitMQ-Reactive");
+            for (int i = 0; i < inputQueues.size(); i++) {
+                startReactivePipeline(queueCapacity);
+            }
+        } else {
+            // A lane whose queue is full blocks the dispatch thread of the channel until it catches up
+            lanes = new PartitionedExecutor("RabbitMQ-Worker", config.getWorkerThreads(),
+                    config.getPartitionQueueCapacity(), inputQueues.stream().mapToInt(InputQueue::getWeight).toArray());
+        }
+        actionBatcher.start();
+        metrics.setInFlightGauge(this::inFlightCount);
 
-        connection = factory.newConnection();
-        channel = connection.createChannel();
+        for (int queueIndex = 0; queueIndex < inputQueues.size(); queueIndex++) {
+            String queue = inputQueues.get(queueIndex).getName();
+            for (int i = 0; i < config.getConsumerCount(); i++) {
+                // Recovering channel: its qos, queue declaration and consumer are replayed after a connection recovery
+                Channel channel = connectionManager.createChannel();
+                channel.basicQos(limiter.getPrefetch());
 
-        // Declare the queue
-        channel.queueDeclare(config.getInputQueue(), true, false, false, null);
+                // Declare the queue
+                channel.queueDeclare(queue, true, false, false, null);
+                if (queueIndex == 0 && i == 0) {
+                    retryHandler.declareTopology(channel);
+                }
+                channels.add(channel);
+                AtomicReference<DeliveryTracker> trackerRef = new AtomicReference<>(new DeliveryTracker(channel, queue, this::signalDrained));
+                trackers.add(trackerRef);
 
-        LOGGER.info("Started RabbitMQ consumer for queue: {}", config.getInputQueue());
+                // Set up message consumer: deliveries are handed off so the client dispatch thread
+                // is never blocked on mailbox I/O
+                String consumerTag = channel.basicConsume(queue, false, deliverCallback(trackerRef, queueIndex), tag -> {
+                    LOGGER.warn("Consumer {} was cancelled by the broker", tag);
+                    consumerTags.remove(channel);
+                });
+                consumerTags.put(channel, consumerTag);
+            }
+        }
 
-        // Set up message consumer
-        DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-            String message = new String(delivery.getBody(), StandardCharsets.UTF_8);
-            LOGGER.info("Received message: {}", message);
+        LOGGER.info("Started RabbitMQ consumer for queues: {} (mode={}, consumers={}, prefetch={}, workers={})",
+                inputQueues, config.getProcessingMode().getValue(), config.getConsumerCount(),
+                config.getPrefetchCount(), config.getWorkerThreads());
+    }
 
+    // The recovering channels record the new qos, and replay it after a connection recovery
+    private void updatePrefetch(int prefetch) {
+        for (Channel channel : channels) {
             try {
-                EmailActionRequest request = objectMapper.readValue(message, EmailActionRequest.class);
-                EmailActionResponse response = emailService.processEmailAction(request);
-
-                // Publish result
-                publisherService.publishResult(response);
+                if (channel.isOpen()) {
+                    channel.basicQos(prefetch);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Failed to set the prefetch of channel {} to {}", channel.getChannelNumber(), prefetch, e);
+            }
+        }
+        LOGGER.info("Consumer prefetch set to {} per channel", prefetch);
+    }
 
-                // Acknowledge message
-                channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
+    /**
+     * Decodes each delivery on the dispatch thread and hands it to the lane of its partition: actions on the same
+     * source mailbox are applied in the order they were received, actions on different mailboxes in parallel.
+     * Deliveries of different input queues are not ordered against each other. See {@link PartitionRouter} for
+     * batches spanning several mailboxes.
+     */
+    private DeliverCallback deliverCallback(AtomicReference<DeliveryTracker> trackerRef, int queueIndex) {
+        return (consumerTag, delivery) -> {
+            DeliveryTracker tracker = trackerRef.get();
+            tracker.track(delivery.getEnvelope().getDeliveryTag());
+            metrics.delivered();
+            WireFormat format = wireFormat(delivery);
+            EmailActionMessage message;
+            try {
+                message = decode(delivery, format);
+            } catch (MalformedRequestException e) {
+                reject(tracker, delivery, format, e);
+                return;
+            } catch (RuntimeException e) {
+                LOGGER.error("Error decoding message: {}", describe(delivery, format), e);
+                retry(tracker, delivery, e);
+                return;
+            }
 
-            } catch (Exception e) {
-                LOGGER.error("Error processing message: {}", message, e);
-                // Reject and requeue the message
-                channel.basicNack(delivery.getEnvelope().getDeliveryTag(), false, true);
+            long[] mailboxIds = sourceMailboxIds(message);
+            long partitionKey;
+            try {
+                partitionKey = partitions.acquire(mailboxIds);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                nack(tracker, delivery.getEnvelope().getDeliveryTag());
+                return;
+            }
+            try {
+                if (lanes != null && isBulk(message)) {
+                    lanes.execute(partitionKey, queueIndex, () -> startBulk(tracker, delivery, format,
+                            (EmailActionRequest) message, partitionKey, queueIndex, () -> partitions.release(mailboxIds)));
+                } else if (lanes != null) {
+                    lanes.execute(partitionKey, queueIndex, () -> {
+                        try {
+                            handleDelivery(tracker, delivery, format, message);
+                        } finally {
+                            partitions.release(mailboxIds);
+                        }
+                    });
+                } else {
+                    reactiveDeliveries.get(queueIndex).emitNext(new PartitionedProcessing(partitionKey,
+                            processReactive(tracker, delivery, format, message)
+                                    .doFinally(signal -> partitions.release(mailboxIds))), RETRY_NON_SERIALIZED);
+                }
+            } catch (RuntimeException e) {
+                partitions.release(mailboxIds);
+                throw e;
             }
         };
+    }
 
-        channel.basicConsume(config.getInputQueue(), false, deliverCallback, consumerTag -> {});
+    private static boolean isBulk(EmailActionMessage message) {
+        return message instanceof EmailActionRequest && ((EmailActionRequest) message).getAction().isBulk();
+    }
+
+    // Distinct, in the order of the actions
+    private static long[] sourceMailboxIds(EmailActionMessage message) {
+        if (message instanceof EmailActionBatch) {
+            return ((EmailActionBatch) message).getRequests().stream()
+                    .mapToLong(EmailActionRequest::getSourceMailboxID)
+                    .distinct()
+                    .toArray();
+        }
+        return new long[]{((EmailActionRequest) message).getSourceMailboxID()};
+    }
+
+    /**
+     * Processes the deliveries of all channels as a Reactor pipeline, grouped into as many lanes as deliveries
+     * may be unacked: deliveries of the same lane are processed one at a time with {@code concatMap}, lanes
+     * concurrently. The broker never has more than {@code lanes} unacked deliveries outstanding, which bounds
+     * the sink buffer. Each input queue has its own pipeline, so a backlog of one queue never sits in the lanes
+     * ahead of the deliveries of another.
+     */
+    private void startReactivePipeline(int laneCount) {
+        Sinks.Many<PartitionedProcessing> deliveries = Sinks.many().unicast().onBackpressureBuffer();
+        reactiveDeliveries.add(deliveries);
+        pipelines.add(deliveries.asFlux()
+                .groupBy(processing -> PartitionedExecutor.laneFor(processing.partitionKey, laneCount))
+                .flatMap(lane -> lane.concatMap(processing -> processing.processing), laneCount)
+                .subscribe());
+    }
+
+    /**
+     * The broker requeued the deliveries left unacked by the lost connection, so their tags no longer identify
+     * unacked deliveries: the client drops acks carrying them. Deliveries still in flight are forgotten and
+     * tracked afresh by new trackers once redelivered, with tags past the ones of the lost connection.
+     */
+    private void resetTrackers() {
+        int dropped = 0;
+        for (AtomicReference<DeliveryTracker> trackerRef : trackers) {
+            DeliveryTracker previous = trackerRef.get();
+            dropped += previous.outstandingCount();
+            trackerRef.set(new DeliveryTracker(previous.getChannel(), previous.getQueue(), this::signalDrained));
+            previous.invalidate();
+        }
+        if (dropped > 0) {
+            LOGGER.warn("Connection recovery: {} in-flight deliveries will be redelivered by the broker", dropped);
+        }
+    }
+
+    private Mono<Void> processReactive(DeliveryTracker tracker, Delivery delivery, WireFormat format,
+                                       EmailActionMessage message) {
+        long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+        return Mono.defer(() -> {
+                    flushPendingActions(message);
+                    if (message instanceof EmailActionBatch) {
+                        // Grouped moves of a whole batch are blocking, and confined to the reactive scheduler
+                        return Mono.fromCallable(() -> processBatch((EmailActionBatch) message))
+                                .flatMap(response -> Mono.fromFuture(publisherService.publishBatchResult(response, format)))
+                                .publishOn(reactiveScheduler)
+                                .then(Mono.<Void>fromRunnable(() -> ack(tracker, deliveryTag)));
+                    }
+                    EmailActionRequest request = (EmailActionRequest) message;
+                    if (actionBatcher.accepts(request)) {
+                        // Published and acknowledged by the batcher once its batch is flushed
+                        actionBatcher.submit(request, format, tracker, delivery);
+                        return Mono.<Void>empty();
+                    }
+                    if (request.getAction().isBulk()) {
+                        // Chunked moves are blocking, and confined to the reactive scheduler
+                        return Mono.fromCallable(() -> processBulk(request, format))
+                                .flatMap(response -> Mono.fromFuture(publisherService.publishResult(response, format)))
+                                .publishOn(reactiveScheduler)
+                                .then(Mono.<Void>fromRunnable(() -> ack(tracker, deliveryTag)));
+                    }
+                    return emailService.processEmailActionReactive(request, reactiveScheduler)
+                            .flatMap(response -> Mono.fromFuture(publisherService.publishResult(response, format))
+                                    // Confirmations complete on the connection's I/O thread
+                                    .publishOn(reactiveScheduler)
+                                    .then(Mono.<Void>fromRunnable(() -> ack(tracker, deliveryTag))));
+                })
+                .subscribeOn(reactiveScheduler)
+                .onErrorResume(e -> {
+                    LOGGER.error("Error processing message: {}", describe(delivery, format), e);
+                    retry(tracker, delivery, e);
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private void handleDelivery(DeliveryTracker tracker, Delivery delivery, WireFormat format, EmailActionMessage message) {
+        long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+
+        try {
+            flushPendingActions(message);
+            if (message instanceof EmailActionBatch) {
+                EmailActionBatchResponse response = processBatch((EmailActionBatch) message);
+                publisherService.publishBatchResult(response, format).whenCompleteAsync((ignored, error) -> {
+                    if (error == null) {
+                        ack(tracker, deliveryTag);
+                    } else {
+                        LOGGER.error("Failed to publish result for batch: {}", message, error);
+                        retry(tracker, delivery, error);
+                    }
+                }, publisherService.confirmExecutor());
+                return;
+            }
+            EmailActionRequest request = (EmailActionRequest) message;
+            if (actionBatcher.accepts(request)) {
+                // Published and acknowledged by the batcher once its batch is flushed
+                actionBatcher.submit(request, format, tracker, delivery);
+                return;
+            }
+            EmailActionResponse response = emailService.processEmailAction(request);
+
+            // Publish result, and acknowledge the message on the channel it was delivered on
+            // once the result is confirmed, or retried
+            publisherService.publishResult(response, format).whenCompleteAsync((ignored, error) -> {
+                if (error == null) {
+                    ack(tracker, deliveryTag);
+                } else {
+                    LOGGER.error("Failed to publish result for message: {}", request, error);
+                    retry(tracker, delivery, error);
+                }
+            }, publisherService.confirmExecutor());
+
+        } catch (Exception e) {
+            LOGGER.error("Error processing message: {}", describe(delivery, format), e);
+            retry(tracker, delivery, e);
+        }
+    }
+
+    // Progress results are not awaited: only the final result acknowledges the delivery
+    private EmailActionResponse processBulk(EmailActionRequest request, WireFormat format) throws MailboxException {
+        return emailService.processBulkAction(request, progress -> publishProgress(request, progress, format));
+    }
+
+    private void publishProgress(EmailActionRequest request, EmailActionResponse progress, WireFormat format) {
+        publisherService.publishResult(progress, format).whenComplete((ignored, error) -> {
+            if (error != null) {
+                LOGGER.warn("Failed to publish progress of bulk action {}", request.getHashID(), error);
+            }
+        });
+    }
+
+    /**
+     * Applies a bulk action on its lane one chunk per task: the rest of the action is queued again after each chunk,
+     * ahead of the other deliveries of its input queue, so that the lane serves the other input queues by weight
+     * between chunks rather than after the whole action. Its mailbox stays pinned, and {@code release} is run once
+     * the action ends.
+     */
+    private void startBulk(DeliveryTracker tracker, Delivery delivery, WireFormat format, EmailActionRequest request,
+                           long partitionKey, int queueIndex, Runnable release) {
+        EmailManagementService.BulkAction action;
+        try {
+            flushPendingActions(request);
+            action = emailService.startBulkAction(request);
+        } catch (Exception e) {
+            release.run();
+            LOGGER.error("Error processing message: {}", describe(delivery, format), e);
+            retry(tracker, delivery, e);
+            return;
+        }
+        continueBulk(tracker, delivery, format, action, partitionKey, queueIndex, release);
+    }
+
+    private void continueBulk(DeliveryTracker tracker, Delivery delivery, WireFormat format,
+                              EmailManagementService.BulkAction action, long partitionKey, int queueIndex,
+                              Runnable release) {
+        EmailActionRequest request = action.getRequest();
+        boolean queued = false;
+        try {
+            if (!action.isDone()) {
+                EmailActionResponse progress = action.moveNextChunk();
+                if (!action.isDone()) {
+                    publishProgress(request, progress, format);
+                    lanes.executeNext(partitionKey, queueIndex,
+                            () -> continueBulk(tracker, delivery, format, action, partitionKey, queueIndex, release));
+                    queued = true;
+                    return;
+                }
+            }
+            publisherService.publishResult(action.getResponse(), format).whenCompleteAsync((ignored, error) -> {
+                if (error == null) {
+                    ack(tracker, delivery.getEnvelope().getDeliveryTag());
+                } else {
+                    LOGGER.error("Failed to publish result for message: {}", request, error);
+                    retry(tracker, delivery, error);
+                }
+            }, publisherService.confirmExecutor());
+        } catch (RejectedExecutionException e) {
+            // Shutting down: the broker redelivers the action, which resumes with the messages not moved yet
+            LOGGER.info("Interrupting bulk action {} on shutdown", request.getHashID());
+            nack(tracker, delivery.getEnvelope().getDeliveryTag());
+        } catch (Exception e) {
+            LOGGER.error("Error processing message: {}", describe(delivery, format), e);
+            retry(tracker, delivery, e);
+        } finally {
+            if (!queued) {
+                action.close();
+                release.run();
+            }
+        }
+    }
+
+    // Actions still buffered by the batcher must not be overtaken by a later action on the same mailbox
+    private void flushPendingActions(EmailActionMessage message) {
+        if (message instanceof EmailActionBatch) {
+            ((EmailActionBatch) message).getRequests().stream()
+                    .mapToLong(EmailActionRequest::getSourceMailboxID)
+                    .distinct()
+                    .forEach(actionBatcher::flushPendingFrom);
+        } else if (!actionBatcher.accepts((EmailActionRequest) message)) {
+            actionBatcher.flushPendingFrom(((EmailActionRequest) message).getSourceMailboxID());
+        }
+    }
+
+    private static WireFormat wireFormat(Delivery delivery) {
+        return WireFormat.fromContentType(delivery.getProperties() == null ? null : delivery.getProperties().getContentType());
+    }
+
+    private EmailActionMessage decode(Delivery delivery, WireFormat format) throws MalformedRequestException {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Received message: {}", describe(delivery, format));
+        }
+        long start = System.nanoTime();
+        try {
+            return decoder.decodeMessage(delivery.getBody(), format);
+        } finally {
+            metrics.recordSince(PipelineStage.DECODE, start);
+        }
+    }
+
+    // One aggregated result per batch message, including the actions that could not be decoded
+    private EmailActionBatchResponse processBatch(EmailActionBatch batch) throws MailboxException {
+        LOGGER.info("Processing batch {} of {} actions", batch.getBatchID(), batch.size());
+        List<EmailActionResponse> results = new ArrayList<>(batch.size());
+        if (!batch.getRequests().isEmpty()) {
+            results.addAll(emailService.processBatch(batch.getRequests()));
+        }
+        results.addAll(batch.getRejected());
+        return new EmailActionBatchResponse(batch.getBatchID(), results);
+    }
+
+    private static String describe(Delivery delivery, WireFormat format) {
+        if (format == WireFormat.JSON) {
+            return new String(delivery.getBody(), StandardCharsets.UTF_8);
+        }
+        return delivery.getBody().length + " bytes of " + format.getContentType();
+    }
+
+    /**
+     * Malformed deliveries would fail again on every redelivery, so they are dead-lettered at once. When the hashID
+     * could still be read, a failure result is published as well.
+     */
+    private void reject(DeliveryTracker tracker, Delivery delivery, WireFormat format, MalformedRequestException e) {
+        long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+        LOGGER.warn("Rejecting malformed message (hashID={}): {}", e.getHashID(), e.getMessage());
+        metrics.rejected();
+        CompletableFuture<Void> deadLettered = retryHandler.deadLetter(delivery, tracker.getQueue(),
+                "Malformed request: " + e.getMessage());
+        CompletableFuture<Void> answered = e.getHashID() == null
+                ? CompletableFuture.completedFuture(null)
+                : publisherService.publishResult(EmailActionResponse.failure(e.getHashID(), "Invalid request: " + e.getMessage()), format);
+        CompletableFuture.allOf(deadLettered, answered).whenCompleteAsync((ignored, error) -> {
+            if (error == null) {
+                ack(tracker, deliveryTag);
+            } else {
+                LOGGER.error("Failed to dead-letter malformed message {}", e.getHashID(), error);
+                nack(tracker, deliveryTag);
+            }
+        }, publisherService.confirmExecutor());
+    }
+
+    // The delivery is acknowledged once it was republished for a delayed retry, or dead-lettered
+    private void retry(DeliveryTracker tracker, Delivery delivery, Throwable failure) {
+        long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+        retryHandler.handleFailure(delivery, tracker.getQueue(), failure).whenCompleteAsync((ignored, error) -> {
+            if (error == null) {
+                ack(tracker, deliveryTag);
+            } else {
+                LOGGER.error("Failed to schedule a retry of delivery {}, requeueing it", deliveryTag, error);
+                nack(tracker, deliveryTag);
+            }
+        }, publisherService.confirmExecutor());
+    }
+
+    private void ack(DeliveryTracker tracker, long deliveryTag) {
+        long start = System.nanoTime();
+        try {
+            tracker.ack(deliveryTag);
+            metrics.recordSince(PipelineStage.ACK, start);
+        } catch (IOException e) {
+            LOGGER.error("Failed to ack delivery {}", deliveryTag, e);
+        }
+    }
+
+    private void nack(DeliveryTracker tracker, long deliveryTag) {
+        metrics.nacked();
+        try {
+            tracker.nack(deliveryTag, true);
+        } catch (IOException e) {
+            LOGGER.error("Failed to nack delivery {}", deliveryTag, e);
+        }
+    }
+
+    private void signalDrained() {
+        synchronized (drained) {
+            drained.notifyAll();
+        }
+    }
+
+    // The in-flight count is only checked under the monitor the trackers notify, so no drain is missed
+    private void awaitInFlightDeliveries() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.getShutdownTimeoutSeconds());
+        synchronized (drained) {
+            try {
+                long remaining;
+                while (inFlightCount() > 0 && (remaining = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(drained, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (inFlightCount() > 0) {
+            LOGGER.warn("{} deliveries still in flight after {}s, they will be redelivered",
+                    inFlightCount(), config.getShutdownTimeoutSeconds());
+        }
+    }
+
+    private int inFlightCount() {
+        return trackers.stream().mapToInt(trackerRef -> trackerRef.get().outstandingCount()).sum();
     }
 
     public void stop() throws IOException, TimeoutException {
-        if (channel != null && channel.isOpen()) {
-            channel.close();
+        // Stop receiving new deliveries first, then let the workers drain what is already in flight
+        for (Map.Entry<Channel, String> entry : consumerTags.entrySet()) {
+            try {
+                if (entry.getKey().isOpen()) {
+                    entry.getKey().basicCancel(entry.getValue());
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Failed to cancel consumer {}", entry.getValue(), e);
+            }
+        }
+        consumerTags.clear();
+
+        if (lanes != null) {
+            lanes.shutdown();
+            try {
+                if (!lanes.awaitTermination(config.getShutdownTimeoutSeconds(), TimeUnit.SECONDS)) {
+                    LOGGER.warn("Worker lanes did not drain within {}s, {} deliveries will be redelivered",
+                            config.getShutdownTimeoutSeconds(), lanes.queuedCount());
+                    lanes.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                lanes.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            lanes = null;
+        }
+        // Wait for pending batches and publisher confirms before acknowledging the last deliveries
+        awaitInFlightDeliveries();
+        if (reactiveScheduler != null) {
+            pipelines.forEach(Disposable::dispose);
+            pipelines.clear();
+            reactiveDeliveries.clear();
+            reactiveScheduler.dispose();
+            reactiveScheduler = null;
         }
-        if (connection != null && connection.isOpen()) {
-            connection.close();
+        // Flush pending batches while the channels are still open to acknowledge them
+        actionBatcher.stop();
+
+        for (Channel channel : channels) {
+            if (channel.isOpen()) {
+                channel.close();
+            }
         }
+        channels.clear();
+        trackers.clear();
         LOGGER.info("Stopped RabbitMQ consumer");
     }
-}
\ No newline at end of file
+
+    private static class PartitionedProcessing {
+        private final long partitionKey;
+        private final Mono<Void> processing;
+
+        private PartitionedProcessing(long partitionKey, Mono<Void> processing) {
+            this.partitionKey = partitionKey;
+            this.processing = processing;
+        }
+    }
+}
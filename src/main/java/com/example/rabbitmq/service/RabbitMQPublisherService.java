@@ -1,71 +1,165 @@
 package com.example.rabbitmq.service;
 
 
+import com.example.rabbitmq.codec.EmailActionResponseEncoder;
+import com.example.rabbitmq.codec.WireFormat;
 import com.example.rabbitmq.config.RabbitMQExtensionConfiguration;
+import com.example.rabbitmq.metrics.ExtensionMetrics;
+import com.example.rabbitmq.metrics.PipelineStage;
+import com.example.rabbitmq.model.EmailActionBatchResponse;
 import com.example.rabbitmq.model.EmailActionResponse;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.rabbitmq.model.MailboxEventBatch;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.AMQP;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 @Singleton
 public class RabbitMQPublisherService {
     private static final Logger LOGGER = LoggerFactory.getLogger(RabbitMQPublisherService.class);
 
     private final RabbitMQExtensionConfiguration config;
-    private final ObjectMapper objectMapper;
-    private Connection connection;
-    private Channel channel;
+    private final RabbitMQConnectionManager connectionManager;
+    private final EmailActionResponseEncoder encoder;
+    private final ExtensionMetrics metrics;
+    private PublisherChannelPool channelPool;
+    private volatile ExecutorService confirmExecutor;
     @Inject
-    public RabbitMQPublisherService(RabbitMQExtensionConfiguration config) {
+    public RabbitMQPublisherService(RabbitMQExtensionConfiguration config,
+                                    RabbitMQConnectionManager connectionManager,
+                                    ExtensionMetrics metrics) {
         this.config = config;
-        this.objectMapper = new ObjectMapper();
+        this.connectionManager = connectionManager;
+        this.metrics = metrics;
+        this.encoder = new EmailActionResponseEncoder();
     }
 
-    public void start() throws IOException, TimeoutException {
-        ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost(config.getHost());
-        factory.setPort(config.getPort());
-        factory.setUsername(config.getUsername());
-        factory.setPassword(config.getPassword());
-        factory.setVirtualHost(config.getVirtualHost());
+    public void start() throws IOException {
+        if (confirmExecutor == null || confirmExecutor.isShutdown()) {
+            confirmExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "RabbitMQ-Confirm-Callbacks");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        // Declare the exchanges on every pooled channel, so that a reopened channel publishes to a declared exchange
+        channelPool = new PublisherChannelPool(connectionManager.getConnection(), config.getPublisherChannels(),
+                channel -> {
+                    channel.exchangeDeclare(config.getOutputExchange(), "direct", true);
+                    if (config.isEventsEnabled()) {
+                        channel.exchangeDeclare(config.getEventsExchange(), "topic", true);
+                    }
+                },
+                config.isPublisherConfirms(), config.getMaxOutstandingConfirms(),
+                TimeUnit.SECONDS.toMillis(config.getPublisherConfirmTimeoutSeconds()));
 
-        connection = factory.newConnection();
-        channel = connection.createChannel();
+        LOGGER.info("Started RabbitMQ publisher for exchange: {} (channels={}, confirms={})",
+                config.getOutputExchange(), config.getPublisherChannels(), config.isPublisherConfirms());
+    }
 
-        // Declare the exchange
-        channel.exchangeDeclare(config.getOutputExchange(), "direct", true);
+    /**
+     * Publishes a result. The returned future completes once the broker confirmed the publish when publisher
+     * confirms are enabled, or as soon as it was written to the channel otherwise.
+     */
+    public CompletableFuture<Void> publishResult(EmailActionResponse response) {
+        return publishResult(response, WireFormat.JSON);
+    }
 
-        LOGGER.info("Started RabbitMQ publisher for exchange: {}", config.getOutputExchange());
+    // Replies are encoded in the wire format of the request they answer
+    public CompletableFuture<Void> publishResult(EmailActionResponse response, WireFormat format) {
+        try {
+            CompletableFuture<Void> confirmation = publish(encoder.properties(response, format),
+                    encoder.encode(response, format));
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Published result: hashID={}, status={}, message={}",
+                        response.getHashID(), response.getStatus(), response.getMessage());
+            }
+            return confirmation;
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
     }
 
-    public void publishResult(EmailActionResponse response) throws IOException {
-        String message = objectMapper.writeValueAsString(response);
+    public CompletableFuture<Void> publishBatchResult(EmailActionBatchResponse response, WireFormat format) {
+        try {
+            CompletableFuture<Void> confirmation = publish(encoder.properties(response, format),
+                    encoder.encode(response, format));
+            LOGGER.debug("Published batch result: batchID={}, status={}, succeeded={}, failed={}",
+                    response.getBatchID(), response.getStatus(), response.getSucceeded(), response.getFailed());
+            return confirmation;
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // Mailbox events go to their own exchange, always in JSON
+    public CompletableFuture<Void> publishEvents(MailboxEventBatch batch) {
+        try {
+            CompletableFuture<Void> confirmation = publish(config.getEventsExchange(), config.getEventsRoutingKey(),
+                    encoder.properties(batch), encoder.encode(batch));
+            LOGGER.debug("Published {} mailbox events", batch.getEvents().size());
+            return confirmation;
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-        channel.basicPublish(
-                config.getOutputExchange(),
-                config.getOutputRoutingKey(),
-                null,
-                message.getBytes(StandardCharsets.UTF_8)
-        );
+    // Publishes an already encoded message, e.g. to republish a delivery to a retry queue
+    public CompletableFuture<Void> publish(String exchange, String routingKey, AMQP.BasicProperties properties, byte[] body) {
+        long start = System.nanoTime();
+        CompletableFuture<Void> confirmation;
+        try {
+            PublisherChannelPool.PooledChannel channel = channelPool.borrow();
+            try {
+                confirmation = channel.publish(exchange, routingKey, properties, body);
+            } finally {
+                channelPool.release(channel);
+            }
+        } catch (IOException e) {
+            confirmation = CompletableFuture.failedFuture(e);
+        }
+        return confirmation.whenComplete((ignored, error) -> {
+            metrics.recordSince(PipelineStage.PUBLISH, start);
+            if (error != null) {
+                metrics.publishFailed();
+            }
+        });
+    }
+
+    private CompletableFuture<Void> publish(AMQP.BasicProperties properties, byte[] body) {
+        return publish(config.getOutputExchange(), config.getOutputRoutingKey(), properties, body);
+    }
+
+    /**
+     * Confirmations complete on the connection's I/O thread, which must not ack deliveries, publish or wait for
+     * locks: continuations doing so run on this executor instead, with the {@code *Async} variants.
+     */
+    public Executor confirmExecutor() {
+        return confirmExecutor;
+    }
+
+    public PublisherChannelPool getChannelPool() {
+        return channelPool;
+    }
 
-        LOGGER.info("Published result: {}", message);
+    public int outstandingConfirms() {
+        return channelPool == null ? 0 : channelPool.outstandingConfirms();
     }
 
-    public void stop() throws IOException, TimeoutException {
-        if (channel != null && channel.isOpen()) {
-            channel.close();
+    public void stop() {
+        if (channelPool != null) {
+            channelPool.close();
         }
-        if (connection != null && connection.isOpen()) {
-            connection.close();
+        if (confirmExecutor != null) {
+            confirmExecutor.shutdown();
         }
         LOGGER.info("Stopped RabbitMQ publisher");
     }
-}
\ No newline at end of file
+}
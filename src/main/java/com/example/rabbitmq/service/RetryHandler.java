@@ -0,0 +1,155 @@
+package com.example.rabbitmq.service;
+
+import com.example.rabbitmq.codec.MalformedRequestException;
+import com.example.rabbitmq.config.InputQueue;
+import com.example.rabbitmq.config.RabbitMQExtensionConfiguration;
+import com.example.rabbitmq.metrics.ExtensionMetrics;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Delivery;
+import org.apache.james.mailbox.exception.MailboxNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Retry budget and dead-lettering for deliveries that failed.
+ *
+ * Instead of being requeued at once, a failed delivery is republished to a retry queue whose TTL dead-letters it
+ * back to the input queue it came from, with an exponentially growing delay per attempt. Each input queue has its
+ * own retry queues, and its dead-lettered deliveries are routed with its name. The attempt count travels in the
+ * {@value #RETRY_COUNT_HEADER} header. Once the budget is exhausted, or straight away for failures that cannot
+ * succeed on a retry, the delivery is republished to the dead-letter exchange.
+ *
+ * The original delivery must only be acknowledged once the returned future completes.
+ */
+@Singleton
+public class RetryHandler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RetryHandler.class);
+    public static final String RETRY_COUNT_HEADER = "x-retry-count";
+    public static final String DEATH_REASON_HEADER = "x-death-reason";
+    private static final String DEFAULT_EXCHANGE = "";
+
+    private final RabbitMQExtensionConfiguration config;
+    private final RabbitMQPublisherService publisherService;
+    private final ExtensionMetrics metrics;
+
+    @Inject
+    public RetryHandler(RabbitMQExtensionConfiguration config, RabbitMQPublisherService publisherService,
+                        ExtensionMetrics metrics) {
+        this.config = config;
+        this.publisherService = publisherService;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Declares the retry queues of every input queue and the dead-letter exchange and queue. Declared on a
+     * recovering channel, they are re-declared after a connection recovery.
+     */
+    public void declareTopology(Channel channel) throws IOException {
+        channel.exchangeDeclare(config.getDeadLetterExchange(), "direct", true);
+        channel.queueDeclare(config.getDeadLetterQueue(), true, false, false, null);
+        for (InputQueue inputQueue : config.getInputQueues()) {
+            String queue = inputQueue.getName();
+            for (long delay : retryDelays()) {
+                Map<String, Object> arguments = new HashMap<>();
+                arguments.put("x-message-ttl", delay);
+                arguments.put("x-dead-letter-exchange", DEFAULT_EXCHANGE);
+                arguments.put("x-dead-letter-routing-key", queue);
+                channel.queueDeclare(retryQueue(queue, delay), true, false, false, arguments);
+            }
+            channel.queueBind(config.getDeadLetterQueue(), config.getDeadLetterExchange(), queue);
+        }
+    }
+
+    /**
+     * Schedules a retry of the delivery, or dead-letters it when the failure is permanent or its retry budget
+     * is exhausted. {@code queue} is the input queue the delivery was consumed from.
+     */
+    public CompletableFuture<Void> handleFailure(Delivery delivery, String queue, Throwable error) {
+        int attempts = retryCount(delivery);
+        if (isPermanent(error)) {
+            return deadLetter(delivery, queue, describe(error));
+        }
+        if (attempts >= config.getRetryMaxAttempts()) {
+            return deadLetter(delivery, queue, "Retry budget exhausted after " + attempts + " attempts: " + describe(error));
+        }
+        long delay = delayFor(attempts);
+        LOGGER.warn("Retrying delivery in {}ms (attempt {}/{}): {}",
+                delay, attempts + 1, config.getRetryMaxAttempts(), describe(error));
+        metrics.retried();
+        return publisherService.publish(DEFAULT_EXCHANGE, retryQueue(queue, delay),
+                withHeaders(delivery, attempts + 1, null), delivery.getBody());
+    }
+
+    public CompletableFuture<Void> deadLetter(Delivery delivery, String queue, String reason) {
+        LOGGER.warn("Dead-lettering delivery from {}: {}", queue, reason);
+        metrics.deadLettered();
+        return publisherService.publish(config.getDeadLetterExchange(), queue,
+                withHeaders(delivery, retryCount(delivery), reason), delivery.getBody());
+    }
+
+    // Failures that would fail the same way on every attempt
+    public boolean isPermanent(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MalformedRequestException
+                    || cause instanceof NumberFormatException
+                    || cause instanceof MailboxNotFoundException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int retryCount(Delivery delivery) {
+        Map<String, Object> headers = delivery.getProperties() == null ? null : delivery.getProperties().getHeaders();
+        Object count = headers == null ? null : headers.get(RETRY_COUNT_HEADER);
+        return count instanceof Number ? ((Number) count).intValue() : 0;
+    }
+
+    private AMQP.BasicProperties withHeaders(Delivery delivery, int retryCount, String deathReason) {
+        AMQP.BasicProperties properties = delivery.getProperties() == null
+                ? new AMQP.BasicProperties() : delivery.getProperties();
+        Map<String, Object> headers = properties.getHeaders() == null
+                ? new HashMap<>() : new HashMap<>(properties.getHeaders());
+        headers.put(RETRY_COUNT_HEADER, retryCount);
+        if (deathReason != null) {
+            headers.put(DEATH_REASON_HEADER, deathReason);
+        }
+        return properties.builder().headers(headers).deliveryMode(2).build();
+    }
+
+    // Doubles from retryInitialDelayMillis with each attempt, up to retryMaxDelayMillis
+    long delayFor(int attempts) {
+        long delay = config.getRetryInitialDelayMillis();
+        for (int i = 0; i < attempts && delay < config.getRetryMaxDelayMillis(); i++) {
+            delay *= 2;
+        }
+        return Math.min(delay, config.getRetryMaxDelayMillis());
+    }
+
+    // One queue per distinct delay: delays stop growing once they reach retryMaxDelayMillis
+    private Set<Long> retryDelays() {
+        Set<Long> delays = new LinkedHashSet<>();
+        for (int attempts = 0; attempts < config.getRetryMaxAttempts(); attempts++) {
+            delays.add(delayFor(attempts));
+        }
+        return delays;
+    }
+
+    private static String retryQueue(String queue, long delay) {
+        return queue + ".retry." + delay;
+    }
+
+    private static String describe(Throwable error) {
+        return error.getClass().getSimpleName() + ": " + error.getMessage();
+    }
+}
@@ -0,0 +1,289 @@
+package com.example.rabbitmq.service;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Work queue of a lane, with one bounded FIFO per input queue, served by smooth weighted round-robin.
+ *
+ * Out of every {@code sum(weights)} tasks taken while all FIFOs are backlogged, each FIFO provides as many as its
+ * weight, interleaved rather than in runs. An idle FIFO gives its share to the others. Tasks are classified with
+ * {@link #classify(int, Runnable)}; unclassified tasks go to the first FIFO. Tasks classified with
+ * {@link #classifyNext(int, Runnable)} go to the head of their FIFO, beyond its capacity.
+ */
+class WeightedTaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    private final ArrayDeque<Runnable>[] fifos;
+    private final int[] weights;
+    private final int[] credits;
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    WeightedTaskQueue(int[] weights, int capacityPerQueue) {
+        this.weights = weights.clone();
+        this.credits = new int[weights.length];
+        this.capacity = capacityPerQueue;
+        this.fifos = new ArrayDeque[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            fifos[i] = new ArrayDeque<>(capacityPerQueue);
+        }
+    }
+
+    static Runnable classify(int queueIndex, Runnable task) {
+        return new ClassifiedTask(queueIndex, task, false);
+    }
+
+    // For the rest of a task that yields its lane: it is never blocked by the tasks it is continuing ahead of
+    static Runnable classifyNext(int queueIndex, Runnable task) {
+        return new ClassifiedTask(queueIndex, task, true);
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+        lock.lock();
+        try {
+            ArrayDeque<Runnable> fifo = fifoOf(task);
+            if (isFull(fifo, task)) {
+                return false;
+            }
+            enqueue(fifo, task);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable task) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            ArrayDeque<Runnable> fifo = fifoOf(task);
+            while (isFull(fifo, task)) {
+                notFull.await();
+            }
+            enqueue(fifo, task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            ArrayDeque<Runnable> fifo = fifoOf(task);
+            while (isFull(fifo, task)) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(fifo, task);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return size == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            for (ArrayDeque<Runnable> fifo : fifos) {
+                if (!fifo.isEmpty()) {
+                    return fifo.peekFirst();
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object task) {
+        lock.lock();
+        try {
+            for (ArrayDeque<Runnable> fifo : fifos) {
+                if (fifo.removeFirstOccurrence(task)) {
+                    size--;
+                    notFull.signalAll();
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return Math.max(0, capacity * fifos.length - size);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> target, int maxElements) {
+        lock.lock();
+        try {
+            int drained = 0;
+            while (size > 0 && drained < maxElements) {
+                target.add(dequeue());
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A snapshot: the executor only iterates to report or cancel queued tasks
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            List<Runnable> tasks = new ArrayList<>(size);
+            for (ArrayDeque<Runnable> fifo : fifos) {
+                tasks.addAll(fifo);
+            }
+            return tasks.iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ArrayDeque<Runnable> fifoOf(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        int index = task instanceof ClassifiedTask ? ((ClassifiedTask) task).queueIndex : 0;
+        return fifos[Math.min(index, fifos.length - 1)];
+    }
+
+    private boolean isFull(ArrayDeque<Runnable> fifo, Runnable task) {
+        return fifo.size() >= capacity && !isNext(task);
+    }
+
+    private static boolean isNext(Runnable task) {
+        return task instanceof ClassifiedTask && ((ClassifiedTask) task).next;
+    }
+
+    private void enqueue(ArrayDeque<Runnable> fifo, Runnable task) {
+        if (isNext(task)) {
+            fifo.addFirst(task);
+        } else {
+            fifo.addLast(task);
+        }
+        size++;
+        notEmpty.signal();
+    }
+
+    // Every backlogged FIFO earns its weight, the richest one is served and pays back the total earned
+    private Runnable dequeue() {
+        int selected = -1;
+        int total = 0;
+        for (int i = 0; i < fifos.length; i++) {
+            if (fifos[i].isEmpty()) {
+                continue;
+            }
+            credits[i] += weights[i];
+            total += weights[i];
+            if (selected < 0 || credits[i] > credits[selected]) {
+                selected = i;
+            }
+        }
+        credits[selected] -= total;
+        size--;
+        notFull.signalAll();
+        return fifos[selected].pollFirst();
+    }
+
+    private static final class ClassifiedTask implements Runnable {
+        private final int queueIndex;
+        private final Runnable task;
+        private final boolean next;
+
+        private ClassifiedTask(int queueIndex, Runnable task, boolean next) {
+            this.queueIndex = queueIndex;
+            this.task = task;
+            this.next = next;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.example.rabbitmq.codec;
+
+import com.example.rabbitmq.model.EmailAction;
+import com.example.rabbitmq.model.EmailActionBatch;
+import com.example.rabbitmq.model.EmailActionMessage;
+import com.example.rabbitmq.model.EmailActionRequest;
+import com.example.rabbitmq.model.EmailActionResponse;
+import com.example.rabbitmq.model.MessageSelector;
+import com.example.rabbitmq.model.SearchCriteria;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EmailActionRequestDecoderTest {
+    private final EmailActionRequestDecoder decoder = new EmailActionRequestDecoder(3);
+
+    @Test
+    void decodesAnAction() throws Exception {
+        EmailActionRequest request = decoder.decode(json(
+                "{'action': 'Move', 'sourceMailboxID': 1, 'sourceMessageID': 2, 'destinationMailboxID': 3, 'hashID': 'h1'}"));
+
+        assertEquals(EmailAction.MOVE, request.getAction());
+        assertEquals(1, request.getSourceMailboxID());
+        assertEquals(2, request.getSourceMessageID());
+        assertEquals(3, request.getDestinationMailboxID());
+        assertEquals("h1", request.getHashID());
+    }
+
+    @Test
+    void fieldsMayComeInAnyOrder() throws Exception {
+        EmailActionRequest request = decoder.decode(json(
+                "{'hashID': 'h1', 'destinationMailboxID': 3, 'sourceMessageID': 2, 'sourceMailboxID': 1, 'action': 'move'}"));
+
+        assertEquals(EmailAction.MOVE, request.getAction());
+        assertEquals(1, request.getSourceMailboxID());
+        assertEquals(3, request.getDestinationMailboxID());
+    }
+
+    @Test
+    void unknownFieldsAreIgnored() throws Exception {
+        EmailActionRequest request = decoder.decode(json(
+                "{'action': 'Trash', 'extra': {'nested': [1, 2]}, 'sourceMailboxID': 1, 'sourceMessageID': 2}"));
+
+        assertEquals(EmailAction.TRASH, request.getAction());
+        assertEquals(EmailActionRequest.NO_MAILBOX, request.getDestinationMailboxID());
+    }
+
+    @Test
+    void invalidActionKeepsTheHashIDReadAfterIt() {
+        MalformedRequestException e = assertThrows(MalformedRequestException.class, () -> decoder.decode(json(
+                "{'action': 'Copy', 'sourceMailboxID': 1, 'sourceMessageID': 2, 'hashID': 'h1'}")));
+
+        assertEquals("Invalid action: Copy", e.getMessage());
+        assertEquals("h1", e.getHashID());
+    }
+
+    @Test
+    void missingFieldsAreReportedWithTheHashID() {
+        MalformedRequestException missingAction = assertThrows(MalformedRequestException.class,
+                () -> decoder.decode(json("{'sourceMailboxID': 1, 'sourceMessageID': 2, 'hashID': 'h1'}")));
+        MalformedRequestException missingMessage = assertThrows(MalformedRequestException.class,
+                () -> decoder.decode(json("{'action': 'Move', 'sourceMailboxID': 1, 'hashID': 'h2'}")));
+
+        assertEquals("Missing action", missingAction.getMessage());
+        assertEquals("h1", missingAction.getHashID());
+        assertEquals("Missing sourceMessageID", missingMessage.getMessage());
+        assertEquals("h2", missingMessage.getHashID());
+    }
+
+    @Test
+    void unparseableBodyKeepsTheHashIDReadBeforeTheError() {
+        MalformedRequestException e = assertThrows(MalformedRequestException.class,
+                () -> decoder.decode(json("{'hashID': 'h1', 'action': ")));
+
+        assertEquals("h1", e.getHashID());
+    }
+
+    @Test
+    void idsMayBeNumbersOrStringsOfDigits() throws Exception {
+        EmailActionRequest request = decoder.decode(json(
+                "{'action': 'Move', 'sourceMailboxID': '42', 'sourceMessageID': 7, 'destinationMailboxID': '999999999999999999'}"));
+
+        assertEquals(42, request.getSourceMailboxID());
+        assertEquals(7, request.getSourceMessageID());
+        assertEquals(999999999999999999L, request.getDestinationMailboxID());
+    }
+
+    @Test
+    void stringIdsOfMoreThan18DigitsAreRejected() {
+        MalformedRequestException e = assertThrows(MalformedRequestException.class, () -> decoder.decode(json(
+                "{'action': 'Move', 'sourceMailboxID': '1234567890123456789', 'sourceMessageID': 2}")));
+
+        assertEquals("Invalid sourceMailboxID", e.getMessage());
+    }
+
+    @Test
+    void idsThatAreNotNonNegativeIntegersAreRejected() {
+        for (String id : new String[]{"-1", "1.5", "'12a'", "''", "true", "[1]", "18446744073709551616"}) {
+            MalformedRequestException e = assertThrows(MalformedRequestException.class, () -> decoder.decode(json(
+                    "{'action': 'Move', 'sourceMailboxID': 1, 'sourceMessageID': " + id + "}")));
+
+            assertEquals("Invalid sourceMessageID", e.getMessage());
+        }
+    }
+
+    @Test
+    void nullDestinationIsNoDestination() throws Exception {
+        EmailActionRequest request = decoder.decode(json(
+                "{'action': 'Trash', 'sourceMailboxID': 1, 'sourceMessageID': 2, 'destinationMailboxID': null}"));
+
+        assertEquals(EmailActionRequest.NO_MAILBOX, request.getDestinationMailboxID());
+    }
+
+    @Test
+    void batchEnvelopeCarriesItsActions() throws Exception {
+        EmailActionMessage message = decoder.decodeMessage(json("{'batchID': 'b1', 'actions': ["
+                + "{'action': 'Move', 'sourceMailboxID': 1, 'sourceMessageID': 2, 'destinationMailboxID': 3, 'hashID': 'h1'},"
+                + "{'action': 'Trash', 'sourceMailboxID': 1, 'sourceMessageID': 4, 'hashID': 'h2'}]}"), WireFormat.JSON);
+
+        EmailActionBatch batch = (EmailActionBatch) message;
+        assertEquals("b1", batch.getBatchID());
+        assertEquals(2, batch.size());
+        assertEquals("h1", batch.getRequests().get(0).getHashID());
+        assertEquals(EmailAction.TRASH, batch.getRequests().get(1).getAction());
+        assertTrue(batch.getRejected().isEmpty());
+    }
+
+    @Test
+    void malformedActionsOfABatchAreRejectedAlone() throws Exception {
+        EmailActionBatch batch = (EmailActionBatch) decoder.decodeMessage(json("{'actions': ["
+                + "{'action': 'Move', 'sourceMailboxID': 1, 'sourceMessageID': 2, 'hashID': 'h1'},"
+                + "{'action': 'Move', 'sourceMessageID': 2, 'hashID': 'h2'},"
+                + "7], 'batchID': 'b1'}"), WireFormat.JSON);
+
+        assertEquals("b1", batch.getBatchID());
+        assertEquals(1, batch.getRequests().size());
+        assertEquals(2, batch.getRejected().size());
+        EmailActionResponse missingMailbox = batch.getRejected().get(0);
+        assertEquals("h2", missingMailbox.getHashID());
+        assertEquals(EmailActionResponse.FAILED, missingMailbox.getStatus());
+        assertEquals("Invalid request: Missing sourceMailboxID", missingMailbox.getMessage());
+        assertNull(batch.getRejected().get(1).getHashID());
+    }
+
+    @Test
+    void batchOfMoreThanMaxBatchSizeActionsIsRejected() {
+        MalformedRequestException e = assertThrows(MalformedRequestException.class, () -> decoder.decodeMessage(json(
+                "{'batchID': 'b1', 'actions': [{}, {}, {}, {}]}"), WireFormat.JSON));
+
+        assertEquals("Batch exceeds 3 actions", e.getMessage());
+        assertEquals("b1", e.getHashID());
+    }
+
+    @Test
+    void batchIsNotASingleAction() {
+        MalformedRequestException e = assertThrows(MalformedRequestException.class, () -> decoder.decode(json(
+                "{'batchID': 'b1', 'actions': [{'action': 'Trash', 'sourceMailboxID': 1, 'sourceMessageID': 2}]}")));
+
+        assertEquals("Expected a single action", e.getMessage());
+        assertEquals("b1", e.getHashID());
+    }
+
+    @Test
+    void bulkActionSelectsAUidRange() throws Exception {
+        EmailActionRequest request = decoder.decode(json(
+                "{'action': 'BulkMove', 'sourceMailboxID': 1, 'destinationMailboxID': 3, 'uidRange': {'from': 10, 'to': '20'}}"));
+
+        assertEquals(EmailAction.BULK_MOVE, request.getAction());
+        assertEquals(MessageSelector.Kind.RANGE, request.getSelector().getKind());
+        assertEquals(10, request.getSelector().getFrom());
+        assertEquals(20, request.getSelector().getTo());
+    }
+
+    @Test
+    void bulkActionSelectsSortedDistinctUids() throws Exception {
+        EmailActionRequest request = decoder.decode(json(
+                "{'action': 'BulkTrash', 'sourceMailboxID': 1, 'uids': [9, '3', 9]}"));
+
+        assertEquals(MessageSelector.Kind.SET, request.getSelector().getKind());
+        assertArrayEquals(new long[]{3, 9}, request.getSelector().getUids());
+    }
+
+    @Test
+    void bulkActionSelectsAQuery() throws Exception {
+        EmailActionRequest request = decoder.decode(json("{'action': 'BulkTrash', 'sourceMailboxID': 1, 'query': "
+                + "{'receivedBefore': '2024-01-01', 'receivedAfter': 1000, 'olderThanDays': 30, 'seen': true, 'maxSize': '2048'}}"));
+
+        SearchCriteria criteria = request.getSelector().getCriteria();
+        assertEquals(MessageSelector.Kind.QUERY, request.getSelector().getKind());
+        assertEquals(1704067200000L, criteria.getReceivedBefore());
+        assertEquals(1000, criteria.getReceivedAfter());
+        assertEquals(30, criteria.getOlderThanDays());
+        assertEquals(Boolean.TRUE, criteria.getSeen());
+        assertNull(criteria.getFlagged());
+        assertEquals(SearchCriteria.UNSET, criteria.getMinSize());
+        assertEquals(2048, criteria.getMaxSize());
+    }
+
+    @Test
+    void invalidSelectorsAreRejectedWithTheHashID() {
+        String[] selectors = {
+                "'uidRange': {'from': 20, 'to': 10}",
+                "'uids': []",
+                "'uids': [1, 2, 3, 4]",
+                "'uids': [1, 'a']",
+                "'query': {'receivedBefore': 'yesterday'}",
+                "'query': {'subject': 'invoice'}",
+                "'uidRange': {'from': 1, 'to': 2}, 'uids': [1]",
+                "'sourceMessageID': 2"
+        };
+        String[] errors = {
+                "Invalid uidRange: from and to must be UIDs, from not above to",
+                "Invalid uids: empty",
+                "Invalid uids: more than 3",
+                "Invalid uids: expected UIDs",
+                "Invalid query: receivedBefore must be epoch milliseconds or an ISO-8601 date",
+                "Invalid query: unknown condition subject",
+                "Only one of uidRange, uids and query may be given",
+                "Missing uidRange, uids or query"
+        };
+        for (int i = 0; i < selectors.length; i++) {
+            String body = "{'action': 'BulkMove', 'sourceMailboxID': 1, 'destinationMailboxID': 3, " + selectors[i] + ", 'hashID': 'h1'}";
+            MalformedRequestException e = assertThrows(MalformedRequestException.class, () -> decoder.decode(json(body)));
+
+            assertEquals(errors[i], e.getMessage());
+            assertEquals("h1", e.getHashID());
+        }
+    }
+
+    @Test
+    void bulkActionsCannotBePartOfABatch() throws Exception {
+        EmailActionBatch batch = (EmailActionBatch) decoder.decodeMessage(json("{'batchID': 'b1', 'actions': ["
+                + "{'action': 'BulkTrash', 'sourceMailboxID': 1, 'uids': [1], 'hashID': 'h1'}]}"), WireFormat.JSON);
+
+        assertTrue(batch.getRequests().isEmpty());
+        assertEquals("Invalid request: Bulk actions cannot be part of a batch", batch.getRejected().get(0).getMessage());
+        assertEquals("h1", batch.getRejected().get(0).getHashID());
+    }
+
+    @Test
+    void setFlagsAddsAndRemovesSystemFlagsAndKeywords() throws Exception {
+        EmailActionRequest request = decoder.decode(json("{'action': 'SetFlags', 'sourceMailboxID': 1, 'sourceMessageID': 2, "
+                + "'flags': {'seen': true, '\\\\Flagged': false, '$Forwarded': true}}"));
+
+        assertEquals(EmailAction.SET_FLAGS, request.getAction());
+        assertEquals(Set.of("\\Seen", "$Forwarded"), request.getFlagUpdate().getAdded());
+        assertEquals(Set.of("\\Flagged"), request.getFlagUpdate().getRemoved());
+    }
+
+    @Test
+    void addKeywordsAddsKeywords() throws Exception {
+        EmailActionRequest request = decoder.decode(json(
+                "{'action': 'AddKeywords', 'sourceMailboxID': 1, 'sourceMessageID': 2, 'keywords': ['$Label1', 'Project']}"));
+
+        assertEquals(Set.of("$Label1", "Project"), request.getFlagUpdate().getAdded());
+        assertTrue(request.getFlagUpdate().getRemoved().isEmpty());
+    }
+
+    @Test
+    void invalidFlagUpdatesAreRejectedWithTheHashID() {
+        String[] updates = {
+                "'action': 'SetFlags', 'flags': {'recent': true}",
+                "'action': 'SetFlags', 'flags': {'\\\\Recent': false}",
+                "'action': 'SetFlags', 'flags': {'seen': 'yes'}",
+                "'action': 'SetFlags', 'flags': {'my label': true}",
+                "'action': 'SetFlags', 'flags': {}",
+                "'action': 'SetFlags', 'keywords': ['$Label1']",
+                "'action': 'AddKeywords', 'keywords': ['seen']",
+                "'action': 'AddKeywords', 'keywords': ['\\\\Recent']",
+                "'action': 'AddKeywords', 'keywords': [1]",
+                "'action': 'AddKeywords', 'keywords': []"
+        };
+        String[] errors = {
+                "Invalid flags: recent cannot be set",
+                "Invalid flags: \\Recent cannot be set",
+                "Invalid flags: seen must be true or false",
+                "Invalid flags: my label cannot be set",
+                "Invalid flags: empty",
+                "Missing flags",
+                "Invalid keyword: seen",
+                "Invalid keyword: \\Recent",
+                "Invalid keywords: expected strings",
+                "Invalid keywords: empty"
+        };
+        for (int i = 0; i < updates.length; i++) {
+            String body = "{" + updates[i] + ", 'sourceMailboxID': 1, 'sourceMessageID': 2, 'hashID': 'h1'}";
+            MalformedRequestException e = assertThrows(MalformedRequestException.class, () -> decoder.decode(json(body)));
+
+            assertEquals(errors[i], e.getMessage());
+            assertEquals("h1", e.getHashID());
+        }
+    }
+
+    @Test
+    void invalidFieldsAnActionDoesNotUseAreIgnored() throws Exception {
+        EmailActionRequest request = decoder.decode(json("{'action': 'Move', 'sourceMailboxID': 1, 'sourceMessageID': 2, "
+                + "'destinationMailboxID': 3, 'flags': {'recent': true}, 'keywords': 7, 'uids': []}"));
+
+        assertEquals(EmailAction.MOVE, request.getAction());
+        assertNull(request.getFlagUpdate());
+        assertNull(request.getSelector());
+    }
+
+    private static byte[] json(String singleQuoted) {
+        return singleQuoted.replace('\'', '"').getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.rabbitmq.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    void emptyHistogramReportsZero() {
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.percentileMicros(0.99));
+        assertEquals(0.0, histogram.meanMicros(), 0);
+    }
+
+    @Test
+    void smallLatenciesAreExact() {
+        record(0, 1, 2, 3);
+
+        assertEquals(0, histogram.percentileMicros(0.25));
+        assertEquals(1, histogram.percentileMicros(0.5));
+        assertEquals(2, histogram.percentileMicros(0.75));
+        assertEquals(3, histogram.percentileMicros(1));
+    }
+
+    @Test
+    void percentileIsWithinAQuarterAboveTheExactValue() {
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros, TimeUnit.MICROSECONDS);
+        }
+
+        assertBetween(500, 625, histogram.percentileMicros(0.5));
+        assertBetween(990, 1000, histogram.percentileMicros(0.99));
+        assertEquals(1000, histogram.percentileMicros(0.999));
+        assertEquals(1000, histogram.maxMicros());
+        assertEquals(500.5, histogram.meanMicros(), 0.001);
+    }
+
+    @Test
+    void percentileDoesNotExceedTheMaximum() {
+        record(1000, 1000, 1000);
+
+        // 1000 falls in the bucket [896, 1023]
+        assertEquals(1000, histogram.percentileMicros(0.5));
+    }
+
+    @Test
+    void everyLatencyFallsInABucketCoveringIt() {
+        for (long micros = 0; micros < 1 << 20; micros++) {
+            int bucket = LatencyHistogram.bucketOf(micros);
+            long upperBound = LatencyHistogram.upperBoundOf(bucket);
+
+            assertTrue(micros <= upperBound);
+            assertTrue(upperBound <= micros + micros / 4);
+        }
+        assertTrue(LatencyHistogram.bucketOf(Long.MAX_VALUE) < 256);
+    }
+
+    @Test
+    void latenciesAreRecordedInMicroseconds() {
+        histogram.record(1500, TimeUnit.NANOSECONDS);
+        histogram.record(-5, TimeUnit.MILLISECONDS);
+
+        assertEquals(2, histogram.count());
+        assertEquals(1, histogram.maxMicros());
+        assertEquals(0, histogram.percentileMicros(0.5));
+    }
+
+    @Test
+    void resetClearsEverySample() {
+        record(10, 20, 30);
+
+        histogram.reset();
+
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.maxMicros());
+        assertEquals(0, histogram.percentileMicros(0.5));
+    }
+
+    private void record(long... micros) {
+        for (long value : micros) {
+            histogram.record(value, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual >= min && actual <= max, actual + " not in [" + min + ", " + max + "]");
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.rabbitmq.service;
+
+import com.example.rabbitmq.model.EmailAction;
+import com.example.rabbitmq.model.EmailActionRequest;
+import com.example.rabbitmq.model.FlagUpdate;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ActionGroupsTest {
+    private static final FlagUpdate SEEN = new FlagUpdate(Set.of("\\Seen"), Set.of());
+    private static final FlagUpdate UNSEEN = new FlagUpdate(Set.of(), Set.of("\\Seen"));
+
+    @Test
+    void sameActionsOnAMailboxAreGrouped() {
+        EmailActionRequest first = move(1, 10, 2);
+        EmailActionRequest second = move(1, 11, 2);
+
+        assertEquals(List.of(List.of(first, second)), groups(first, second));
+    }
+
+    @Test
+    void actionsOfOtherMailboxesInBetweenDoNotSplitAGroup() {
+        EmailActionRequest first = move(1, 10, 2);
+        EmailActionRequest other = move(3, 10, 2);
+        EmailActionRequest second = move(1, 11, 2);
+
+        assertEquals(List.of(List.of(first, second), List.of(other)), groups(first, other, second));
+    }
+
+    @Test
+    void differentDestinationsOrActionsAreNotGrouped() {
+        EmailActionRequest first = move(1, 10, 2);
+        EmailActionRequest elsewhere = move(1, 11, 4);
+        EmailActionRequest trash = new EmailActionRequest(EmailAction.TRASH, 1, 12, EmailActionRequest.NO_MAILBOX, null);
+
+        assertEquals(List.of(List.of(first), List.of(elsewhere), List.of(trash)), groups(first, elsewhere, trash));
+    }
+
+    @Test
+    void onlyConsecutiveActionsOfAMailboxAreGrouped() {
+        EmailActionRequest seen = setFlags(1, 10, SEEN);
+        EmailActionRequest unseen = setFlags(1, 10, UNSEEN);
+        EmailActionRequest seenAgain = setFlags(1, 11, new FlagUpdate(Set.of("\\Seen"), Set.of()));
+
+        // Grouping the last action with the first would apply it before the one in between
+        assertEquals(List.of(List.of(seen), List.of(unseen), List.of(seenAgain)), groups(seen, unseen, seenAgain));
+    }
+
+    @Test
+    void equalFlagUpdatesAreGrouped() {
+        EmailActionRequest first = setFlags(1, 10, SEEN);
+        EmailActionRequest second = setFlags(1, 11, new FlagUpdate(Set.of("\\Seen"), Set.of()));
+
+        assertEquals(List.of(List.of(first, second)), groups(first, second));
+    }
+
+    private static List<List<EmailActionRequest>> groups(EmailActionRequest... requests) {
+        return ActionGroups.consecutive(List.of(requests), Function.identity());
+    }
+
+    private static EmailActionRequest move(long sourceMailboxID, long messageID, long destinationMailboxID) {
+        return new EmailActionRequest(EmailAction.MOVE, sourceMailboxID, messageID, destinationMailboxID, null);
+    }
+
+    private static EmailActionRequest setFlags(long sourceMailboxID, long messageID, FlagUpdate update) {
+        return new EmailActionRequest(EmailAction.SET_FLAGS, sourceMailboxID, messageID,
+                EmailActionRequest.NO_MAILBOX, null, null, update);
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.rabbitmq.service;
+
+import com.example.rabbitmq.config.RabbitMQExtensionConfiguration;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveLimiterTest {
+    private static final long TARGET_MILLIS = 20;
+
+    @Test
+    void disabledLimiterRunsOperationsDirectly() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(RabbitMQExtensionConfiguration.builder().build());
+
+        assertFalse(limiter.isEnabled());
+        assertEquals("done", limiter.call(1, () -> "done"));
+        assertEquals(0, limiter.getConcurrencyLimit());
+    }
+
+    @Test
+    void slowOperationShrinksTheLimitByAQuarter() {
+        AdaptiveLimiter limiter = limiter(1, 8);
+        List<Integer> prefetches = new ArrayList<>();
+        limiter.onPrefetchChange(prefetches::add);
+
+        limiter.call(1, () -> sleep(3 * TARGET_MILLIS));
+
+        assertEquals(6, limiter.getConcurrencyLimit());
+        assertEquals(0, limiter.getInFlight());
+        // The prefetch of 20 follows the limit: 20 * 6 / 8
+        assertEquals(List.of(15), prefetches);
+        assertEquals(15, limiter.getPrefetch());
+    }
+
+    @Test
+    void limitDoesNotShrinkBelowTheMinimum() {
+        AdaptiveLimiter limiter = limiter(2, 8);
+
+        for (int i = 0; i < 10; i++) {
+            limiter.call(1, () -> sleep(3 * TARGET_MILLIS));
+            // Past one smoothed operation latency, so that every slow operation may back off
+            sleep(4 * TARGET_MILLIS);
+        }
+
+        assertEquals(2, limiter.getConcurrencyLimit());
+    }
+
+    @Test
+    void latencyIsMeasuredPerAction() {
+        AdaptiveLimiter limiter = limiter(1, 8);
+
+        limiter.call(10, () -> sleep(3 * TARGET_MILLIS));
+
+        assertEquals(8, limiter.getConcurrencyLimit());
+        assertTrue(limiter.getSmoothedLatencyMillis() < TARGET_MILLIS);
+    }
+
+    @Test
+    void fastSaturatedOperationsGrowTheLimitUpToTheMaximum() {
+        AdaptiveLimiter limiter = limiter(1, 2);
+        limiter.call(1, () -> sleep(3 * TARGET_MILLIS));
+        assertEquals(1, limiter.getConcurrencyLimit());
+
+        // With a limit of 1, every operation finds it saturated; the limit grows once the smoothed latency recovers
+        for (int i = 0; i < 100 && limiter.getConcurrencyLimit() < 2; i++) {
+            limiter.call(1, () -> null);
+        }
+        assertEquals(2, limiter.getConcurrencyLimit());
+
+        for (int i = 0; i < 100; i++) {
+            limiter.call(1, () -> null);
+        }
+        assertEquals(2, limiter.getConcurrencyLimit());
+    }
+
+    private static AdaptiveLimiter limiter(int minConcurrency, int maxConcurrency) {
+        return new AdaptiveLimiter(RabbitMQExtensionConfiguration.builder()
+                .adaptiveConcurrency(true)
+                .adaptiveTargetLatencyMillis(TARGET_MILLIS)
+                .adaptiveMinConcurrency(minConcurrency)
+                .adaptiveMaxConcurrency(maxConcurrency)
+                .build());
+    }
+
+    private static Void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+}
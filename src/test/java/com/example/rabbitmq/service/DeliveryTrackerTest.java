@@ -0,0 +1,159 @@
+package com.example.rabbitmq.service;
+
+import com.rabbitmq.client.Channel;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DeliveryTrackerTest {
+    private final List<String> calls = new ArrayList<>();
+    private final AtomicInteger drained = new AtomicInteger();
+    private final DeliveryTracker tracker = new DeliveryTracker(recordingChannel(), "inputQueue", drained::incrementAndGet);
+
+    @Test
+    void singleCompletedDeliveryIsAckedAlone() throws Exception {
+        tracker.track(1);
+
+        tracker.ack(1);
+
+        assertEquals(List.of("ack 1"), calls);
+        assertEquals(0, tracker.outstandingCount());
+    }
+
+    @Test
+    void completedHeadRunIsAckedWithOneMultipleAck() throws Exception {
+        track(1, 2, 3);
+        tracker.markCompleted(1);
+        tracker.markCompleted(2);
+
+        tracker.flush();
+
+        assertEquals(List.of("ack 2 multiple"), calls);
+        assertEquals(1, tracker.outstandingCount());
+    }
+
+    @Test
+    void deliveriesCompletedBehindASlowOneAreAckedIndividually() throws Exception {
+        track(1, 2, 3);
+
+        tracker.ack(3);
+        tracker.ack(2);
+
+        assertEquals(List.of("ack 3", "ack 2"), calls);
+        assertEquals(1, tracker.outstandingCount());
+
+        tracker.ack(1);
+
+        assertEquals(List.of("ack 3", "ack 2", "ack 1"), calls);
+        assertEquals(0, tracker.outstandingCount());
+    }
+
+    @Test
+    void headRunAndDeliveriesBehindItAreAckedInOneFlush() throws Exception {
+        track(1, 2, 3, 4);
+        tracker.markCompleted(1);
+        tracker.markCompleted(2);
+        tracker.markCompleted(4);
+
+        tracker.flush();
+
+        assertEquals(List.of("ack 2 multiple", "ack 4"), calls);
+        assertEquals(1, tracker.outstandingCount());
+    }
+
+    @Test
+    void completionsOfUntrackedDeliveriesAreIgnored() throws Exception {
+        track(1);
+
+        tracker.ack(7);
+
+        assertEquals(List.of(), calls);
+        assertEquals(1, tracker.outstandingCount());
+    }
+
+    @Test
+    void nackReleasesTheDeliveryAndTheCompletedOnesBehindIt() throws Exception {
+        track(1, 2);
+        tracker.markCompleted(2);
+
+        tracker.nack(1, true);
+
+        assertEquals(List.of("nack 1 requeue", "ack 2"), calls);
+        assertEquals(0, tracker.outstandingCount());
+    }
+
+    @Test
+    void deliveryIsSettledOnce() throws Exception {
+        track(1);
+
+        tracker.nack(1, false);
+        tracker.nack(1, false);
+        tracker.ack(1);
+
+        assertEquals(List.of("nack 1"), calls);
+    }
+
+    @Test
+    void invalidatedTrackerIgnoresCompletions() throws Exception {
+        track(1, 2);
+        tracker.markCompleted(1);
+
+        tracker.invalidate();
+        tracker.flush();
+        tracker.ack(2);
+        tracker.nack(1, true);
+        tracker.track(3);
+
+        assertEquals(List.of(), calls);
+        assertEquals(0, tracker.outstandingCount());
+    }
+
+    @Test
+    void onDrainedRunsOnceNothingIsOutstanding() throws Exception {
+        track(1, 2, 3);
+
+        tracker.ack(2);
+        tracker.nack(3, true);
+        assertEquals(0, drained.get());
+
+        tracker.ack(1);
+        assertEquals(1, drained.get());
+    }
+
+    @Test
+    void onDrainedRunsOnInvalidation() {
+        track(1);
+
+        tracker.invalidate();
+
+        assertEquals(1, drained.get());
+    }
+
+    private void track(long... deliveryTags) {
+        for (long deliveryTag : deliveryTags) {
+            tracker.track(deliveryTag);
+        }
+    }
+
+    // Records acks and nacks, e.g. "ack 3 multiple" or "nack 2 requeue"
+    private Channel recordingChannel() {
+        return (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[]{Channel.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "basicAck":
+                            calls.add("ack " + args[0] + ((boolean) args[1] ? " multiple" : ""));
+                            return null;
+                        case "basicNack":
+                            calls.add("nack " + args[0] + ((boolean) args[2] ? " requeue" : ""));
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.rabbitmq.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PartitionRouterTest {
+    private final PartitionRouter router = new PartitionRouter();
+
+    @Test
+    void firstMailboxIsTheKeyWhenNoneIsPinned() throws Exception {
+        assertEquals(5, router.acquire(new long[]{5, 3}));
+        assertEquals(7, router.acquire(new long[]{7}));
+    }
+
+    @Test
+    void deliveryWithoutMailboxesTakesKeyZero() throws Exception {
+        assertEquals(0, router.acquire(new long[0]));
+    }
+
+    @Test
+    void laterDeliveryTakesTheKeyItsMailboxIsPinnedTo() throws Exception {
+        router.acquire(new long[]{5, 3});
+
+        assertEquals(5, router.acquire(new long[]{3}));
+        assertEquals(5, router.acquire(new long[]{8, 3}));
+        // Mailbox 8 is now pinned too, by the delivery above
+        assertEquals(5, router.acquire(new long[]{8}));
+    }
+
+    @Test
+    void mailboxIsUnpinnedOnceAllItsDeliveriesAreReleased() throws Exception {
+        router.acquire(new long[]{5, 3});
+        router.acquire(new long[]{3});
+
+        router.release(new long[]{5, 3});
+        assertEquals(5, router.acquire(new long[]{3}));
+
+        router.release(new long[]{3});
+        router.release(new long[]{3});
+        assertEquals(3, router.acquire(new long[]{3}));
+    }
+
+    @Test
+    void deliveryOnMailboxesPinnedToSeveralKeysWaitsForTheirRelease() throws Exception {
+        router.acquire(new long[]{1});
+        router.acquire(new long[]{2});
+        CompletableFuture<Long> spanning = CompletableFuture.supplyAsync(() -> {
+            try {
+                return router.acquire(new long[]{1, 2});
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        assertThrows(TimeoutException.class, () -> spanning.get(200, TimeUnit.MILLISECONDS));
+        assertFalse(spanning.isDone());
+
+        router.release(new long[]{1});
+        assertEquals(2, spanning.get(5, TimeUnit.SECONDS).longValue());
+    }
+}
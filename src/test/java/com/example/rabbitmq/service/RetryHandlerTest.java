@@ -0,0 +1,114 @@
+package com.example.rabbitmq.service;
+
+import com.example.rabbitmq.codec.MalformedRequestException;
+import com.example.rabbitmq.config.InputQueue;
+import com.example.rabbitmq.config.RabbitMQExtensionConfiguration;
+import com.rabbitmq.client.Channel;
+import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.exception.MailboxNotFoundException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryHandlerTest {
+    private final List<String> calls = new ArrayList<>();
+
+    @Test
+    void delayDoublesWithEachAttemptUpToTheMaximum() {
+        RetryHandler handler = handler(RabbitMQExtensionConfiguration.builder()
+                .retryInitialDelayMillis(1000)
+                .retryMaxDelayMillis(5000)
+                .build());
+
+        assertEquals(1000, handler.delayFor(0));
+        assertEquals(2000, handler.delayFor(1));
+        assertEquals(4000, handler.delayFor(2));
+        assertEquals(5000, handler.delayFor(3));
+        assertEquals(5000, handler.delayFor(30));
+    }
+
+    @Test
+    void delayStaysConstantWhenTheBoundsAreEqual() {
+        RetryHandler handler = handler(RabbitMQExtensionConfiguration.builder()
+                .retryInitialDelayMillis(500)
+                .retryMaxDelayMillis(500)
+                .build());
+
+        assertEquals(500, handler.delayFor(0));
+        assertEquals(500, handler.delayFor(4));
+    }
+
+    @Test
+    void oneRetryQueuePerDistinctDelayAndInputQueue() throws Exception {
+        RetryHandler handler = handler(RabbitMQExtensionConfiguration.builder()
+                .inputQueue("actions")
+                .priorityQueues(List.of(new InputQueue("urgent", 2)))
+                .retryMaxAttempts(5)
+                .retryInitialDelayMillis(1000)
+                .retryMaxDelayMillis(4000)
+                .deadLetterExchange("dlx")
+                .deadLetterQueue("dlq")
+                .build());
+
+        handler.declareTopology(recordingChannel());
+
+        assertEquals(List.of(
+                "exchange dlx",
+                "queue dlq",
+                "queue actions.retry.1000 ttl 1000 to actions",
+                "queue actions.retry.2000 ttl 2000 to actions",
+                "queue actions.retry.4000 ttl 4000 to actions",
+                "bind dlq dlx actions",
+                "queue urgent.retry.1000 ttl 1000 to urgent",
+                "queue urgent.retry.2000 ttl 2000 to urgent",
+                "queue urgent.retry.4000 ttl 4000 to urgent",
+                "bind dlq dlx urgent"), calls);
+    }
+
+    @Test
+    void failuresThatCannotSucceedOnARetryArePermanent() {
+        RetryHandler handler = handler(RabbitMQExtensionConfiguration.builder().build());
+
+        assertTrue(handler.isPermanent(new MalformedRequestException("Missing action", null)));
+        assertTrue(handler.isPermanent(new MailboxNotFoundException("INBOX")));
+        assertTrue(handler.isPermanent(new MailboxException("Move failed", new NumberFormatException("x"))));
+        assertFalse(handler.isPermanent(new MailboxException("Backend unavailable")));
+        assertFalse(handler.isPermanent(new IOException("Connection reset")));
+        assertFalse(handler.isPermanent(new IllegalArgumentException("Invalid range")));
+    }
+
+    private static RetryHandler handler(RabbitMQExtensionConfiguration config) {
+        return new RetryHandler(config, null, null);
+    }
+
+    // Records declarations, e.g. "queue actions.retry.1000 ttl 1000 to actions"
+    private Channel recordingChannel() {
+        return (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[]{Channel.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "exchangeDeclare":
+                            calls.add("exchange " + args[0]);
+                            return null;
+                        case "queueDeclare":
+                            @SuppressWarnings("unchecked")
+                            Map<String, Object> arguments = (Map<String, Object>) args[4];
+                            calls.add("queue " + args[0] + (arguments == null ? ""
+                                    : " ttl " + arguments.get("x-message-ttl") + " to " + arguments.get("x-dead-letter-routing-key")));
+                            return null;
+                        case "queueBind":
+                            calls.add("bind " + args[0] + " " + args[1] + " " + args[2]);
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
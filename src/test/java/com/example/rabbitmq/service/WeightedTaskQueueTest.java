@@ -0,0 +1,201 @@
+package com.example.rabbitmq.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WeightedTaskQueueTest {
+    private final List<Integer> served = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    void backloggedQueuesAreServedInProportionToTheirWeight() throws Exception {
+        WeightedTaskQueue queue = new WeightedTaskQueue(new int[]{1, 3}, 100);
+        for (int i = 0; i < 40; i++) {
+            queue.put(task(0));
+            queue.put(task(1));
+        }
+
+        runNext(queue, 40);
+
+        assertEquals(10, Collections.frequency(served, 0));
+        assertEquals(30, Collections.frequency(served, 1));
+    }
+
+    @Test
+    void backloggedQueuesAreInterleaved() throws Exception {
+        WeightedTaskQueue queue = new WeightedTaskQueue(new int[]{1, 3}, 100);
+        for (int i = 0; i < 8; i++) {
+            queue.put(task(0));
+            queue.put(task(1));
+        }
+
+        runNext(queue, 8);
+
+        // Each group of 4 holds one task of the lighter queue rather than a run of 3 then 1
+        assertEquals(1, Collections.frequency(served.subList(0, 4), 0));
+        assertEquals(1, Collections.frequency(served.subList(4, 8), 0));
+    }
+
+    @Test
+    void idleQueueGivesItsShareToTheOthers() throws Exception {
+        WeightedTaskQueue queue = new WeightedTaskQueue(new int[]{8, 1}, 100);
+        for (int i = 0; i < 5; i++) {
+            queue.put(task(1));
+        }
+
+        runNext(queue, 5);
+
+        assertEquals(List.of(1, 1, 1, 1, 1), served);
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void tasksOfAQueueKeepTheirOrder() throws Exception {
+        WeightedTaskQueue queue = new WeightedTaskQueue(new int[]{1}, 10);
+        for (int i = 0; i < 5; i++) {
+            queue.put(WeightedTaskQueue.classify(0, record(i)));
+        }
+
+        runNext(queue, 5);
+
+        assertEquals(List.of(0, 1, 2, 3, 4), served);
+    }
+
+    @Test
+    void unclassifiedTasksGoToTheFirstQueue() throws Exception {
+        WeightedTaskQueue queue = new WeightedTaskQueue(new int[]{1, 1}, 1);
+        queue.put(record(0));
+
+        assertFalse(queue.offer(task(0)));
+        assertTrue(queue.offer(task(1)));
+    }
+
+    @Test
+    void capacityIsPerQueue() {
+        WeightedTaskQueue queue = new WeightedTaskQueue(new int[]{1, 1}, 2);
+
+        assertTrue(queue.offer(task(0)));
+        assertTrue(queue.offer(task(0)));
+        assertFalse(queue.offer(task(0)));
+        assertTrue(queue.offer(task(1)));
+        assertEquals(3, queue.size());
+        assertEquals(1, queue.remainingCapacity());
+    }
+
+    @Test
+    void putBlocksWhileItsQueueIsFull() throws Exception {
+        WeightedTaskQueue queue = new WeightedTaskQueue(new int[]{1, 1}, 1);
+        queue.put(task(0));
+        CountDownLatch put = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put(task(0));
+                put.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+
+        assertFalse(put.await(200, TimeUnit.MILLISECONDS));
+        // Room in another queue does not release it
+        queue.put(task(1));
+        assertFalse(put.await(200, TimeUnit.MILLISECONDS));
+
+        queue.remove(queue.peek());
+        assertTrue(put.await(5, TimeUnit.SECONDS));
+        producer.join();
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    void timedOfferGivesUpWhileItsQueueIsFull() throws Exception {
+        WeightedTaskQueue queue = new WeightedTaskQueue(new int[]{1}, 1);
+        queue.put(task(0));
+
+        assertFalse(queue.offer(task(0), 50, TimeUnit.MILLISECONDS));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    void timedPollGivesUpOnAnEmptyQueue() throws Exception {
+        WeightedTaskQueue queue = new WeightedTaskQueue(new int[]{1}, 1);
+
+        assertNull(queue.poll(50, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void drainToTakesTasksInWeightedOrder() throws Exception {
+        WeightedTaskQueue queue = new WeightedTaskQueue(new int[]{1, 3}, 10);
+        for (int i = 0; i < 4; i++) {
+            queue.put(task(0));
+            queue.put(task(1));
+        }
+
+        List<Runnable> drained = new ArrayList<>();
+        assertEquals(4, queue.drainTo(drained, 4));
+        drained.forEach(Runnable::run);
+
+        assertEquals(1, Collections.frequency(served, 0));
+        assertEquals(3, Collections.frequency(served, 1));
+        assertEquals(4, queue.size());
+
+        assertEquals(4, queue.drainTo(new ArrayList<>()));
+        assertEquals(0, queue.size());
+        assertEquals(20, queue.remainingCapacity());
+    }
+
+    @Test
+    void nextTaskGoesAheadOfItsQueueBeyondCapacity() throws Exception {
+        WeightedTaskQueue queue = new WeightedTaskQueue(new int[]{1, 1}, 1);
+        queue.put(task(0));
+        queue.put(task(1));
+
+        assertTrue(queue.offer(WeightedTaskQueue.classifyNext(0, record(2))));
+        assertEquals(3, queue.size());
+        assertEquals(0, queue.remainingCapacity());
+
+        runNext(queue, 3);
+
+        // Served in turn with the other queue, but ahead of the task queued before it
+        assertEquals(List.of(2, 1, 0), served);
+    }
+
+    @Test
+    void removeFreesCapacity() {
+        WeightedTaskQueue queue = new WeightedTaskQueue(new int[]{1, 1}, 1);
+        Runnable first = task(0);
+        Runnable other = task(1);
+        assertTrue(queue.offer(first));
+        assertTrue(queue.offer(other));
+
+        assertTrue(queue.remove(first));
+        assertFalse(queue.remove(first));
+        assertEquals(1, queue.size());
+        assertTrue(queue.offer(task(0)));
+        assertTrue(queue.contains(other));
+    }
+
+    private Runnable task(int queueIndex) {
+        return WeightedTaskQueue.classify(queueIndex, record(queueIndex));
+    }
+
+    private Runnable record(int value) {
+        return () -> served.add(value);
+    }
+
+    private static void runNext(WeightedTaskQueue queue, int count) throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            queue.take().run();
+        }
+    }
+}